@@ -0,0 +1,32 @@
+package nerdsquad.note60;
+
+import java.io.IOException;
+
+/**
+ * Where a voice note's audio comes from: the microphone, or a stand-in such as a WAV file.
+ *
+ * <p>Sources deliver mono 16-bit samples and are used from a single recording thread.
+ */
+public interface AudioSource {
+  /**
+   * @return The number of samples per second.
+   */
+  int getSampleRate();
+
+  /**
+   * Starts capturing. Called once, before the first {@link #read}.
+   */
+  void start() throws IOException;
+
+  /**
+   * Blocks until samples are available and reads up to {@code length} of them.
+   *
+   * @return The number of samples read, or -1 once the source has run out.
+   */
+  int read(short[] samples, int offset, int length) throws IOException;
+
+  /**
+   * Stops capturing and releases the source.
+   */
+  void close();
+}
@@ -0,0 +1,59 @@
+package nerdsquad.note60;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Debug check that the render loop allocates nothing once it has warmed up.
+ *
+ * <p>Counts allocations made on the GL thread between {@link #beginFrame()} and
+ * {@link #endFrame(boolean)}. Any steady-state frame that allocated is reported as an error, so a
+ * regression shows up in logcat the first time it runs rather than as GC pauses on a headset.
+ */
+class FrameAllocationCounter {
+  private static final String TAG = "FrameAllocationCounter";
+
+  // Frames to ignore while buffers grow to their working size.
+  private static final int WARMUP_FRAMES = 120;
+
+  private final boolean enabled;
+  private int frames;
+  private volatile int allocatingFrames;
+
+  FrameAllocationCounter(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  void beginFrame() {
+    if (!enabled) {
+      return;
+    }
+    if (frames == 0) {
+      Debug.startAllocCounting();
+    }
+    Debug.resetThreadAllocCount();
+  }
+
+  /**
+   * @param steadyState False if this frame did work that is expected to allocate, such as adding
+   *     notes.
+   */
+  void endFrame(boolean steadyState) {
+    if (!enabled) {
+      return;
+    }
+    int allocations = Debug.getThreadAllocCount();
+    frames++;
+    if (steadyState && frames > WARMUP_FRAMES && allocations > 0) {
+      allocatingFrames++;
+      Log.e(TAG, "Frame " + frames + " allocated " + allocations + " objects");
+    }
+  }
+
+  /**
+   * @return The number of steady-state frames that allocated. Can be read from any thread.
+   */
+  int getAllocatingFrames() {
+    return allocatingFrames;
+  }
+}
@@ -0,0 +1,135 @@
+package nerdsquad.note60;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Owns the static meshes of the world and keeps them in one interleaved vertex buffer object.
+ *
+ * <p>Meshes are registered once on the CPU side with {@link #addMesh}, which hands back a
+ * {@link Mesh} describing where the mesh lives in the shared buffer. {@link #onContextCreated()}
+ * uploads everything to the GPU in one go; call it again whenever the GL context is recreated and
+ * existing {@link Mesh} handles stay valid.
+ *
+ * <p>Every vertex is laid out as position (3 floats), normal (3 floats) and color (4 floats).
+ */
+public class GeometryManager implements GlResource {
+  public static final int POSITION_SIZE = 3;
+  public static final int NORMAL_SIZE = 3;
+  public static final int COLOR_SIZE = 4;
+  public static final int FLOATS_PER_VERTEX = POSITION_SIZE + NORMAL_SIZE + COLOR_SIZE;
+  public static final int STRIDE = FLOATS_PER_VERTEX * 4;
+
+  private static final int NORMAL_OFFSET = POSITION_SIZE * 4;
+  private static final int COLOR_OFFSET = (POSITION_SIZE + NORMAL_SIZE) * 4;
+
+  /**
+   * A lightweight handle to a mesh inside the shared vertex buffer.
+   */
+  public static final class Mesh {
+    public final int firstVertex;
+    public final int vertexCount;
+
+    private Mesh(int firstVertex, int vertexCount) {
+      this.firstVertex = firstVertex;
+      this.vertexCount = vertexCount;
+    }
+  }
+
+  private float[] vertices = new float[64 * FLOATS_PER_VERTEX];
+  private int vertexCount;
+  private final int[] buffer = new int[1];
+
+  /**
+   * Registers a mesh. The arrays are copied, interleaved, into the CPU-side copy of the shared
+   * buffer; they reach the GPU on the next {@link #onContextCreated()}.
+   *
+   * @param coords xyz positions.
+   * @param normals xyz normals, one per position.
+   * @param colors rgba colors, one per position.
+   * @return The handle to draw the mesh with.
+   */
+  public Mesh addMesh(float[] coords, float[] normals, float[] colors) {
+    int count = coords.length / POSITION_SIZE;
+    if (normals.length != count * NORMAL_SIZE || colors.length != count * COLOR_SIZE) {
+      throw new IllegalArgumentException("Mesh attributes have different vertex counts");
+    }
+    ensureCapacity(vertexCount + count);
+    int first = vertexCount;
+    for (int v = 0; v < count; v++) {
+      writeVertex(vertices, (first + v) * FLOATS_PER_VERTEX, coords, normals, colors, v);
+    }
+    vertexCount += count;
+    return new Mesh(first, count);
+  }
+
+  /**
+   * Uploads every registered mesh into a new vertex buffer object.
+   */
+  @Override
+  public void onContextCreated() {
+    FloatBuffer data = ByteBuffer.allocateDirect(vertexCount * STRIDE)
+        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    data.put(vertices, 0, vertexCount * FLOATS_PER_VERTEX).position(0);
+
+    GLES20.glGenBuffers(1, buffer, 0);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer[0]);
+    GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexCount * STRIDE, data, GLES20.GL_STATIC_DRAW);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+  }
+
+  /**
+   * Binds the shared buffer and points the given attributes at it. Meshes are then drawn with
+   * {@code glDrawArrays(mode, mesh.firstVertex, mesh.vertexCount)}.
+   */
+  public void bind(int positionParam, int normalParam, int colorParam) {
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer[0]);
+    setVertexLayout(positionParam, normalParam, colorParam);
+  }
+
+  /**
+   * Points the given attributes at the buffer bound to GL_ARRAY_BUFFER, which must hold vertices
+   * in this class's interleaved layout. Attributes with location -1 are skipped.
+   */
+  public static void setVertexLayout(int positionParam, int normalParam, int colorParam) {
+    if (positionParam >= 0) {
+      GLES20.glEnableVertexAttribArray(positionParam);
+      GLES20.glVertexAttribPointer(
+          positionParam, POSITION_SIZE, GLES20.GL_FLOAT, false, STRIDE, 0);
+    }
+    if (normalParam >= 0) {
+      GLES20.glEnableVertexAttribArray(normalParam);
+      GLES20.glVertexAttribPointer(
+          normalParam, NORMAL_SIZE, GLES20.GL_FLOAT, false, STRIDE, NORMAL_OFFSET);
+    }
+    if (colorParam >= 0) {
+      GLES20.glEnableVertexAttribArray(colorParam);
+      GLES20.glVertexAttribPointer(
+          colorParam, COLOR_SIZE, GLES20.GL_FLOAT, false, STRIDE, COLOR_OFFSET);
+    }
+  }
+
+  /**
+   * Writes vertex {@code v} of the given attribute arrays into {@code dst} at {@code offset} in
+   * the interleaved layout.
+   */
+  private static void writeVertex(
+      float[] dst, int offset, float[] coords, float[] normals, float[] colors, int v) {
+    System.arraycopy(coords, v * POSITION_SIZE, dst, offset, POSITION_SIZE);
+    System.arraycopy(normals, v * NORMAL_SIZE, dst, offset + POSITION_SIZE, NORMAL_SIZE);
+    System.arraycopy(
+        colors, v * COLOR_SIZE, dst, offset + POSITION_SIZE + NORMAL_SIZE, COLOR_SIZE);
+  }
+
+  private void ensureCapacity(int needed) {
+    if (needed * FLOATS_PER_VERTEX <= vertices.length) {
+      return;
+    }
+    float[] newVertices = new float[Math.max(needed * FLOATS_PER_VERTEX, vertices.length * 2)];
+    System.arraycopy(vertices, 0, newVertices, 0, vertexCount * FLOATS_PER_VERTEX);
+    vertices = newVertices;
+  }
+}
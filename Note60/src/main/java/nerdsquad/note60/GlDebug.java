@@ -0,0 +1,89 @@
+package nerdsquad.note60;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Switchable OpenGL ES error checking.
+ *
+ * <p>{@code glGetError} can stall the pipeline on mobile GPUs, so how often it is polled depends
+ * on the mode picked at startup:
+ * <ul>
+ *   <li>{@link #MODE_OFF} never polls; {@link #check} costs a field read.
+ *   <li>{@link #MODE_PER_FRAME} polls once per frame in {@link #endFrame()} and logs what it finds,
+ *       which narrows errors down to a frame without syncing per call.
+ *   <li>{@link #MODE_PER_CALL} polls at every {@link #check} and throws on the first error,
+ *       naming the call site.
+ * </ul>
+ * Owned by the GL thread, apart from {@link #getErrorCount()}.
+ */
+class GlDebug {
+  private static final String TAG = "GlDebug";
+
+  static final int MODE_OFF = 0;
+  static final int MODE_PER_FRAME = 1;
+  static final int MODE_PER_CALL = 2;
+
+  private final int mode;
+  private long frames;
+  // Volatile so the telemetry dump can read it whole from another thread.
+  private volatile long errors;
+
+  GlDebug(int mode) {
+    this.mode = mode;
+  }
+
+  /**
+   * Parses a mode name: "off", "frame" or "call".
+   *
+   * @return The mode, or {@code defaultMode} if {@code name} is null or not a mode name.
+   */
+  static int parseMode(String name, int defaultMode) {
+    if ("off".equals(name)) {
+      return MODE_OFF;
+    } else if ("frame".equals(name)) {
+      return MODE_PER_FRAME;
+    } else if ("call".equals(name)) {
+      return MODE_PER_CALL;
+    }
+    return defaultMode;
+  }
+
+  /**
+   * Checks for errors after the GL calls labelled {@code label}, in per-call mode only.
+   */
+  void check(String label) {
+    if (mode == MODE_PER_CALL) {
+      poll(label);
+    }
+  }
+
+  /**
+   * Marks the end of a frame. In per-frame mode this polls once for anything the frame raised.
+   */
+  void endFrame() {
+    frames++;
+    if (mode == MODE_PER_FRAME) {
+      poll("frame ");
+    }
+  }
+
+  /**
+   * @return The number of errors seen since startup. Can be read from any thread.
+   */
+  long getErrorCount() {
+    return errors;
+  }
+
+  private void poll(String label) {
+    int error;
+    while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+      errors++;
+      if (mode == MODE_PER_CALL) {
+        Log.e(TAG, label + ": glError " + error);
+        throw new RuntimeException(label + ": glError " + error);
+      }
+      Log.e(TAG, label + frames + ": glError " + error);
+    }
+  }
+}
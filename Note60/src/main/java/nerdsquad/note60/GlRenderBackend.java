@@ -0,0 +1,117 @@
+package nerdsquad.note60;
+
+import android.opengl.GLES20;
+
+/**
+ * Draws a {@link NoteScene} with the app's GL renderers. GL thread only.
+ */
+class GlRenderBackend implements RenderBackend {
+  private static final boolean[] NO_HIGHLIGHTS = new boolean[0];
+
+  private final ShaderRegistry shaders;
+  private final ShaderProgram floorProgram;
+  private final GeometryManager geometry;
+  private final GeometryManager.Mesh floorMesh;
+  private final NoteRenderer noteRenderer;
+  private final NoteTextRenderer noteText;
+  private final NoteRenderer badgeRenderer;
+  private final NoteTextRenderer badgeText;
+  private final HudRenderer hud;
+  private final GlDebug glDebug;
+  private final FrameTelemetry telemetry;
+
+  GlRenderBackend(ShaderRegistry shaders, ShaderProgram floorProgram, GeometryManager geometry,
+      GeometryManager.Mesh floorMesh, NoteRenderer noteRenderer, NoteTextRenderer noteText,
+      NoteRenderer badgeRenderer, NoteTextRenderer badgeText, HudRenderer hud, GlDebug glDebug,
+      FrameTelemetry telemetry) {
+    this.shaders = shaders;
+    this.floorProgram = floorProgram;
+    this.geometry = geometry;
+    this.floorMesh = floorMesh;
+    this.noteRenderer = noteRenderer;
+    this.noteText = noteText;
+    this.badgeRenderer = badgeRenderer;
+    this.badgeText = badgeText;
+    this.hud = hud;
+    this.glDebug = glDebug;
+    this.telemetry = telemetry;
+  }
+
+  @Override
+  public void prepareNotes(NoteStore notes, int[] ids, int count, int textCount,
+      boolean[] highlighted) {
+    noteRenderer.prepare(notes, ids, count, highlighted);
+    noteText.prepare(notes, ids, textCount);
+    glDebug.check("onReadyToDraw");
+  }
+
+  @Override
+  public void prepareBadges(NoteStore badges, int[] ids, int count) {
+    badgeRenderer.prepare(badges, ids, count, NO_HIGHLIGHTS);
+    badgeText.prepare(badges, ids, count);
+    glDebug.check("Preparing badges");
+  }
+
+  @Override
+  public void beginEye() {
+    GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+    GLES20.glEnable(GLES20.GL_CULL_FACE);
+    GLES20.glCullFace(GLES20.GL_BACK);
+    glDebug.check("colorParam");
+  }
+
+  /**
+   * Draw the floor.
+   *
+   * <p>This feeds in data for the floor into the shader. Note that this doesn't feed in data about
+   * position of the light, so if we rewrite our code to draw the floor first, the lighting might
+   * look strange.
+   */
+  @Override
+  public void drawFloor(float[] lightPosInEyeSpace, float[] model, float[] modelView,
+      float[] modelViewProjection) {
+    telemetry.begin(FrameTelemetry.STAGE_FLOOR);
+    shaders.use(floorProgram);
+
+    // Set ModelView, MVP, position, normals, and color.
+    GLES20.glUniform3fv(floorProgram.getLightPosParam(), 1, lightPosInEyeSpace, 0);
+    GLES20.glUniformMatrix4fv(floorProgram.getModelParam(), 1, false, model, 0);
+    GLES20.glUniformMatrix4fv(floorProgram.getModelViewParam(), 1, false, modelView, 0);
+    GLES20.glUniformMatrix4fv(
+        floorProgram.getModelViewProjectionParam(), 1, false, modelViewProjection, 0);
+    geometry.bind(floorProgram.getPositionParam(), floorProgram.getNormalParam(),
+        floorProgram.getColorParam());
+
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLES, floorMesh.firstVertex, floorMesh.vertexCount);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+    glDebug.check("drawing floor");
+    telemetry.end(FrameTelemetry.STAGE_FLOOR);
+  }
+
+  @Override
+  public void drawNotes(float[] view, float[] perspective, float[] lightPosInEyeSpace) {
+    noteRenderer.draw(view, perspective, lightPosInEyeSpace);
+    glDebug.check("After drawing notes");
+  }
+
+  @Override
+  public void drawBadges(float[] view, float[] perspective, float[] lightPosInEyeSpace) {
+    badgeRenderer.draw(view, perspective, lightPosInEyeSpace);
+    glDebug.check("After drawing badges");
+  }
+
+  @Override
+  public void drawText(float[] view, float[] perspective) {
+    noteText.draw(view, perspective);
+    badgeText.draw(view, perspective);
+    glDebug.check("After drawing text");
+  }
+
+  @Override
+  public void drawHud(int eyeType, int viewportWidth, int viewportHeight) {
+    hud.draw(eyeType, viewportWidth, viewportHeight);
+    glDebug.check("After drawing HUD");
+  }
+}
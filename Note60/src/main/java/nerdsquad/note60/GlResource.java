@@ -0,0 +1,16 @@
+package nerdsquad.note60;
+
+/**
+ * Something that owns GL objects built from CPU-side state it keeps itself.
+ *
+ * <p>GL objects die with their context, but the CPU-side state survives, so a resource can be
+ * rebuilt in a new context without going back to disk or to the note store.
+ */
+public interface GlResource {
+  /**
+   * Creates the resource's GL objects in the current context. Called on the GL thread each time
+   * a context is created; any objects from an earlier context are already gone and must not be
+   * deleted.
+   */
+  void onContextCreated();
+}
@@ -0,0 +1,65 @@
+package nerdsquad.note60;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rebuilds every {@link GlResource} when the GL context is recreated, and times how long a resume
+ * takes to get back on screen.
+ *
+ * <p>Resources are rebuilt in one pass in the order they were added, so a resource can rely on
+ * those added before it. Only GL objects are rebuilt: notes, layouts, glyphs and shader sources
+ * stay in their CPU-side form, so the cost of a rebuild doesn't depend on the number of notes.
+ */
+class GlResourceManager {
+  private static final String TAG = "GlResourceManager";
+
+  private final List<GlResource> resources = new ArrayList<GlResource>();
+
+  // Set on the UI thread by onResume, cleared on the GL thread by the first frame after it.
+  private volatile long resumedAtNanos = -1;
+  private long lastRebuildNanos;
+
+  /**
+   * Adds a resource, rebuilt after the ones already added.
+   */
+  void add(GlResource resource) {
+    resources.add(resource);
+  }
+
+  /**
+   * Marks the activity resuming; the next {@link #onFrameFinished} measures from here.
+   */
+  void onResume() {
+    resumedAtNanos = System.nanoTime();
+  }
+
+  /**
+   * Rebuilds every resource in the current context. Call from onSurfaceCreated.
+   */
+  void onContextCreated() {
+    long start = System.nanoTime();
+    for (int i = 0; i < resources.size(); i++) {
+      resources.get(i).onContextCreated();
+    }
+    lastRebuildNanos = System.nanoTime() - start;
+  }
+
+  /**
+   * Call at the end of every frame.
+   *
+   * @param noteCount The number of notes in the world, for the log.
+   */
+  void onFrameFinished(int noteCount) {
+    long resumedAt = resumedAtNanos;
+    if (resumedAt < 0) {
+      return;
+    }
+    resumedAtNanos = -1;
+    long resumeNanos = System.nanoTime() - resumedAt;
+    Log.i(TAG, "Resume to first frame " + resumeNanos / 1000 + " us, GL rebuild "
+        + lastRebuildNanos / 1000 + " us, " + noteCount + " notes");
+  }
+}
@@ -0,0 +1,207 @@
+package nerdsquad.note60;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.util.SparseArray;
+
+/**
+ * A texture holding every glyph drawn so far, rasterized once on first use.
+ *
+ * <p>Glyphs are packed into rows of an alpha-only bitmap. When the bitmap fills up it doubles in
+ * height, up to {@link #MAX_HEIGHT}, keeping the glyphs already in it; if it is full at that size
+ * it starts over empty. Both change glyph texture coordinates, which {@link #getGeneration()}
+ * reports so cached layouts can be rebuilt. Changes reach the GPU on the next
+ * {@link #uploadIfDirty()}, and {@link #getUploadedGeneration()} tells which generation the
+ * texture holds.
+ *
+ * <p>Glyphs are rasterized by whichever thread lays text out, the {@link NotePreparer} workers as
+ * well as the GL thread, so every method is synchronized on the atlas; hold that lock to read
+ * several glyphs from one generation. The texture itself is only touched on the GL thread.
+ */
+public class GlyphAtlas implements GlResource {
+  private static final int WIDTH = 512;
+  private static final int INITIAL_HEIGHT = 256;
+  private static final int MAX_HEIGHT = 2048;
+  private static final int PADDING = 1;
+
+  /**
+   * Where a glyph lives in the atlas, in pixels, and how far it advances the pen.
+   */
+  public static final class Glyph {
+    public final int x;
+    public final int y;
+    public final int width;
+    public final int height;
+    public final float advance;
+
+    Glyph(int x, int y, int width, int height, float advance) {
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+      this.advance = advance;
+    }
+  }
+
+  private final Paint paint;
+  private final int lineHeight;
+  private final float ascent;
+  private final SparseArray<Glyph> glyphs = new SparseArray<Glyph>();
+  private final char[] chars = new char[2];
+
+  private Bitmap bitmap;
+  private Canvas canvas;
+  private int rowX;
+  private int rowY;
+  private int generation;
+  private int uploadedGeneration;
+
+  private final int[] texture = new int[1];
+  private boolean dirty;
+  private boolean resized;
+
+  /**
+   * @param textSize The size glyphs are rasterized at, in pixels.
+   */
+  public GlyphAtlas(float textSize) {
+    paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    paint.setTextSize(textSize);
+    paint.setColor(Color.WHITE);
+    ascent = -paint.ascent();
+    lineHeight = (int) Math.ceil(ascent + paint.descent()) + 2 * PADDING;
+    bitmap = Bitmap.createBitmap(WIDTH, INITIAL_HEIGHT, Bitmap.Config.ALPHA_8);
+    canvas = new Canvas(bitmap);
+  }
+
+  /**
+   * @return The glyph for {@code codePoint}, rasterizing it if this is its first use.
+   */
+  public synchronized Glyph getGlyph(int codePoint) {
+    Glyph glyph = glyphs.get(codePoint);
+    if (glyph == null) {
+      glyph = rasterize(codePoint);
+      glyphs.put(codePoint, glyph);
+    }
+    return glyph;
+  }
+
+  /**
+   * @return The height of a line of text in pixels. Every glyph is this tall.
+   */
+  public int getLineHeight() {
+    return lineHeight;
+  }
+
+  public int getWidth() {
+    return WIDTH;
+  }
+
+  public synchronized int getHeight() {
+    return bitmap.getHeight();
+  }
+
+  /**
+   * @return A number that changes whenever existing glyphs move or are dropped.
+   */
+  public synchronized int getGeneration() {
+    return generation;
+  }
+
+  /**
+   * @return The generation of the glyphs in the texture, as of the last upload.
+   */
+  public synchronized int getUploadedGeneration() {
+    return uploadedGeneration;
+  }
+
+  /**
+   * Creates the texture in the current GL context and uploads the glyphs rasterized so far.
+   */
+  @Override
+  public synchronized void onContextCreated() {
+    GLES20.glGenTextures(1, texture, 0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture[0]);
+    GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+    GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+    GLES20.glTexParameteri(
+        GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+    GLES20.glTexParameteri(
+        GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+    GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+    GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    dirty = false;
+    resized = false;
+    uploadedGeneration = generation;
+  }
+
+  /**
+   * Uploads glyphs rasterized since the last upload.
+   */
+  public synchronized void uploadIfDirty() {
+    if (!dirty) {
+      return;
+    }
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture[0]);
+    GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+    if (resized) {
+      GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+    } else {
+      GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+    }
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    dirty = false;
+    resized = false;
+    uploadedGeneration = generation;
+  }
+
+  public int getTexture() {
+    return texture[0];
+  }
+
+  private Glyph rasterize(int codePoint) {
+    int length = Character.toChars(codePoint, chars, 0);
+    float advance = paint.measureText(chars, 0, length);
+    if (Character.isWhitespace(codePoint)) {
+      return new Glyph(0, 0, 0, 0, advance);
+    }
+    int width = (int) Math.ceil(advance) + 2 * PADDING;
+    if (rowX + width > WIDTH) {
+      rowX = 0;
+      rowY += lineHeight;
+    }
+    if (rowY + lineHeight > bitmap.getHeight()) {
+      makeRoom();
+    }
+    canvas.drawText(chars, 0, length, rowX + PADDING, rowY + PADDING + ascent, paint);
+    Glyph glyph = new Glyph(rowX, rowY, width, lineHeight, advance);
+    rowX += width;
+    dirty = true;
+    return glyph;
+  }
+
+  /**
+   * Doubles the bitmap height, or clears it once it is as large as it gets.
+   */
+  private void makeRoom() {
+    int height = bitmap.getHeight();
+    if (height < MAX_HEIGHT) {
+      Bitmap grown = Bitmap.createBitmap(WIDTH, height * 2, Bitmap.Config.ALPHA_8);
+      canvas = new Canvas(grown);
+      canvas.drawBitmap(bitmap, 0, 0, null);
+      bitmap.recycle();
+      bitmap = grown;
+    } else {
+      bitmap.eraseColor(Color.TRANSPARENT);
+      glyphs.clear();
+      rowX = 0;
+      rowY = 0;
+    }
+    generation++;
+    resized = true;
+  }
+}
@@ -0,0 +1,231 @@
+package nerdsquad.note60;
+
+import com.google.vrtoolkit.cardboard.Eye;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A stereo heads-up display drawn into each eye on top of the scene.
+ *
+ * <p>{@link #show} puts up a one-line toast that fades out over {@link #FADE_NANOS}. The fade is
+ * driven by the frame clock passed to {@link #update}, so showing a toast costs nothing on the UI
+ * thread. The toast is laid out once, from the shared {@link GlyphAtlas}, into a small vertex
+ * buffer that is only rewritten when the text changes. Each eye draws it shifted sideways by a
+ * small depth offset, in opposite directions for the two eyes, so it appears to float in front
+ * of the scene.
+ */
+public class HudRenderer implements GlResource {
+  private static final long FADE_NANOS = 5000000000L;
+
+  // Fraction of the eye's width the toast is shifted by; the right eye uses the negative.
+  private static final float DEPTH_OFFSET = 0.01f;
+  // Wide screens need a larger offset for the same apparent depth.
+  private static final int WIDE_VIEWPORT = 1000;
+  private static final float WIDE_DEPTH_OFFSET_SCALE = 3.8f;
+  // Top of the text, as a fraction of the eye's height from the top.
+  private static final float VERTICAL_TEXT_POS = 0.52f;
+
+  private static final float[] COLOR = {150 / 255f, 1.0f, 180 / 255f, 1.0f};
+
+  private static final int VERTICES_PER_GLYPH = 6;
+  private static final int FLOATS_PER_VERTEX = 5;
+  private static final int STRIDE = FLOATS_PER_VERTEX * 4;
+
+  private final ShaderRegistry shaders;
+  private final ShaderProgram program;
+  private final GlyphAtlas atlas;
+  private final float textHeight;
+
+  // Set from any thread, picked up by the next update().
+  private volatile String pendingMessage;
+
+  private String message;
+  private int layoutGeneration;
+  private boolean layoutDirty;
+  private long shownAtNanos;
+  private float alpha;
+
+  private final int[] buffer = new int[1];
+  private FloatBuffer vertices;
+  private int glyphCount;
+  private float textWidth;
+  private final float[] mvp = new float[16];
+  private final float[] color = new float[4];
+
+  /**
+   * @param shaders The registry {@code program} belongs to.
+   * @param program The text program.
+   * @param atlas The glyph atlas shared with the note text.
+   * @param textHeight The height of a line of HUD text, in pixels.
+   */
+  public HudRenderer(
+      ShaderRegistry shaders, ShaderProgram program, GlyphAtlas atlas, float textHeight) {
+    this.shaders = shaders;
+    this.program = program;
+    this.atlas = atlas;
+    this.textHeight = textHeight;
+  }
+
+  /**
+   * Creates the vertex buffer in the current GL context. The toast is uploaded again on the next
+   * {@link #update}.
+   */
+  @Override
+  public void onContextCreated() {
+    GLES20.glGenBuffers(1, buffer, 0);
+    layoutDirty = true;
+  }
+
+  /**
+   * Shows a toast, replacing the current one. Can be called from any thread.
+   */
+  public void show(String text) {
+    pendingMessage = text;
+  }
+
+  /**
+   * Advances the fade. Must be called on the GL thread once per frame, before drawing.
+   *
+   * @param frameNanos The frame time, from {@code System.nanoTime()}.
+   */
+  public void update(long frameNanos) {
+    String pending = pendingMessage;
+    if (pending != null) {
+      pendingMessage = null;
+      message = pending;
+      shownAtNanos = frameNanos;
+      layoutDirty = true;
+    }
+    if (message == null) {
+      alpha = 0f;
+      return;
+    }
+    long elapsed = frameNanos - shownAtNanos;
+    if (elapsed >= FADE_NANOS) {
+      alpha = 0f;
+      return;
+    }
+    // The accelerate-decelerate curve the View animation used.
+    float t = (float) elapsed / FADE_NANOS;
+    alpha = 1.0f - (float) (Math.cos((t + 1) * Math.PI) / 2.0 + 0.5);
+    if (layoutDirty || layoutGeneration != atlas.getGeneration()) {
+      layout();
+    }
+  }
+
+  /**
+   * Draws the HUD over whatever the eye has drawn so far.
+   *
+   * @param eyeType The eye's {@code Eye.Type}.
+   * @param viewportWidth The eye's viewport width in pixels.
+   * @param viewportHeight The eye's viewport height in pixels.
+   */
+  public void draw(int eyeType, int viewportWidth, int viewportHeight) {
+    if (alpha <= 0f || glyphCount == 0) {
+      return;
+    }
+    float offset = viewportWidth > WIDE_VIEWPORT
+        ? WIDE_DEPTH_OFFSET_SCALE * DEPTH_OFFSET
+        : DEPTH_OFFSET;
+    if (eyeType == Eye.Type.RIGHT) {
+      offset = -offset;
+    }
+    // Pixels to normalized device coordinates: centered, shifted, top edge at the text position.
+    MatrixMath.setIdentityM(mvp, 0);
+    MatrixMath.translateM(mvp, 0, 2.0f * offset, 1.0f - 2.0f * VERTICAL_TEXT_POS, 0f);
+    MatrixMath.scaleM(mvp, 0, 2.0f / viewportWidth, 2.0f / viewportHeight, 1f);
+    MatrixMath.translateM(mvp, 0, -textWidth / 2.0f, 0f, 0f);
+
+    shaders.use(program);
+    GLES20.glUniformMatrix4fv(program.getModelViewProjectionParam(), 1, false, mvp, 0);
+    System.arraycopy(COLOR, 0, color, 0, 3);
+    color[3] = COLOR[3] * alpha;
+    GLES20.glUniform4fv(program.getColorUniformParam(), 1, color, 0);
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, atlas.getTexture());
+    GLES20.glUniform1i(program.getTextureParam(), 0);
+
+    int positionParam = program.getPositionParam();
+    int texCoordParam = program.getTexCoordParam();
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer[0]);
+    GLES20.glEnableVertexAttribArray(positionParam);
+    GLES20.glVertexAttribPointer(positionParam, 3, GLES20.GL_FLOAT, false, STRIDE, 0);
+    GLES20.glEnableVertexAttribArray(texCoordParam);
+    GLES20.glVertexAttribPointer(texCoordParam, 2, GLES20.GL_FLOAT, false, STRIDE, 3 * 4);
+
+    GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+    GLES20.glEnable(GLES20.GL_BLEND);
+    GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, glyphCount * VERTICES_PER_GLYPH);
+    GLES20.glDisable(GLES20.GL_BLEND);
+    GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+
+    GLES20.glDisableVertexAttribArray(texCoordParam);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+  }
+
+  /**
+   * Lays the message out on one line, in pixels, with its top-left corner at the origin, and
+   * uploads it.
+   */
+  private void layout() {
+    int generation = atlas.getGeneration();
+    int length = message.length();
+    int floats = length * VERTICES_PER_GLYPH * FLOATS_PER_VERTEX;
+    if (vertices == null || vertices.capacity() < floats) {
+      vertices = ByteBuffer
+          .allocateDirect(Math.max(64, length) * VERTICES_PER_GLYPH * STRIDE)
+          .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+    vertices.clear();
+    float scale = textHeight / atlas.getLineHeight();
+    float penX = 0f;
+    int glyphs = 0;
+    for (int i = 0; i < length; ) {
+      int codePoint = message.codePointAt(i);
+      i += Character.charCount(codePoint);
+      GlyphAtlas.Glyph glyph = atlas.getGlyph(codePoint);
+      if (glyph.width > 0) {
+        float x1 = penX + glyph.width * scale;
+        float y0 = -glyph.height * scale;
+        float u0 = (float) glyph.x / atlas.getWidth();
+        float u1 = (float) (glyph.x + glyph.width) / atlas.getWidth();
+        float v0 = (float) glyph.y / atlas.getHeight();
+        float v1 = (float) (glyph.y + glyph.height) / atlas.getHeight();
+        putVertex(penX, 0f, u0, v0);
+        putVertex(penX, y0, u0, v1);
+        putVertex(x1, y0, u1, v1);
+        putVertex(penX, 0f, u0, v0);
+        putVertex(x1, y0, u1, v1);
+        putVertex(x1, 0f, u1, v0);
+        glyphs++;
+      }
+      penX += glyph.advance * scale;
+    }
+    vertices.flip();
+    atlas.uploadIfDirty();
+    glyphCount = glyphs;
+    textWidth = penX;
+
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer[0]);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER, vertices.limit() * 4, vertices, GLES20.GL_DYNAMIC_DRAW);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    layoutDirty = false;
+    // Relaid out again next frame if the atlas moved glyphs meanwhile.
+    layoutGeneration = generation;
+  }
+
+  private void putVertex(float x, float y, float u, float v) {
+    vertices.put(x);
+    vertices.put(y);
+    vertices.put(0f);
+    vertices.put(u);
+    vertices.put(v);
+  }
+}
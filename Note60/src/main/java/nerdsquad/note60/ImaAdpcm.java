@@ -0,0 +1,113 @@
+package nerdsquad.note60;
+
+/**
+ * IMA ADPCM: 16-bit samples coded as 4-bit deltas, a quarter of their PCM size.
+ *
+ * <p>The coder carries a predicted sample and a step size index from one sample to the next.
+ * Decoding can start anywhere the encoder's state was saved, which is what makes
+ * {@link VoiceClip} chunks independently seekable. Two samples share a byte, the first in the
+ * low nibble.
+ */
+final class ImaAdpcm {
+  static final int MAX_STEP_INDEX = 88;
+
+  private static final int[] INDEX_TABLE = {
+      -1, -1, -1, -1, 2, 4, 6, 8,
+      -1, -1, -1, -1, 2, 4, 6, 8,
+  };
+
+  private static final int[] STEP_TABLE = {
+      7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45, 50, 55, 60, 66,
+      73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307, 337, 371, 408,
+      449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+      2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630,
+      9493, 10442, 11487, 12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794,
+      32767,
+  };
+
+  /** The coder state between samples. */
+  int predictor;
+  int stepIndex;
+
+  /**
+   * Encodes {@code count} samples into {@code (count + 1) / 2} bytes, advancing the state.
+   */
+  void encode(short[] samples, int offset, int count, byte[] out, int outOffset) {
+    int predictor = this.predictor;
+    int index = stepIndex;
+    for (int i = 0; i < count; i++) {
+      int step = STEP_TABLE[index];
+      int diff = samples[offset + i] - predictor;
+      int nibble = 0;
+      if (diff < 0) {
+        nibble = 8;
+        diff = -diff;
+      }
+      int delta = step >> 3;
+      if (diff >= step) {
+        nibble |= 4;
+        diff -= step;
+        delta += step;
+      }
+      step >>= 1;
+      if (diff >= step) {
+        nibble |= 2;
+        diff -= step;
+        delta += step;
+      }
+      step >>= 1;
+      if (diff >= step) {
+        nibble |= 1;
+        delta += step;
+      }
+      predictor = clamp((nibble & 8) != 0 ? predictor - delta : predictor + delta);
+      index = clampIndex(index + INDEX_TABLE[nibble]);
+
+      int b = outOffset + (i >> 1);
+      if ((i & 1) == 0) {
+        out[b] = (byte) nibble;
+      } else {
+        out[b] |= (byte) (nibble << 4);
+      }
+    }
+    this.predictor = predictor;
+    stepIndex = index;
+  }
+
+  /**
+   * Decodes {@code count} samples from {@code in}, advancing the state.
+   */
+  void decode(byte[] in, int inOffset, int count, short[] samples, int offset) {
+    int predictor = this.predictor;
+    int index = stepIndex;
+    for (int i = 0; i < count; i++) {
+      int b = in[inOffset + (i >> 1)];
+      int nibble = (i & 1) == 0 ? b & 0x0f : (b >> 4) & 0x0f;
+      int step = STEP_TABLE[index];
+      int delta = step >> 3;
+      if ((nibble & 4) != 0) {
+        delta += step;
+      }
+      if ((nibble & 2) != 0) {
+        delta += step >> 1;
+      }
+      if ((nibble & 1) != 0) {
+        delta += step >> 2;
+      }
+      predictor = clamp((nibble & 8) != 0 ? predictor - delta : predictor + delta);
+      index = clampIndex(index + INDEX_TABLE[nibble]);
+      samples[offset + i] = (short) predictor;
+    }
+    this.predictor = predictor;
+    stepIndex = index;
+  }
+
+  private static int clamp(int sample) {
+    return sample > Short.MAX_VALUE ? Short.MAX_VALUE
+        : sample < Short.MIN_VALUE ? Short.MIN_VALUE : sample;
+  }
+
+  private static int clampIndex(int index) {
+    return index < 0 ? 0 : index > MAX_STEP_INDEX ? MAX_STEP_INDEX : index;
+  }
+}
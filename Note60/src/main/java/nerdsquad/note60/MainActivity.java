@@ -19,116 +19,148 @@ package nerdsquad.note60;
 import com.google.vrtoolkit.cardboard.CardboardActivity;
 import com.google.vrtoolkit.cardboard.CardboardView;
 import com.google.vrtoolkit.cardboard.Eye;
+import com.google.vrtoolkit.cardboard.FieldOfView;
 import com.google.vrtoolkit.cardboard.HeadTransform;
 import com.google.vrtoolkit.cardboard.Viewport;
+import com.google.vrtoolkit.cardboard.audio.CardboardAudioEngine;
 
 //import android.content.Context;
 import android.opengl.GLES20;
-import android.opengl.Matrix;
 import android.os.Bundle;
 //import android.os.Vibrator;
 import android.util.Log;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.io.BufferedReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.io.PrintWriter;
 
 import javax.microedition.khronos.egl.EGLConfig;
 
 public class MainActivity extends CardboardActivity implements CardboardView.StereoRenderer {
   private static final String TAG = "MainActivity";
 
-  private static final float Z_NEAR = 0.1f;
-  private static final float Z_FAR = 100.0f;
-
-  private static final float CAMERA_Z = 0.01f;
-
-  private static final int COORDS_PER_VERTEX = 3;
-
-  // We keep the light always position just above the user.
-  private static final float[] LIGHT_POS_IN_WORLD_SPACE = new float[] {0.0f, 2.0f, 0.0f, 1.0f};
-
-  private final float[] lightPosInEyeSpace = new float[4];
-
-  private FloatBuffer floorVertices;
-  private FloatBuffer floorColors;
-  private FloatBuffer floorNormals;
-
-  private int floorProgram;
-  private int noteProgram;
-
-  private int floorPositionParam;
-  private int floorNormalParam;
-  private int floorColorParam;
-  private int floorModelParam;
-  private int floorModelViewParam;
-  private int floorModelViewProjectionParam;
-  private int floorLightPosParam;
-
-  private float[] camera;
-  private float[] view;
-  private float[] headView;
-  private float[] modelViewProjection;
-  private float[] modelView;
-  private float[] modelFloor;
-
-  private float[] headForward;
-
-  private float floorDepth = 20f;
-
-  private ConcurrentLinkedQueue<Note> notes;
-  private ConcurrentLinkedQueue<float[]> newNotes;
-  //private Vibrator vibrator;
-  private CardboardOverlayView overlayView;
+  // Edge length of the cells of the spatial index over notes.
+  private static final float NOTE_GRID_CELL_SIZE = 4.0f;
+
+  // Size note text is rasterized at in the glyph atlas.
+  private static final float TEXT_SIZE_PX = 48.0f;
+  // Sound asset decoded to PCM while the app starts.
+  private static final String SOUND_FILE = "cube_sound.wav";
+  // Most note sounds playing at once.
+  private static final int MAX_SOUND_VOICES = 8;
+  // Line height of HUD text, fitting the 14dip text the old View overlay used.
+  private static final float HUD_LINE_HEIGHT_DIP = 17.0f;
+  // Most newly laid out messages each text renderer adds to its batch per frame; the rest join
+  // on later frames.
+  private static final int TEXT_UPLOAD_BUDGET = 8;
 
   /**
-   * Converts a raw text file, saved as a resource, into an OpenGL ES shader.
-   *
-   * @param type The type of shader we will be creating.
-   * @param resId The resource ID of the raw text file about to be turned into a shader.
-   * @return The shader object handler.
+   * Intent extra selecting GL error checking: "off", "frame" or "call". Debug builds default to
+   * "call" and release builds to "off".
    */
-  private int loadGLShader(int type, int resId) {
-    String code = readRawTextFile(resId);
-    int shader = GLES20.glCreateShader(type);
-    GLES20.glShaderSource(shader, code);
-    GLES20.glCompileShader(shader);
+  public static final String EXTRA_GL_DEBUG = "nerdsquad.note60.GL_DEBUG";
 
-    // Get the compilation status.
-    final int[] compileStatus = new int[1];
-    GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+  /** Intent extra setting the most trigger pulls handled per frame. */
+  public static final String EXTRA_NOTE_INGEST_BUDGET = "nerdsquad.note60.NOTE_INGEST_BUDGET";
+  private static final int DEFAULT_NOTE_INGEST_BUDGET = 4;
 
-    // If the compilation failed, delete the shader.
-    if (compileStatus[0] == 0) {
-      Log.e(TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
-      GLES20.glDeleteShader(shader);
-      shader = 0;
-    }
-
-    if (shader == 0) {
-      throw new RuntimeException("Error creating shader.");
-    }
+  /**
+   * Intent extra naming a WAV asset to record voice notes from instead of the microphone, such as
+   * "cube_sound.wav". Records from the microphone when absent.
+   */
+  public static final String EXTRA_VOICE_SOURCE = "nerdsquad.note60.VOICE_SOURCE";
 
-    return shader;
-  }
+  /**
+   * Intent extra naming a file in the workspace directory to record a {@link FrameTrace} of the
+   * session to, for replaying off the device. Nothing is recorded when absent.
+   */
+  public static final String EXTRA_TRACE_FILE = "nerdsquad.note60.TRACE_FILE";
 
   /**
-   * Checks if we've had an error inside of OpenGL ES, and if so what that error is.
-   *
-   * @param label Label to report in case of error.
+   * Intent extra holding quality at a {@link QualityGovernor} level, from 0, best looking, to
+   * {@code QualityGovernor.LEVEL_COUNT - 1}. Quality follows frame times when absent.
    */
-  private static void checkGLError(String label) {
-    int error;
-    while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-      Log.e(TAG, label + ": glError " + error);
-      throw new RuntimeException(label + ": glError " + error);
-    }
-  }
+  public static final String EXTRA_QUALITY_LEVEL = "nerdsquad.note60.QUALITY_LEVEL";
+  // Most time a frame may take before it counts against quality: a 60 Hz refresh interval less
+  // room for distortion correction and the compositor.
+  private static final long FRAME_BUDGET_NANOS = 12000000L;
+
+  // Most notes kept in memory beyond the chunks around the head; farther chunks are evicted.
+  private static final int MAX_RESIDENT_NOTES = 20000;
+  // Most search results highlighted at once, the best ranked.
+  private static final int MAX_SEARCH_RESULTS = 64;
+
+  private GeometryManager geometry;
+  private GeometryManager.Mesh floorMesh;
+  private GeometryManager.Mesh noteMesh;
+
+  private ShaderRegistry shaders;
+  private ShaderProgram floorProgram;
+  private ShaderProgram noteProgram;
+  private ShaderProgram noteInstancedProgram;
+  private ShaderProgram textProgram;
+
+  private NoteRenderer noteRenderer;
+  private GlyphAtlas glyphAtlas;
+  private NoteTextRenderer noteText;
+  private NoteRenderer badgeRenderer;
+  private NoteTextRenderer badgeText;
+
+  private float[] headView;
+  private float[] headForward;
+  private float[] eyeFov;
+
+  private NoteStore notes;
+  private SpatialGrid noteGrid;
+  private NoteClusters noteClusters;
+  private NoteScene scene;
+  private int selectedNote = -1;
+
+  private NoteIndex noteIndex;
+  private VoiceSearch voiceSearch;
+  // The query waiting for the GL thread, or null.
+  private final AtomicReference<String> pendingQuery = new AtomicReference<String>();
+  private final int[] searchResults = new int[MAX_SEARCH_RESULTS];
+
+  private ChunkedWorld world;
+  private ExecutorService journalExecutor;
+  private NotePreparer notePreparer;
+  private FrameAllocationCounter allocationCounter;
+  private GlDebug glDebug;
+  private FrameTelemetry telemetry;
+  private QualityGovernor quality;
+  private long frameBeginNanos;
+  //private Vibrator vibrator;
+  private HudRenderer hud;
+  private GlResourceManager glResources;
+  private StartupProfile startupProfile;
+  private boolean searched;
+  private boolean firstFrameRecorded;
+  private boolean startupReported;
+  private ExecutorService preloadExecutor;
+  // How long the note sound plays, in nanoseconds, once the engine has decoded it.
+  private Future<Long> preloadedSound;
+  private CardboardAudioEngine audioEngine;
+  private SoundManager sounds;
+  private boolean soundAdopted;
+  private int noteSound = -1;
+  private VoiceRecorder voiceRecorder;
+  private VoicePlayer voicePlayer;
+  // The decoded stand-in for the microphone, or null to record from the microphone.
+  private Future<PcmAudio> voiceStandIn;
+  private int recordingNote = -1;
+  // The trace being recorded, or null.
+  private FrameTrace.Writer traceWriter;
+  private FrameTrace.Frame traceFrame;
+  private final AtomicInteger traceTriggers = new AtomicInteger();
 
   /**
    * Sets the view to our CardboardView and initializes the transformation matrices we will use
@@ -137,6 +169,7 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
   @Override
   public void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
+    startupProfile = new StartupProfile();
 
     setContentView(R.layout.common_ui);
     CardboardView cardboardView = (CardboardView) findViewById(R.id.cardboard_view);
@@ -144,29 +177,190 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
     cardboardView.setRenderer(this);
     setCardboardView(cardboardView);
 
-    notes = new ConcurrentLinkedQueue<Note>();
-    newNotes = new ConcurrentLinkedQueue<float[]>();
-    camera = new float[16];
-    view = new float[16];
-    modelViewProjection = new float[16];
-    modelView = new float[16];
-    modelFloor = new float[16];
+    notes = new NoteStore();
+    noteGrid = new SpatialGrid(NOTE_GRID_CELL_SIZE);
+    // Indexes each note's message as its chunk streams in, so search covers the resident notes.
+    noteIndex = new NoteIndex(notes);
+    notes.addListener(noteIndex);
+    // Far crowds of notes are drawn as one badge each; the clusters follow the store likewise.
+    noteClusters = new NoteClusters(notes);
+    notes.addListener(noteClusters);
+
+    // The saved workspace streams in by chunks around the head, from the first onNewFrame on.
+    journalExecutor = Executors.newSingleThreadExecutor();
+    world = new ChunkedWorld(new File(getWorkspaceDirectory(), "workspace"), notes, noteGrid,
+        journalExecutor, new ChunkedWorld.Listener() {
+          @Override
+          public void onNoteEvicted(int id) {
+            forgetNote(id);
+          }
+        }, MAX_RESIDENT_NOTES);
+    world.migrateLegacyWorkspace();
+    // The preparer's workers lay out new notes' text with the glyphs the renderers draw from.
+    glyphAtlas = new GlyphAtlas(TEXT_SIZE_PX);
+    notePreparer = new NotePreparer(
+        Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1)),
+        new NoteTextLayouter(glyphAtlas));
     headForward = new float[3];
     headView = new float[16];
+    eyeFov = new float[4];
+    allocationCounter = new FrameAllocationCounter(BuildConfig.DEBUG);
+    telemetry = new FrameTelemetry();
+    glDebug = new GlDebug(GlDebug.parseMode(getIntent().getStringExtra(EXTRA_GL_DEBUG),
+        BuildConfig.DEBUG ? GlDebug.MODE_PER_CALL : GlDebug.MODE_OFF));
+
+    geometry = new GeometryManager();
+    floorMesh = geometry.addMesh(
+        WorldLayoutData.FLOOR_COORDS, WorldLayoutData.FLOOR_NORMALS, WorldLayoutData.FLOOR_COLORS);
+    noteMesh = geometry.addMesh(
+        WorldLayoutData.NOTE_COORDS, WorldLayoutData.NOTE_NORMALS, WorldLayoutData.NOTE_COLORS);
+
+    shaders = new ShaderRegistry(getResources());
+    noteProgram = shaders.register(R.raw.light_vertex, R.raw.passthrough_fragment);
+    noteInstancedProgram =
+        shaders.register(R.raw.note_instanced_vertex, R.raw.passthrough_fragment);
+    floorProgram = shaders.register(R.raw.light_vertex, R.raw.grid_fragment);
+    textProgram = shaders.register(R.raw.text_vertex, R.raw.text_fragment);
+
+    // Read shader sources and decode sounds while the rest of startup runs; the GL thread and the
+    // sound manager wait on the futures only if they get there first. Note chunks load on the
+    // journal executor.
+    audioEngine = new CardboardAudioEngine(getAssets(),
+        CardboardAudioEngine.RenderingQuality.HIGH);
+    sounds = new SoundManager(audioEngine, MAX_SOUND_VOICES);
+    preloadExecutor = Executors.newFixedThreadPool(2);
+    shaders.preloadSources(preloadExecutor, startupProfile);
+    preloadedSound = preloadExecutor.submit(new Callable<Long>() {
+      @Override
+      public Long call() throws IOException {
+        long begin = System.nanoTime();
+        // The engine decodes the asset into its own buffers; only its length is read here.
+        long durationNanos = PcmAudio.readWavDurationNanos(getAssets().open(SOUND_FILE));
+        if (!sounds.preload(SOUND_FILE)) {
+          throw new IOException("Cannot preload " + SOUND_FILE);
+        }
+        startupProfile.record("Sound " + SOUND_FILE, begin);
+        return durationNanos;
+      }
+    });
+    final String voiceSource = getIntent().getStringExtra(EXTRA_VOICE_SOURCE);
+    if (voiceSource != null) {
+      voiceStandIn = preloadExecutor.submit(new Callable<PcmAudio>() {
+        @Override
+        public PcmAudio call() throws IOException {
+          return PcmAudio.decodeWav(getAssets().open(voiceSource));
+        }
+      });
+    }
+    // Lets the preloads finish, then releases the threads. onNewFrame picks up the sound.
+    preloadExecutor.shutdown();
+    voiceRecorder = new VoiceRecorder();
+    voicePlayer = new VoicePlayer();
+    voiceSearch = new VoiceSearch(this, new VoiceSearch.Listener() {
+      @Override
+      public void onQuery(String query, boolean done) {
+        search(query);
+      }
+
+      @Override
+      public void onNotHeard() {
+        show3DToast("Didn't catch that");
+      }
+    });
     //vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
 
-    overlayView = (CardboardOverlayView) findViewById(R.id.overlay);
-    //overlayView.show3DToast("Pull the magnet when you find an object.");
+    hud = new HudRenderer(shaders, textProgram, glyphAtlas,
+        HUD_LINE_HEIGHT_DIP * getResources().getDisplayMetrics().density);
+    // Notes are drawn instanced where the context allows it, and as one merged batch otherwise.
+    noteRenderer = new NoteRenderer(shaders, noteInstancedProgram, noteProgram, geometry, noteMesh);
+    noteText = new NoteTextRenderer(shaders, textProgram, glyphAtlas, notePreparer,
+        TEXT_UPLOAD_BUDGET);
+    badgeRenderer = new NoteRenderer(shaders, noteInstancedProgram, noteProgram, geometry,
+        noteMesh);
+    badgeText = new NoteTextRenderer(shaders, textProgram, glyphAtlas, notePreparer,
+        TEXT_UPLOAD_BUDGET);
+
+    // GL objects are rebuilt in this order whenever the context is recreated.
+    glResources = new GlResourceManager();
+    glResources.add(geometry);
+    glResources.add(shaders);
+    glResources.add(glyphAtlas);
+    glResources.add(noteRenderer);
+    glResources.add(noteText);
+    glResources.add(badgeRenderer);
+    glResources.add(badgeText);
+    glResources.add(hud);
+    //hud.show("Pull the magnet when you find an object.");
+
+    int noteIngestBudget = Math.max(1,
+        getIntent().getIntExtra(EXTRA_NOTE_INGEST_BUDGET, DEFAULT_NOTE_INGEST_BUDGET));
+    RenderBackend backend = new GlRenderBackend(shaders, floorProgram, geometry, floorMesh,
+        noteRenderer, noteText, badgeRenderer, badgeText, hud, glDebug, telemetry);
+    scene = new NoteScene(notes, noteGrid, noteClusters, world, notePreparer, backend, telemetry,
+        new NoteScene.Listener() {
+          @Override
+          public void onNoteGazed(int id, long nowNanos) {
+            playNoteSound(id, SoundManager.PRIORITY_ATTENTION, nowNanos);
+          }
+
+          @Override
+          public boolean onTrigger(int gazedNote) {
+            return onPull(gazedNote);
+          }
+
+          @Override
+          public void onNoteAdded(int id, NotePreparer.PreparedNote note, long nowNanos) {
+            noteText.setLayout(notes, id, note.textLayout);
+            playNoteSound(id, SoundManager.PRIORITY_FEEDBACK, nowNanos);
+            if (note.recordVoice) {
+              startVoiceNote(id);
+            }
+          }
+        }, noteIngestBudget);
+    quality = new QualityGovernor(FRAME_BUDGET_NANOS);
+    int qualityLevel = getIntent().getIntExtra(EXTRA_QUALITY_LEVEL, -1);
+    if (qualityLevel >= 0) {
+      quality.lock(qualityLevel);
+    }
+    applyQuality();
+    startTrace(getIntent().getStringExtra(EXTRA_TRACE_FILE));
+    startupProfile.record("onCreate", startupProfile.getStartNanos());
   }
 
   @Override
   public void onPause() {
     super.onPause();
+    audioEngine.pause();
+    voiceRecorder.stop();
+    voicePlayer.stop();
+    voiceSearch.stop();
+    world.flush();
+    flushTrace();
+    journalExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        dumpTelemetry();
+      }
+    });
+  }
+
+  @Override
+  public void onDestroy() {
+    stopTrace();
+    world.close();
+    journalExecutor.shutdown();
+    notePreparer.shutdown();
+    voiceRecorder.shutdown();
+    voicePlayer.shutdown();
+    voiceSearch.destroy();
+    super.onDestroy();
   }
 
   @Override
   public void onResume() {
     super.onResume();
+    audioEngine.resume();
+    glResources.onResume();
   }
 
   @Override
@@ -180,10 +374,10 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
   }
 
   /**
-   * Creates the buffers we use to store information about the 3D world.
+   * Uploads the static geometry of the 3D world and builds the shader programs.
    *
-   * <p>OpenGL doesn't use Java arrays, but rather needs data in a format it can understand.
-   * Hence we use ByteBuffers.
+   * <p>This runs again whenever the GL context is recreated, so everything GL-side is rebuilt here
+   * from CPU-side state.
    *
    * @param config The EGL configuration used when creating the surface.
    */
@@ -192,94 +386,23 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
     Log.i(TAG, "onSurfaceCreated");
     GLES20.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
 
-
-    // make a floor
-    ByteBuffer bbFloorVertices = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_COORDS.length * 4);
-    bbFloorVertices.order(ByteOrder.nativeOrder());
-    floorVertices = bbFloorVertices.asFloatBuffer();
-    floorVertices.put(WorldLayoutData.FLOOR_COORDS);
-    floorVertices.position(0);
-
-    ByteBuffer bbFloorNormals = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_NORMALS.length * 4);
-    bbFloorNormals.order(ByteOrder.nativeOrder());
-    floorNormals = bbFloorNormals.asFloatBuffer();
-    floorNormals.put(WorldLayoutData.FLOOR_NORMALS);
-    floorNormals.position(0);
-
-    ByteBuffer bbFloorColors = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_COLORS.length * 4);
-    bbFloorColors.order(ByteOrder.nativeOrder());
-    floorColors = bbFloorColors.asFloatBuffer();
-    floorColors.put(WorldLayoutData.FLOOR_COLORS);
-    floorColors.position(0);
-
-    int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
-    int gridShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.grid_fragment);
-    int passthroughShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.passthrough_fragment);
-
-    noteProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(noteProgram, vertexShader);
-    GLES20.glAttachShader(noteProgram, passthroughShader);
-    GLES20.glLinkProgram(noteProgram);
-    GLES20.glUseProgram(noteProgram);
-
-    floorProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(floorProgram, vertexShader);
-    GLES20.glAttachShader(floorProgram, gridShader);
-    GLES20.glLinkProgram(floorProgram);
-    GLES20.glUseProgram(floorProgram);
-
-    checkGLError("Floor program");
-
-    floorModelParam = GLES20.glGetUniformLocation(floorProgram, "u_Model");
-    floorModelViewParam = GLES20.glGetUniformLocation(floorProgram, "u_MVMatrix");
-    floorModelViewProjectionParam = GLES20.glGetUniformLocation(floorProgram, "u_MVP");
-    floorLightPosParam = GLES20.glGetUniformLocation(floorProgram, "u_LightPos");
-
-    floorPositionParam = GLES20.glGetAttribLocation(floorProgram, "a_Position");
-    floorNormalParam = GLES20.glGetAttribLocation(floorProgram, "a_Normal");
-    floorColorParam = GLES20.glGetAttribLocation(floorProgram, "a_Color");
-
-    GLES20.glEnableVertexAttribArray(floorPositionParam);
-    GLES20.glEnableVertexAttribArray(floorNormalParam);
-    GLES20.glEnableVertexAttribArray(floorColorParam);
-
-    checkGLError("Floor program params");
-
-    Matrix.setIdentityM(modelFloor, 0);
-    Matrix.translateM(modelFloor, 0, 0, -floorDepth, 0); // Floor appears below user.
+    // Rebuild buffers, programs and textures from the CPU-side state kept since onCreate.
+    long rebuildBegin = System.nanoTime();
+    glResources.onContextCreated();
+    if (!startupReported) {
+      startupProfile.record("GL resources", rebuildBegin);
+    }
+    glDebug.check("GL resources");
 
     /*
     float R = -3.5f;
     for (int i = 0; i < 5; i++) {
       float x = (float) Math.sin((float)i*2.0f*Math.PI / 5.0f) * R;
       float z = (float) Math.cos((float) i * 2.0f * Math.PI / 5.0f) * R;
-      notes.add(new Note("", noteProgram, x, 0.0f, z));
+      notePreparer.prepare("", x, 0.0f, z);
     }*/
 
-    checkGLError("onSurfaceCreated");
-  }
-
-  /**
-   * Converts a raw text file into a string.
-   *
-   * @param resId The resource ID of the raw text file about to be turned into a shader.
-   * @return The context of the text file, or null in case of error.
-   */
-  private String readRawTextFile(int resId) {
-    InputStream inputStream = getResources().openRawResource(resId);
-    try {
-      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-      StringBuilder sb = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        sb.append(line).append("\n");
-      }
-      reader.close();
-      return sb.toString();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    return null;
+    glDebug.check("onSurfaceCreated");
   }
 
   /**
@@ -289,19 +412,35 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
    */
   @Override
   public void onNewFrame(HeadTransform headTransform) {
-    //add all the new notes the next frame
-    while (!newNotes.isEmpty()) {
-      float[] newNote = newNotes.poll();
-      notes.add(new Note("", noteProgram, newNote[0], newNote[1], newNote[2]));
-    }
-    // Build the camera matrix and apply it to the ModelView.
-    Matrix.setLookAtM(camera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
-
+    frameBeginNanos = System.nanoTime();
+    allocationCounter.beginFrame();
+    telemetry.beginFrame();
+    telemetry.begin(FrameTelemetry.STAGE_NEW_FRAME);
     headTransform.getHeadView(headView, 0);
-
     headTransform.getForwardVector(headForward, 0);
+    if (!soundAdopted && preloadedSound.isDone()) {
+      adoptSound();
+    }
+    long now = System.nanoTime();
+    if (traceWriter != null) {
+      traceFrame.timeNanos = now;
+      traceFrame.triggers = traceTriggers.getAndSet(0);
+      System.arraycopy(headView, 0, traceFrame.headView, 0, 16);
+      System.arraycopy(headForward, 0, traceFrame.forward, 0, 3);
+    }
+
+    // Highlight the results of a new query before the scene is recorded, ranked from where the
+    // head was last frame.
+    String query = pendingQuery.getAndSet(null);
+    if (query != null) {
+      runSearch(query);
+    }
+    scene.onNewFrame(headView, headForward, now);
 
-    checkGLError("onReadyToDraw");
+    // Move the listener and every sounding note in one pass, once the notes have settled.
+    sounds.update(headView, notes, now);
+    hud.update(now);
+    telemetry.end(FrameTelemetry.STAGE_NEW_FRAME);
   }
 
   /**
@@ -311,64 +450,339 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
    */
   @Override
   public void onDrawEye(Eye eye) {
-    GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-    GLES20.glEnable(GLES20.GL_CULL_FACE);
-    GLES20.glCullFace(GLES20.GL_BACK);
+    int stage = eye.getType() == Eye.Type.RIGHT
+        ? FrameTelemetry.STAGE_RIGHT_EYE
+        : FrameTelemetry.STAGE_LEFT_EYE;
+    telemetry.begin(stage);
+    FieldOfView fov = eye.getFov();
+    eyeFov[0] = fov.getLeft();
+    eyeFov[1] = fov.getRight();
+    eyeFov[2] = fov.getBottom();
+    eyeFov[3] = fov.getTop();
+    float[] perspective = eye.getPerspective(NoteScene.Z_NEAR, NoteScene.Z_FAR);
+    Viewport viewport = eye.getViewport();
+    scene.onDrawEye(eye.getType(), eye.getEyeView(), perspective, eyeFov, 0, viewport.width,
+        viewport.height);
+    if (traceWriter != null) {
+      traceEye(eye.getType(), eye.getEyeView(), perspective, viewport.width, viewport.height);
+    }
+    telemetry.end(stage);
+  }
+
+  /**
+   * Writes the frame telemetry for the last few seconds to telemetry.txt in the workspace
+   * directory, followed by the app's running counters. Reads the telemetry without locking, so it
+   * can run on any thread.
+   */
+  public void dumpTelemetry() {
+    FrameTelemetry.Snapshot snapshot = new FrameTelemetry.Snapshot();
+    telemetry.snapshot(snapshot);
+    File file = new File(getWorkspaceDirectory(), "telemetry.txt");
+    try {
+      snapshot.writeTo(file);
+      writeCounters(file);
+    } catch (IOException e) {
+      Log.e(TAG, "Cannot write telemetry", e);
+    }
+  }
+
+  /**
+   * Appends the counters the GL thread keeps to the telemetry file. They are read without
+   * locking, so a value may be a frame behind the others. Every counter is an int, an atomic or
+   * a volatile long, so none is read torn.
+   */
+  private void writeCounters(File file) throws IOException {
+    PrintWriter out = new PrintWriter(new FileWriter(file, true));
+    try {
+      out.println("counter value");
+      out.println("allocatingSteadyFrames " + allocationCounter.getAllocatingFrames());
+      out.println("residentChunks " + world.getResidentChunkCount());
+      out.println("evictedChunks " + world.getEvictedChunkCount());
+      out.println("visibleBadges " + scene.getVisibleBadgeCount());
+      out.println("noteIngestDepth " + scene.getNoteIngestDepth());
+      out.println("noteIngestDrops " + scene.getNoteIngestDropCount());
+      out.println("pendingNotes " + notePreparer.getPendingCount());
+      out.println("glErrors " + glDebug.getErrorCount());
+      out.println("qualityLevel " + quality.getLevel());
+      out.println("instancedNotes " + noteRenderer.isInstanced());
+      out.println("soundVoices " + sounds.getActiveVoiceCount());
+      out.println("soundsStolen " + sounds.getStolenCount());
+      out.println("soundsDropped " + sounds.getDroppedCount());
+      out.println("indexTerms " + noteIndex.getTermCount());
+      out.println("indexPostings " + noteIndex.getPostingCount());
+      out.println("clusters " + noteClusters.getClusterCount());
+      out.println("collapsedNotes " + noteClusters.getCollapsedNoteCount());
+    } finally {
+      out.close();
+    }
+    if (out.checkError()) {
+      throw new IOException("Cannot write " + file);
+    }
+  }
+
+  @Override
+  public void onFinishFrame(Viewport viewport) {
+    glDebug.endFrame();
+    glResources.onFrameFinished(notes.size());
+    if (!startupReported) {
+      reportStartup();
+    }
+    telemetry.endFrame(scene.getVisibleNoteCount(), scene.getCulledNoteCount());
+    boolean qualityChanged = quality.onFrame(System.nanoTime() - frameBeginNanos);
+    if (qualityChanged) {
+      applyQuality();
+    }
+    // Searching builds its query terms, a quality change resizes the render target, starting a
+    // chunk load or a text layout hands work to another thread, taking in finished layouts grows
+    // the text caches, and adding notes grows the store; none of these happens in the steady
+    // state.
+    boolean steadyState = !scene.haveNotesChanged() && !searched && !qualityChanged
+        && !world.hasStartedLoads() && !noteText.haveLayoutsChanged()
+        && !badgeText.haveLayoutsChanged();
+    allocationCounter.endFrame(steadyState);
+    searched = false;
+    if (traceWriter != null) {
+      try {
+        traceWriter.write(traceFrame);
+      } catch (IOException e) {
+        Log.e(TAG, "Cannot write the trace, stopping it", e);
+        stopTrace();
+      }
+    }
+  }
 
-    checkGLError("colorParam");
+  /**
+   * Sets the scene and the render target to the governor's current level.
+   */
+  private void applyQuality() {
+    scene.setDrawDistance(quality.getDrawDistance());
+    scene.setTextDistance(quality.getTextDistance());
+    final float renderScale = quality.getRenderScale();
+    runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        getCardboardView().setDistortionCorrectionScale(renderScale);
+      }
+    });
+    Log.i(TAG, "Quality level " + quality.getLevel() + ": render scale " + renderScale
+        + ", notes to " + quality.getDrawDistance() + " m, text to "
+        + quality.getTextDistance() + " m");
+  }
+
+  /**
+   * Records the first frame and, once the notes and sounds have loaded too, logs the startup
+   * phases.
+   */
+  private void reportStartup() {
+    if (!firstFrameRecorded) {
+      startupProfile.record("First frame", startupProfile.getStartNanos());
+      firstFrameRecorded = true;
+    }
+    if (world.isSettled() && preloadedSound.isDone()) {
+      startupProfile.report();
+      startupReported = true;
+    }
+  }
 
-    // Apply the eye transformation to the camera.
-    Matrix.multiplyMM(view, 0, eye.getEyeView(), 0, camera, 0);
+  /**
+   * Adds notes to the world without stalling rendering. They are prepared in the background and
+   * appear over the next frames. Can be called from any thread.
+   *
+   * @param messages The note messages.
+   * @param positions xyz positions, three floats per message.
+   */
+  public void importNotes(String[] messages, float[] positions) {
+    notePreparer.prepareAll(messages, positions);
+  }
+
+  /**
+   * Highlights the notes matching {@code query}, best first, and shows how many there are. An
+   * empty query clears the highlight. Can be called from any thread; the search runs on the next
+   * frame.
+   */
+  public void search(String query) {
+    pendingQuery.set(query == null ? "" : query);
+  }
+
+  /**
+   * Listens for a spoken query and searches for it as it is spoken. Can be called from any
+   * thread.
+   */
+  public void startVoiceSearch() {
+    runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        if (voiceRecorder.isRecording()) {
+          show3DToast("Finish the voice note first");
+        } else if (voiceSearch.start()) {
+          show3DToast("Say what to look for");
+        } else {
+          show3DToast("Speech recognition is not available");
+        }
+      }
+    });
+  }
 
-    // Set the position of the light
-    Matrix.multiplyMV(lightPosInEyeSpace, 0, view, 0, LIGHT_POS_IN_WORLD_SPACE, 0);
+  /**
+   * Runs a search over the resident notes and highlights its results. GL thread only.
+   */
+  private void runSearch(String query) {
+    searched = true;
+    float[] head = scene.getHeadPosition();
+    int count = noteIndex.search(query, head[0], head[1], head[2], searchResults, null);
+    scene.setHighlightedNotes(searchResults, count);
+    if (query.trim().length() == 0) {
+      return;
+    }
+    int matches = noteIndex.getLastMatchCount();
+    if (matches == 0) {
+      show3DToast("No notes match \"" + query + "\"");
+    } else {
+      show3DToast((matches == 1 ? "1 note: " : matches + " notes, best: ")
+          + notes.getMessage(searchResults[0]));
+    }
+  }
 
-    float[] perspective = eye.getPerspective(Z_NEAR, Z_FAR);
+  /**
+   * Starts recording a voice note for a note just placed. The next trigger pull ends it.
+   */
+  private void startVoiceNote(int id) {
+    if (voiceRecorder.isRecording()) {
+      return;
+    }
+    AudioSource source;
+    if (voiceStandIn == null) {
+      source = new MicAudioSource();
+    } else if (voiceStandIn.isDone()) {
+      try {
+        source = new PcmAudioSource(voiceStandIn.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        Log.e(TAG, "Cannot load the voice stand-in", e.getCause());
+        return;
+      }
+    } else {
+      // Still decoding; this note goes without a voice.
+      return;
+    }
+    voicePlayer.stop();
+    voiceRecorder.start(source, world.getVoiceClip(id));
+    recordingNote = id;
+    show3DToast("Recording, pull to finish");
+  }
 
-    checkGLError("Before drawing notes");
-    int i = 0;
-    for (Note o : notes) {
-      o.drawNote(view, perspective, lightPosInEyeSpace);
-      i++;
-      checkGLError("drew a note " + i);
+  /**
+   * Plays the note sound at a note, once it has loaded.
+   */
+  private void playNoteSound(int id, int priority, long nowNanos) {
+    if (noteSound < 0) {
+      return;
     }
-    checkGLError("After drawing notes");
+    float[] positions = notes.getPositions();
+    int p = id * NoteStore.POSITION_STRIDE;
+    sounds.play(noteSound, id, priority, positions[p], positions[p + 1], positions[p + 2],
+        nowNanos);
+  }
 
-    // Set modelView for the floor, so we draw floor in the correct location
-    Matrix.multiplyMM(modelView, 0, view, 0, modelFloor, 0);
-    checkGLError("Multiplied once");
-    Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
-    checkGLError("Before drawing floor");
-    drawFloor();
+  private void adoptSound() {
+    soundAdopted = true;
+    try {
+      noteSound = sounds.addSource(SOUND_FILE, preloadedSound.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // Notes stay silent.
+      Log.e(TAG, "Cannot load " + SOUND_FILE, e.getCause());
+    }
   }
 
-  @Override
-  public void onFinishFrame(Viewport viewport) {}
+  /**
+   * @return External app storage when it is available, internal storage otherwise.
+   */
+  private File getWorkspaceDirectory() {
+    File dir = getExternalFilesDir(null);
+    return dir != null ? dir : getFilesDir();
+  }
 
   /**
-   * Draw the floor.
-   *
-   * <p>This feeds in data for the floor into the shader. Note that this doesn't feed in data about
-   * position of the light, so if we rewrite our code to draw the floor first, the lighting might
-   * look strange.
+   * Removes a note from the world and its saved chunk. Must be called on the GL thread.
+   */
+  private void deleteNote(int id) {
+    sounds.onNoteRemoved(id);
+    if (id == recordingNote) {
+      voiceRecorder.stop();
+      recordingNote = -1;
+    }
+    voicePlayer.stop();
+    // Ids can be reused after compaction, so the clip has to go with the note.
+    world.getVoiceClip(id).delete();
+    noteText.forgetLayout(id);
+    scene.removeNote(id);
+  }
+
+  /**
+   * Lets go of a note evicted with its chunk. It is still saved, but no longer in the store.
    */
-  public void drawFloor() {
-    GLES20.glUseProgram(floorProgram);
+  private void forgetNote(int id) {
+    sounds.onNoteRemoved(id);
+    if (id == recordingNote) {
+      voiceRecorder.stop();
+      recordingNote = -1;
+    }
+    if (id == selectedNote) {
+      selectedNote = -1;
+    }
+    noteText.forgetLayout(id);
+    scene.forgetNote(id);
+  }
 
-    // Set ModelView, MVP, position, normals, and color.
-    GLES20.glUniform3fv(floorLightPosParam, 1, lightPosInEyeSpace, 0);
-    GLES20.glUniformMatrix4fv(floorModelParam, 1, false, modelFloor, 0);
-    GLES20.glUniformMatrix4fv(floorModelViewParam, 1, false, modelView, 0);
-    GLES20.glUniformMatrix4fv(floorModelViewProjectionParam, 1, false, modelViewProjection, 0);
-    GLES20.glVertexAttribPointer(
-            floorPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, floorVertices);
-    GLES20.glVertexAttribPointer(floorNormalParam, 3, GLES20.GL_FLOAT, false, 0, floorNormals);
-    GLES20.glVertexAttribPointer(floorColorParam, 4, GLES20.GL_FLOAT, false, 0, floorColors);
+  /**
+   * Handles a trigger pull passed on by the scene: it ends the voice note being recorded, or acts
+   * on the note being looked at.
+   *
+   * @return False if the pull should place a new note instead.
+   */
+  private boolean onPull(int gazedNote) {
+    if (recordingNote >= 0 && voiceRecorder.isRecording()) {
+      voiceRecorder.stop();
+      recordingNote = -1;
+      show3DToast("Voice note saved");
+      return true;
+    }
+    if (gazedNote >= 0) {
+      onNoteTriggered(gazedNote);
+      return true;
+    }
+    return false;
+  }
 
-    GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 6);
+  /**
+   * Handles a trigger pull while looking at a note: the first pull selects the note and shows its
+   * message, a second pull on the selected note deletes it.
+   */
+  private void onNoteTriggered(int id) {
+    if (id == selectedNote) {
+      deleteNote(id);
+      selectedNote = -1;
+      show3DToast("Note deleted");
+    } else {
+      selectedNote = id;
+      File clip = world.getVoiceClip(id);
+      if (clip.exists()) {
+        voicePlayer.play(clip);
+      }
+      String message = notes.getMessage(id);
+      show3DToast(message.length() > 0 ? message : "Pull again to delete this note");
+    }
+  }
 
-    checkGLError("drawing floor");
+  /**
+   * Shows a message on the HUD. Can be called from any thread.
+   */
+  private void show3DToast(String message) {
+    hud.show(message);
   }
 
   /**
@@ -376,11 +790,67 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
    */
   @Override
   public void onCardboardTrigger() {
-    float newNote[] = new float[3];
-    float distance = 3.5f;
-    newNote[0] = headForward[0] * distance;
-    newNote[1] = headForward[1] * distance;
-    newNote[2] = headForward[2] * distance;
-    newNotes.add(newNote);
+    traceTriggers.incrementAndGet();
+    if (!scene.onTrigger()) {
+      Log.w(TAG, "Note ingest ring full, dropped a trigger");
+    }
+  }
+
+  /**
+   * Starts recording a trace of the session, if {@code name} names one.
+   */
+  private void startTrace(String name) {
+    if (name == null) {
+      return;
+    }
+    File file = new File(getWorkspaceDirectory(), name);
+    try {
+      traceWriter = new FrameTrace.Writer(file);
+      traceFrame = new FrameTrace.Frame();
+      Log.i(TAG, "Recording a trace to " + file);
+    } catch (IOException e) {
+      Log.e(TAG, "Cannot record a trace to " + file, e);
+    }
+  }
+
+  /**
+   * Copies an eye into the frame being traced.
+   */
+  private void traceEye(int type, float[] eyeView, float[] perspective, int viewportWidth,
+      int viewportHeight) {
+    int eye = type == Eye.Type.RIGHT ? 1 : 0;
+    traceFrame.eyeTypes[eye] = type;
+    traceFrame.viewports[eye * 2] = viewportWidth;
+    traceFrame.viewports[eye * 2 + 1] = viewportHeight;
+    System.arraycopy(eyeFov, 0, traceFrame.fovs, eye * 4, 4);
+    System.arraycopy(eyeView, 0, traceFrame.eyeViews[eye], 0, 16);
+    System.arraycopy(perspective, 0, traceFrame.perspectives[eye], 0, 16);
+  }
+
+  /**
+   * Writes the buffered part of the trace through. Only while the GL thread is paused.
+   */
+  private void flushTrace() {
+    if (traceWriter == null) {
+      return;
+    }
+    try {
+      traceWriter.flush();
+    } catch (IOException e) {
+      Log.e(TAG, "Cannot write the trace", e);
+    }
+  }
+
+  private void stopTrace() {
+    if (traceWriter == null) {
+      return;
+    }
+    try {
+      traceWriter.close();
+      Log.i(TAG, "Recorded " + traceWriter.getFrameCount() + " frames");
+    } catch (IOException e) {
+      Log.e(TAG, "Cannot finish the trace", e);
+    }
+    traceWriter = null;
   }
 }
\ No newline at end of file
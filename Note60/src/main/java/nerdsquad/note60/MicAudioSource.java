@@ -0,0 +1,60 @@
+package nerdsquad.note60;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import java.io.IOException;
+
+/**
+ * Records from the microphone.
+ */
+public class MicAudioSource implements AudioSource {
+  // Plenty for speech, and the rate every device must support.
+  private static final int SAMPLE_RATE = 16000;
+  // Audio the system buffers while the recorder is busy elsewhere, in samples.
+  private static final int MIN_BUFFER_SAMPLES = SAMPLE_RATE / 2;
+
+  private AudioRecord record;
+
+  @Override
+  public int getSampleRate() {
+    return SAMPLE_RATE;
+  }
+
+  @Override
+  public void start() throws IOException {
+    int minBytes = AudioRecord.getMinBufferSize(
+        SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+    if (minBytes <= 0) {
+      throw new IOException("Microphone does not record at " + SAMPLE_RATE + " Hz");
+    }
+    record = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE,
+        AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
+        Math.max(minBytes, MIN_BUFFER_SAMPLES * 2));
+    if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+      record.release();
+      record = null;
+      throw new IOException("Cannot open the microphone");
+    }
+    record.startRecording();
+  }
+
+  @Override
+  public int read(short[] samples, int offset, int length) throws IOException {
+    int read = record.read(samples, offset, length);
+    if (read < 0) {
+      throw new IOException("Microphone read failed: " + read);
+    }
+    return read;
+  }
+
+  @Override
+  public void close() {
+    if (record != null) {
+      record.stop();
+      record.release();
+      record = null;
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package nerdsquad.note60;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Draws every note in the world with a single draw call per eye.
+ *
+ * <p>{@link #prepare} packs the model matrix of each visible note into one instance buffer with
+ * a {@link NoteBatch} and uploads it, and {@link #draw} then issues a single instanced draw of
+ * the note mesh. Where instancing isn't available (OpenGL ES 2.0 contexts) the notes are instead
+ * pre-transformed into world space and merged into one vertex batch, which is drawn with the
+ * regular note program.
+ *
+ * <p>Highlighted notes, such as search results, are drawn in a highlight color: through a
+ * per-instance color when instanced, and baked into the batch's vertex colors otherwise.
+ */
+public class NoteRenderer implements GlResource {
+  private static final int MATRIX_COLUMNS = 4;
+
+  private final ShaderRegistry shaders;
+  private final ShaderProgram instancedProgram;
+  private final ShaderProgram batchProgram;
+  private final GeometryManager geometry;
+  private final GeometryManager.Mesh noteMesh;
+
+  // Merged batch path.
+  private final float[] identity = new float[16];
+  private final float[] modelViewProjection = new float[16];
+
+  // Per-frame data: instance matrices, or the merged batch vertices.
+  private final int[] frameBuffer = new int[1];
+  private NoteBatch batch;
+  private int frameBufferBytes;
+  private int noteCount;
+
+  // Picked for each context.
+  private boolean instanced;
+  private ShaderProgram program;
+
+  /**
+   * Whether the current context can draw instanced geometry. Must be called on the GL thread.
+   */
+  public static boolean isInstancingSupported() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+      return false;
+    }
+    String version = GLES20.glGetString(GLES20.GL_VERSION);
+    return version != null && version.startsWith("OpenGL ES 3");
+  }
+
+  /**
+   * @param shaders The registry the programs belong to.
+   * @param instancedProgram The instanced note program.
+   * @param batchProgram The regular per-vertex lighting program, for contexts without instancing.
+   * @param geometry The shared static geometry.
+   * @param noteMesh The note quad inside {@code geometry}.
+   */
+  public NoteRenderer(ShaderRegistry shaders, ShaderProgram instancedProgram,
+      ShaderProgram batchProgram, GeometryManager geometry, GeometryManager.Mesh noteMesh) {
+    this.shaders = shaders;
+    this.instancedProgram = instancedProgram;
+    this.batchProgram = batchProgram;
+    this.geometry = geometry;
+    this.noteMesh = noteMesh;
+    MatrixMath.setIdentityM(identity, 0);
+  }
+
+  /**
+   * Picks instanced or batched drawing for the new context and creates the per-frame buffer.
+   */
+  @Override
+  public void onContextCreated() {
+    instanced = isInstancingSupported();
+    program = instanced ? instancedProgram : batchProgram;
+    if (batch == null || batch.isInstanced() != instanced) {
+      // The per-note size of the frame data changed.
+      batch = new NoteBatch(instanced);
+    }
+    GLES20.glGenBuffers(1, frameBuffer, 0);
+    frameBufferBytes = 0;
+    noteCount = 0;
+  }
+
+  public ShaderProgram getProgram() {
+    return program;
+  }
+
+  public boolean isInstanced() {
+    return instanced;
+  }
+
+  /**
+   * Packs and uploads the notes to draw. Must be called on the GL thread before {@link #draw}.
+   *
+   * @param notes The note store.
+   * @param ids The ids of the notes to draw.
+   * @param count The number of ids in {@code ids}.
+   * @param highlighted Which notes to draw highlighted, by id.
+   */
+  public void prepare(NoteStore notes, int[] ids, int count, boolean[] highlighted) {
+    batch.pack(notes, ids, count, highlighted);
+    noteCount = count;
+    if (count == 0) {
+      return;
+    }
+
+    FloatBuffer frameData = batch.getData();
+    int bytes = frameData.limit() * 4;
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, frameBuffer[0]);
+    if (bytes > frameBufferBytes) {
+      frameBufferBytes = frameData.capacity() * 4;
+      GLES20.glBufferData(
+          GLES20.GL_ARRAY_BUFFER, frameBufferBytes, null, GLES20.GL_STREAM_DRAW);
+    }
+    GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, bytes, frameData);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+  }
+
+  /**
+   * Draws the notes packed by the last {@link #prepare} call.
+   *
+   * @param view The eye's view matrix.
+   * @param perspective The eye's projection matrix.
+   * @param lightPosInEyeSpace The light position in the eye's space.
+   */
+  public void draw(float[] view, float[] perspective, float[] lightPosInEyeSpace) {
+    if (noteCount == 0) {
+      return;
+    }
+    shaders.use(program);
+    GLES20.glUniform3fv(program.getLightPosParam(), 1, lightPosInEyeSpace, 0);
+    int positionParam = program.getPositionParam();
+    int normalParam = program.getNormalParam();
+    int colorParam = program.getColorParam();
+
+    if (instanced) {
+      GLES20.glUniformMatrix4fv(program.getViewParam(), 1, false, view, 0);
+      GLES20.glUniformMatrix4fv(program.getProjectionParam(), 1, false, perspective, 0);
+      geometry.bind(positionParam, normalParam, colorParam);
+      int modelParam = program.getModelAttribParam();
+
+      // A mat4 attribute takes four consecutive locations, one per column.
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, frameBuffer[0]);
+      for (int i = 0; i < MATRIX_COLUMNS; i++) {
+        GLES20.glEnableVertexAttribArray(modelParam + i);
+        GLES20.glVertexAttribPointer(
+            modelParam + i, 4, GLES20.GL_FLOAT, false, NoteBatch.FLOATS_PER_INSTANCE * 4,
+            i * 4 * 4);
+        GLES30.glVertexAttribDivisor(modelParam + i, 1);
+      }
+      int highlightParam = program.getHighlightParam();
+      GLES20.glEnableVertexAttribArray(highlightParam);
+      GLES20.glVertexAttribPointer(highlightParam, NoteBatch.HIGHLIGHT_SIZE, GLES20.GL_FLOAT,
+          false, NoteBatch.FLOATS_PER_INSTANCE * 4, NoteBatch.FLOATS_PER_MATRIX * 4);
+      GLES30.glVertexAttribDivisor(highlightParam, 1);
+
+      GLES30.glDrawArraysInstanced(
+          GLES20.GL_TRIANGLES, noteMesh.firstVertex, noteMesh.vertexCount, noteCount);
+
+      // Divisors are global attribute state; reset them so other programs can use the locations.
+      for (int i = 0; i < MATRIX_COLUMNS; i++) {
+        GLES30.glVertexAttribDivisor(modelParam + i, 0);
+        GLES20.glDisableVertexAttribArray(modelParam + i);
+      }
+      GLES30.glVertexAttribDivisor(highlightParam, 0);
+      GLES20.glDisableVertexAttribArray(highlightParam);
+    } else {
+      MatrixMath.multiplyMM(modelViewProjection, 0, perspective, 0, view, 0);
+      GLES20.glUniformMatrix4fv(program.getModelParam(), 1, false, identity, 0);
+      GLES20.glUniformMatrix4fv(program.getModelViewParam(), 1, false, view, 0);
+      GLES20.glUniformMatrix4fv(
+          program.getModelViewProjectionParam(), 1, false, modelViewProjection, 0);
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, frameBuffer[0]);
+      GeometryManager.setVertexLayout(positionParam, normalParam, colorParam);
+
+      GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, noteCount * noteMesh.vertexCount);
+    }
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+  }
+}
@@ -0,0 +1,89 @@
+package nerdsquad.note60;
+
+import java.util.Arrays;
+
+/**
+ * Lays note messages out on the note face, wrapping at the note's edges, using glyphs from a
+ * shared {@link GlyphAtlas}.
+ *
+ * <p>Runs on the {@link NotePreparer} workers. The atlas is held for the whole layout, so the
+ * glyphs of one message all come from the same generation; if laying out made the atlas move its
+ * glyphs, the message is laid out again.
+ */
+public class NoteTextLayouter implements TextLayouter {
+  // Note-space layout: the note quad spans [-1, 1] on x and y and faces +z.
+  private static final float TEXT_LEFT = -0.9f;
+  private static final float TEXT_RIGHT = 0.9f;
+  private static final float TEXT_TOP = 0.9f;
+  private static final float LINE_HEIGHT = 0.2f;
+  private static final int MAX_LINES = 9;
+  // Laying out again only helps if the atlas grew; one that keeps starting over is left stale.
+  private static final int MAX_ATTEMPTS = 2;
+
+  private final GlyphAtlas atlas;
+
+  public NoteTextLayouter(GlyphAtlas atlas) {
+    this.atlas = atlas;
+  }
+
+  @Override
+  public TextLayout layout(String message) {
+    synchronized (atlas) {
+      TextLayout layout = layoutOnce(message);
+      for (int i = 1; i < MAX_ATTEMPTS && layout.atlasGeneration != atlas.getGeneration(); i++) {
+        layout = layoutOnce(message);
+      }
+      return layout;
+    }
+  }
+
+  private TextLayout layoutOnce(String message) {
+    int generation = atlas.getGeneration();
+    float[] rects = new float[message.length() * TextLayout.FLOATS_PER_GLYPH];
+    float scale = LINE_HEIGHT / atlas.getLineHeight();
+    float invWidth = 1.0f / atlas.getWidth();
+    float invHeight = 1.0f / atlas.getHeight();
+    float penX = TEXT_LEFT;
+    float top = TEXT_TOP;
+    int line = 0;
+    int glyphs = 0;
+    for (int i = 0; i < message.length() && line < MAX_LINES; ) {
+      int codePoint = message.codePointAt(i);
+      i += Character.charCount(codePoint);
+      if (codePoint == '\n') {
+        penX = TEXT_LEFT;
+        top -= LINE_HEIGHT;
+        line++;
+        continue;
+      }
+      GlyphAtlas.Glyph glyph = atlas.getGlyph(codePoint);
+      float advance = glyph.advance * scale;
+      if (penX + advance > TEXT_RIGHT && penX > TEXT_LEFT) {
+        penX = TEXT_LEFT;
+        top -= LINE_HEIGHT;
+        if (++line == MAX_LINES) {
+          break;
+        }
+        if (Character.isWhitespace(codePoint)) {
+          continue;
+        }
+      }
+      if (glyph.width > 0) {
+        int r = glyphs * TextLayout.FLOATS_PER_GLYPH;
+        rects[r] = penX;
+        rects[r + 1] = top;
+        rects[r + 2] = penX + glyph.width * scale;
+        rects[r + 3] = top - glyph.height * scale;
+        rects[r + 4] = glyph.x * invWidth;
+        rects[r + 5] = glyph.y * invHeight;
+        rects[r + 6] = (glyph.x + glyph.width) * invWidth;
+        rects[r + 7] = (glyph.y + glyph.height) * invHeight;
+        glyphs++;
+      }
+      penX += advance;
+    }
+    // Cached for as long as the note is resident, so only as long as it needs to be.
+    return new TextLayout(
+        Arrays.copyOf(rects, glyphs * TextLayout.FLOATS_PER_GLYPH), glyphs, generation);
+  }
+}
@@ -0,0 +1,168 @@
+package nerdsquad.note60;
+
+import android.opengl.GLES20;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Draws the messages of the visible notes on their faces, all in one draw call per eye.
+ *
+ * <p>Each message is laid out once into glyph rectangles in the note's own space, using glyphs
+ * from a shared {@link GlyphAtlas}, on the {@link NotePreparer} workers, and cached per note in a
+ * {@link TextBatch} until the message changes ({@link NoteStore#getMessageVersion}) or the atlas
+ * moves its glyphs. A new note brings the layout made while it was prepared, handed over with
+ * {@link #setLayout}. Each frame {@link #prepare} has the batch transform the cached layouts of
+ * the visible notes into world space, back to front, and uploads them as one vertex batch.
+ *
+ * <p>A visible note without a current layout, such as one loaded with its chunk, has its message
+ * sent to the workers and draws no text until the layout comes back. Finished layouts join the
+ * batch at most {@code uploadBudget} per frame, so a new workspace or an atlas that starts over
+ * fills in over a few frames rather than growing one upload all at once. The GL thread never
+ * lays out or rasterizes note text.
+ */
+public class NoteTextRenderer implements GlResource {
+  private static final int STRIDE = TextBatch.FLOATS_PER_VERTEX * 4;
+
+  private static final float[] TEXT_COLOR = {0.1f, 0.1f, 0.1f, 1.0f};
+
+  private final ShaderRegistry shaders;
+  private final ShaderProgram program;
+  private final GlyphAtlas atlas;
+  private final TextBatch batch;
+  private final float[] modelViewProjection = new float[16];
+
+  private final int[] frameBuffer = new int[1];
+  private int frameBufferBytes;
+  private int glyphCount;
+  // The atlas generation the batch's texture coordinates refer to.
+  private int frameGeneration;
+
+  /**
+   * @param shaders The registry {@code program} belongs to, already built.
+   * @param program The text program.
+   * @param atlas The glyph atlas.
+   * @param preparer Lays out messages with glyphs from {@code atlas} on its workers.
+   * @param uploadBudget The most newly laid out messages added to the batch per {@link #prepare}
+   *     call.
+   */
+  public NoteTextRenderer(ShaderRegistry shaders, ShaderProgram program, GlyphAtlas atlas,
+      NotePreparer preparer, int uploadBudget) {
+    this.shaders = shaders;
+    this.program = program;
+    this.atlas = atlas;
+    this.batch = new TextBatch(preparer, uploadBudget);
+  }
+
+  /**
+   * Creates the per-frame buffer. Cached layouts are CPU-side and survive context loss.
+   */
+  @Override
+  public void onContextCreated() {
+    GLES20.glGenBuffers(1, frameBuffer, 0);
+    frameBufferBytes = 0;
+    glyphCount = 0;
+  }
+
+  public ShaderProgram getProgram() {
+    return program;
+  }
+
+  /**
+   * Caches a layout made off the GL thread, such as a {@link NotePreparer.PreparedNote}'s, for
+   * the note's current message. Must be called on the GL thread.
+   *
+   * @param layout The layout, or null to leave the note to be laid out when it is drawn.
+   */
+  public void setLayout(NoteStore notes, int id, TextLayout layout) {
+    batch.setLayout(notes, id, layout);
+  }
+
+  /**
+   * @return Whether the last {@link #prepare} took in finished layouts or sent messages to the
+   *     workers, work expected to allocate.
+   */
+  public boolean haveLayoutsChanged() {
+    return batch.haveLayoutsChanged();
+  }
+
+  /**
+   * Drops a note's cached layout once the note has left the store. Must be called on the GL
+   * thread.
+   */
+  public void forgetLayout(int id) {
+    batch.forgetLayout(id);
+  }
+
+  /**
+   * Takes in finished layouts, up to the upload budget, sends the messages of notes without a
+   * current layout to the workers, and uploads the text of the given notes whose layouts are
+   * current. Must be called on the GL thread before {@link #draw}.
+   *
+   * @param notes The note store.
+   * @param ids The ids of the notes to draw, front to back.
+   * @param count The number of ids in {@code ids}.
+   * @return The number of glyphs to draw.
+   */
+  public int prepare(NoteStore notes, int[] ids, int count) {
+    batch.takeFinishedLayouts(notes);
+    atlas.uploadIfDirty();
+    int generation = atlas.getUploadedGeneration();
+    int glyphs = batch.pack(notes, ids, count, generation);
+    glyphCount = glyphs;
+    frameGeneration = generation;
+    if (glyphs == 0) {
+      return 0;
+    }
+
+    FloatBuffer frameData = batch.getData();
+    int bytes = frameData.limit() * 4;
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, frameBuffer[0]);
+    if (bytes > frameBufferBytes) {
+      frameBufferBytes = frameData.capacity() * 4;
+      GLES20.glBufferData(
+          GLES20.GL_ARRAY_BUFFER, frameBufferBytes, null, GLES20.GL_STREAM_DRAW);
+    }
+    GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, bytes, frameData);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    return glyphs;
+  }
+
+  /**
+   * Draws the text packed by the last {@link #prepare} call, blended over the notes.
+   */
+  public void draw(float[] view, float[] perspective) {
+    // Another upload since prepare, after the workers moved glyphs, leaves the batch pointing at
+    // the wrong ones; it is rebuilt next frame.
+    if (glyphCount == 0 || frameGeneration != atlas.getUploadedGeneration()) {
+      return;
+    }
+    shaders.use(program);
+    MatrixMath.multiplyMM(modelViewProjection, 0, perspective, 0, view, 0);
+    GLES20.glUniformMatrix4fv(program.getModelViewProjectionParam(), 1, false,
+        modelViewProjection, 0);
+    GLES20.glUniform4fv(program.getColorUniformParam(), 1, TEXT_COLOR, 0);
+
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, atlas.getTexture());
+    GLES20.glUniform1i(program.getTextureParam(), 0);
+
+    int positionParam = program.getPositionParam();
+    int texCoordParam = program.getTexCoordParam();
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, frameBuffer[0]);
+    GLES20.glEnableVertexAttribArray(positionParam);
+    GLES20.glVertexAttribPointer(positionParam, 3, GLES20.GL_FLOAT, false, STRIDE, 0);
+    GLES20.glEnableVertexAttribArray(texCoordParam);
+    GLES20.glVertexAttribPointer(texCoordParam, 2, GLES20.GL_FLOAT, false, STRIDE, 3 * 4);
+
+    GLES20.glEnable(GLES20.GL_BLEND);
+    GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+    GLES20.glDepthMask(false);
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, glyphCount * TextBatch.VERTICES_PER_GLYPH);
+    GLES20.glDepthMask(true);
+    GLES20.glDisable(GLES20.GL_BLEND);
+
+    GLES20.glDisableVertexAttribArray(texCoordParam);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+  }
+}
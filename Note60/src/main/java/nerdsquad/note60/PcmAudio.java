@@ -0,0 +1,187 @@
+package nerdsquad.note60;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decoded 16-bit PCM audio.
+ */
+public final class PcmAudio {
+  // RIFF chunk ids, little-endian.
+  private static final int RIFF_ID = 0x46464952;
+  private static final int WAVE_ID = 0x45564157;
+  private static final int FMT_ID = 0x20746d66;
+  private static final int DATA_ID = 0x61746164;
+  private static final int FMT_SIZE = 16;
+
+  public final int sampleRate;
+  public final int channels;
+  /** Interleaved samples, {@link #channels} per frame. */
+  public final short[] samples;
+
+  public PcmAudio(int sampleRate, int channels, short[] samples) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.samples = samples;
+  }
+
+  /**
+   * @return The length of the audio in frames.
+   */
+  public int getFrameCount() {
+    return samples.length / channels;
+  }
+
+  /**
+   * Decodes an uncompressed 8- or 16-bit PCM WAV file. Closes {@code in}.
+   *
+   * @throws IOException If the stream can't be read or isn't PCM WAV.
+   */
+  public static PcmAudio decodeWav(InputStream in) throws IOException {
+    ByteBuffer wav;
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 4096));
+      byte[] buffer = new byte[16384];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      wav = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    } finally {
+      in.close();
+    }
+
+    if (wav.remaining() < 12 || wav.getInt(0) != RIFF_ID || wav.getInt(8) != WAVE_ID) {
+      throw new IOException("Not a RIFF WAVE file");
+    }
+    int channels = 0;
+    int sampleRate = 0;
+    int bitsPerSample = 0;
+    int position = 12;
+    while (position + 8 <= wav.limit()) {
+      int id = wav.getInt(position);
+      int size = wav.getInt(position + 4);
+      int body = position + 8;
+      if (size < 0 || body + size > wav.limit()) {
+        // Some writers leave the data size unset; take what is there.
+        size = wav.limit() - body;
+      }
+      if (id == FMT_ID) {
+        int format = wav.getShort(body) & 0xffff;
+        if (format != 1) {
+          throw new IOException("Unsupported WAV format " + format);
+        }
+        channels = wav.getShort(body + 2);
+        sampleRate = wav.getInt(body + 4);
+        bitsPerSample = wav.getShort(body + 14);
+      } else if (id == DATA_ID) {
+        if (channels <= 0 || (bitsPerSample != 8 && bitsPerSample != 16)) {
+          throw new IOException("Unsupported WAV layout");
+        }
+        return new PcmAudio(sampleRate, channels, toSamples(wav, body, size, bitsPerSample));
+      }
+      // Chunks are padded to an even size.
+      position = body + size + (size & 1);
+    }
+    throw new IOException("WAV file has no data");
+  }
+
+  /**
+   * Reads how long an uncompressed 8- or 16-bit PCM WAV file plays from its headers, skipping
+   * over the samples rather than decoding them. Closes {@code in}.
+   *
+   * @return The length of the audio in nanoseconds.
+   * @throws IOException If the stream can't be read or isn't PCM WAV.
+   */
+  public static long readWavDurationNanos(InputStream in) throws IOException {
+    try {
+      byte[] bytes = new byte[FMT_SIZE];
+      ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(in, bytes, 12);
+      if (header.getInt(0) != RIFF_ID || header.getInt(8) != WAVE_ID) {
+        throw new IOException("Not a RIFF WAVE file");
+      }
+      int sampleRate = 0;
+      int bytesPerFrame = 0;
+      while (true) {
+        try {
+          readFully(in, bytes, 8);
+        } catch (EOFException e) {
+          throw new IOException("WAV file has no data");
+        }
+        int id = header.getInt(0);
+        int size = header.getInt(4);
+        if (id == FMT_ID) {
+          readFully(in, bytes, FMT_SIZE);
+          int format = header.getShort(0) & 0xffff;
+          if (format != 1) {
+            throw new IOException("Unsupported WAV format " + format);
+          }
+          int channels = header.getShort(2);
+          sampleRate = header.getInt(4);
+          int bitsPerSample = header.getShort(14);
+          bytesPerFrame = bitsPerSample == 8 || bitsPerSample == 16
+              ? channels * bitsPerSample / 8 : 0;
+          skipFully(in, size - FMT_SIZE + (size & 1));
+        } else if (id == DATA_ID) {
+          if (bytesPerFrame <= 0 || sampleRate <= 0) {
+            throw new IOException("Unsupported WAV layout");
+          }
+          if (size < 0) {
+            // Some writers leave the data size unset; take what is there.
+            size = in.available();
+          }
+          return (size / bytesPerFrame) * 1000000000L / sampleRate;
+        } else {
+          // Chunks are padded to an even size.
+          skipFully(in, size + (size & 1));
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void readFully(InputStream in, byte[] bytes, int length) throws IOException {
+    for (int offset = 0; offset < length; ) {
+      int read = in.read(bytes, offset, length - offset);
+      if (read < 0) {
+        throw new EOFException();
+      }
+      offset += read;
+    }
+  }
+
+  private static void skipFully(InputStream in, long length) throws IOException {
+    while (length > 0) {
+      long skipped = in.skip(length);
+      if (skipped <= 0) {
+        if (in.read() < 0) {
+          throw new EOFException();
+        }
+        skipped = 1;
+      }
+      length -= skipped;
+    }
+  }
+
+  private static short[] toSamples(ByteBuffer wav, int offset, int size, int bitsPerSample) {
+    if (bitsPerSample == 16) {
+      short[] samples = new short[size / 2];
+      ByteBuffer data = wav.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      data.position(offset);
+      data.asShortBuffer().get(samples);
+      return samples;
+    }
+    // 8-bit samples are unsigned.
+    short[] samples = new short[size];
+    for (int i = 0; i < size; i++) {
+      samples[i] = (short) (((wav.get(offset + i) & 0xff) - 128) << 8);
+    }
+    return samples;
+  }
+}
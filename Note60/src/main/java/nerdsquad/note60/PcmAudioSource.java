@@ -0,0 +1,63 @@
+package nerdsquad.note60;
+
+/**
+ * Plays decoded audio in place of the microphone, so voice notes can be recorded without one.
+ *
+ * <p>Multi-channel audio is mixed down to mono. Samples are handed out no faster than a
+ * microphone would produce them, so recording from this source takes as long as the audio lasts
+ * and can be stopped partway, like a real recording.
+ */
+public class PcmAudioSource implements AudioSource {
+  private final PcmAudio pcm;
+  private int frame;
+  private long startNanos;
+
+  public PcmAudioSource(PcmAudio pcm) {
+    this.pcm = pcm;
+  }
+
+  @Override
+  public int getSampleRate() {
+    return pcm.sampleRate;
+  }
+
+  @Override
+  public void start() {
+    startNanos = System.nanoTime();
+  }
+
+  @Override
+  public int read(short[] samples, int offset, int length) {
+    int frames = pcm.getFrameCount();
+    if (frame >= frames) {
+      return -1;
+    }
+    int count = Math.min(length, frames - frame);
+    // Wait until the last of these samples would have been spoken.
+    long dueNanos = startNanos + (frame + count) * 1000000000L / pcm.sampleRate;
+    long waitMillis = (dueNanos - System.nanoTime()) / 1000000;
+    if (waitMillis > 0) {
+      try {
+        Thread.sleep(waitMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return -1;
+      }
+    }
+    int channels = pcm.channels;
+    for (int i = 0; i < count; i++) {
+      int sum = 0;
+      int base = (frame + i) * channels;
+      for (int c = 0; c < channels; c++) {
+        sum += pcm.samples[base + c];
+      }
+      samples[offset + i] = (short) (sum / channels);
+    }
+    frame += count;
+    return count;
+  }
+
+  @Override
+  public void close() {
+  }
+}
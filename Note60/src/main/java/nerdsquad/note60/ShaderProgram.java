@@ -0,0 +1,128 @@
+package nerdsquad.note60;
+
+import android.opengl.GLES20;
+
+/**
+ * A linked shader program and the locations of its parameters, looked up once at link time.
+ *
+ * <p>Handles are created by {@link ShaderRegistry} and stay valid across GL context loss: the
+ * registry relinks the program and refreshes the fields in place. Parameters a program doesn't
+ * declare have location -1.
+ */
+public final class ShaderProgram {
+  final int vertexResId;
+  final int fragmentResId;
+
+  private int program;
+
+  // Attributes.
+  private int positionParam = -1;
+  private int normalParam = -1;
+  private int colorParam = -1;
+  private int modelAttribParam = -1;
+  private int highlightParam = -1;
+  private int texCoordParam = -1;
+
+  // Uniforms.
+  private int modelParam = -1;
+  private int modelViewParam = -1;
+  private int modelViewProjectionParam = -1;
+  private int lightPosParam = -1;
+  private int viewParam = -1;
+  private int projectionParam = -1;
+  private int textureParam = -1;
+  private int colorUniformParam = -1;
+
+  ShaderProgram(int vertexResId, int fragmentResId) {
+    this.vertexResId = vertexResId;
+    this.fragmentResId = fragmentResId;
+  }
+
+  /**
+   * Adopts a freshly linked program and caches its parameter locations.
+   */
+  void setProgram(int glProgram) {
+    program = glProgram;
+    positionParam = GLES20.glGetAttribLocation(program, "a_Position");
+    normalParam = GLES20.glGetAttribLocation(program, "a_Normal");
+    colorParam = GLES20.glGetAttribLocation(program, "a_Color");
+    modelAttribParam = GLES20.glGetAttribLocation(program, "a_Model");
+    highlightParam = GLES20.glGetAttribLocation(program, "a_Highlight");
+    texCoordParam = GLES20.glGetAttribLocation(program, "a_TexCoord");
+
+    modelParam = GLES20.glGetUniformLocation(program, "u_Model");
+    modelViewParam = GLES20.glGetUniformLocation(program, "u_MVMatrix");
+    modelViewProjectionParam = GLES20.glGetUniformLocation(program, "u_MVP");
+    lightPosParam = GLES20.glGetUniformLocation(program, "u_LightPos");
+    viewParam = GLES20.glGetUniformLocation(program, "u_View");
+    projectionParam = GLES20.glGetUniformLocation(program, "u_Projection");
+    textureParam = GLES20.glGetUniformLocation(program, "u_Texture");
+    colorUniformParam = GLES20.glGetUniformLocation(program, "u_Color");
+  }
+
+  public int getProgram() {
+    return program;
+  }
+
+  public int getPositionParam() {
+    return positionParam;
+  }
+
+  public int getNormalParam() {
+    return normalParam;
+  }
+
+  public int getColorParam() {
+    return colorParam;
+  }
+
+  /**
+   * @return The first of the four locations of the per-instance model matrix attribute.
+   */
+  public int getModelAttribParam() {
+    return modelAttribParam;
+  }
+
+  /**
+   * @return The location of the per-instance highlight color attribute.
+   */
+  public int getHighlightParam() {
+    return highlightParam;
+  }
+
+  public int getModelParam() {
+    return modelParam;
+  }
+
+  public int getModelViewParam() {
+    return modelViewParam;
+  }
+
+  public int getModelViewProjectionParam() {
+    return modelViewProjectionParam;
+  }
+
+  public int getLightPosParam() {
+    return lightPosParam;
+  }
+
+  public int getViewParam() {
+    return viewParam;
+  }
+
+  public int getProjectionParam() {
+    return projectionParam;
+  }
+
+  public int getTexCoordParam() {
+    return texCoordParam;
+  }
+
+  public int getTextureParam() {
+    return textureParam;
+  }
+
+  public int getColorUniformParam() {
+    return colorUniformParam;
+  }
+}
@@ -0,0 +1,204 @@
+package nerdsquad.note60;
+
+import android.content.res.Resources;
+import android.opengl.GLES20;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles and links every shader program once and hands out {@link ShaderProgram} handles.
+ *
+ * <p>Programs are registered up front with {@link #register}; {@link #onContextCreated()} then
+ * compiles each shader resource once, even when several programs share it, and links the
+ * programs. Shader sources are read once and kept, so after GL context loss
+ * {@link #onContextCreated()} can rebuild everything without touching resources again, and
+ * existing handles stay valid. {@link #preloadSources} can read them on another thread ahead of
+ * the GL context; the first {@link #onContextCreated()} then only waits for whatever is left.
+ *
+ * <p>The registry also remembers which program is bound, so {@link #use} skips redundant
+ * {@code glUseProgram} calls. Programs must only be bound through it. Owned by the GL thread.
+ */
+public class ShaderRegistry implements GlResource {
+  private static final String TAG = "ShaderRegistry";
+
+  private final Resources resources;
+  private final List<ShaderProgram> programs = new ArrayList<ShaderProgram>();
+  private final SparseArray<String> sources = new SparseArray<String>();
+  private final SparseIntArray compiledShaders = new SparseIntArray();
+  private ShaderProgram current;
+  private Future<SparseArray<String>> preloadedSources;
+
+  public ShaderRegistry(Resources resources) {
+    this.resources = resources;
+  }
+
+  /**
+   * Registers a program built from two raw shader resources. It is linked by the next
+   * {@link #onContextCreated()}.
+   */
+  public ShaderProgram register(int vertexResId, int fragmentResId) {
+    ShaderProgram program = new ShaderProgram(vertexResId, fragmentResId);
+    programs.add(program);
+    return program;
+  }
+
+  /**
+   * Starts reading and preparing the sources of every program registered so far on
+   * {@code executor}. Call after registering the programs and before the first
+   * {@link #onContextCreated()}.
+   */
+  public void preloadSources(ExecutorService executor, final StartupProfile profile) {
+    final int[] resIds = new int[programs.size() * 2];
+    for (int i = 0; i < programs.size(); i++) {
+      resIds[2 * i] = programs.get(i).vertexResId;
+      resIds[2 * i + 1] = programs.get(i).fragmentResId;
+    }
+    preloadedSources = executor.submit(new Callable<SparseArray<String>>() {
+      @Override
+      public SparseArray<String> call() {
+        long begin = System.nanoTime();
+        SparseArray<String> preloaded = new SparseArray<String>();
+        for (int resId : resIds) {
+          if (preloaded.get(resId) == null) {
+            preloaded.put(resId, readRawResource(resId));
+          }
+        }
+        profile.record("Shader sources", begin);
+        return preloaded;
+      }
+    });
+  }
+
+  /**
+   * Compiles and links every registered program in the current GL context.
+   */
+  @Override
+  public void onContextCreated() {
+    adoptPreloadedSources();
+    current = null;
+    compiledShaders.clear();
+    for (ShaderProgram program : programs) {
+      int vertexShader = compiledShader(GLES20.GL_VERTEX_SHADER, program.vertexResId);
+      int fragmentShader = compiledShader(GLES20.GL_FRAGMENT_SHADER, program.fragmentResId);
+      int glProgram = GLES20.glCreateProgram();
+      GLES20.glAttachShader(glProgram, vertexShader);
+      GLES20.glAttachShader(glProgram, fragmentShader);
+      GLES20.glLinkProgram(glProgram);
+
+      final int[] linkStatus = new int[1];
+      GLES20.glGetProgramiv(glProgram, GLES20.GL_LINK_STATUS, linkStatus, 0);
+      if (linkStatus[0] == 0) {
+        Log.e(TAG, "Error linking program: " + GLES20.glGetProgramInfoLog(glProgram));
+        GLES20.glDeleteProgram(glProgram);
+        throw new RuntimeException("Error linking program.");
+      }
+      program.setProgram(glProgram);
+    }
+  }
+
+  /**
+   * Binds a program unless it is already bound.
+   */
+  public void use(ShaderProgram program) {
+    if (program != current) {
+      GLES20.glUseProgram(program.getProgram());
+      current = program;
+    }
+  }
+
+  /**
+   * Compiles a shader resource, or returns the shader already compiled from it.
+   *
+   * @param type The type of shader we will be creating.
+   * @param resId The resource ID of the raw text file about to be turned into a shader.
+   * @return The shader object handler.
+   */
+  private int compiledShader(int type, int resId) {
+    int shader = compiledShaders.get(resId);
+    if (shader != 0) {
+      return shader;
+    }
+    shader = GLES20.glCreateShader(type);
+    GLES20.glShaderSource(shader, source(resId));
+    GLES20.glCompileShader(shader);
+
+    // Get the compilation status.
+    final int[] compileStatus = new int[1];
+    GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+
+    // If the compilation failed, delete the shader.
+    if (compileStatus[0] == 0) {
+      Log.e(TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
+      GLES20.glDeleteShader(shader);
+      throw new RuntimeException("Error creating shader.");
+    }
+    compiledShaders.put(resId, shader);
+    return shader;
+  }
+
+  /**
+   * Takes the sources read by {@link #preloadSources}, waiting for them if need be. If the preload
+   * failed the sources are read here instead, as if there had been no preload.
+   */
+  private void adoptPreloadedSources() {
+    if (preloadedSources == null) {
+      return;
+    }
+    try {
+      SparseArray<String> preloaded = preloadedSources.get();
+      for (int i = 0; i < preloaded.size(); i++) {
+        sources.put(preloaded.keyAt(i), preloaded.valueAt(i));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      Log.w(TAG, "Shader preload failed", e.getCause());
+    }
+    preloadedSources = null;
+  }
+
+  /**
+   * @return The source of a raw shader resource, read in one go the first time it is needed.
+   */
+  private String source(int resId) {
+    String source = sources.get(resId);
+    if (source == null) {
+      source = readRawResource(resId);
+      sources.put(resId, source);
+    }
+    return source;
+  }
+
+  private String readRawResource(int resId) {
+    InputStream inputStream = resources.openRawResource(resId);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(inputStream.available(), 256));
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = inputStream.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      // GLSL ES compilers vary in how they take CRs; hand them plain newlines.
+      return out.toString("UTF-8").replace("\r\n", "\n");
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading shader resource " + resId, e);
+    } finally {
+      try {
+        inputStream.close();
+      } catch (IOException e) {
+        // Nothing left to read from it.
+      }
+    }
+  }
+}
@@ -0,0 +1,303 @@
+package nerdsquad.note60;
+
+import android.util.Log;
+
+import com.google.vrtoolkit.cardboard.audio.CardboardAudioEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays positional sounds attached to notes through a fixed pool of voices.
+ *
+ * <p>Each sound source is decoded once by {@link #preload} into a buffer the audio engine shares
+ * between every voice playing it, so starting a sound never decodes anything. At most
+ * {@code maxVoices} sounds play at once. When they are all busy a new sound takes over the voice
+ * with the lowest priority, the one farthest from the listener among equals, provided that voice
+ * doesn't outrank the new sound; otherwise the new sound is dropped.
+ *
+ * <p>Voices follow their notes: {@link #update} moves every sounding voice and the listener once
+ * per frame. Voices are freed when their source's length has played out, read from its WAV
+ * header, so the pool never asks the engine whether a sound is still playing.
+ *
+ * <p>Apart from {@link #preload}, owned by the GL thread.
+ */
+public class SoundManager {
+  private static final String TAG = "SoundManager";
+
+  /** Priority of sounds that only draw attention to a note. */
+  public static final int PRIORITY_ATTENTION = 0;
+  /** Priority of sounds that confirm something the user did. */
+  public static final int PRIORITY_FEEDBACK = 1;
+
+  private final CardboardAudioEngine engine;
+  private final List<String> sourceAssets = new ArrayList<String>();
+  private long[] sourceNanos = new long[4];
+
+  // Voice state, indexed by voice. A voice is free when its sound is INVALID_ID.
+  private final int[] voiceSound;
+  private final int[] voiceNote;
+  private final int[] voicePriority;
+  private final long[] voiceEndNanos;
+  private final float[] voicePositions;
+
+  private final float[] listener = new float[3];
+  private final float[] rotation = new float[4];
+  private int activeVoices;
+  // Volatile so the telemetry dump can read them whole from another thread.
+  private volatile long stolenCount;
+  private volatile long droppedCount;
+
+  /**
+   * @param maxVoices The most sounds that may play at once.
+   */
+  public SoundManager(CardboardAudioEngine engine, int maxVoices) {
+    this.engine = engine;
+    voiceSound = new int[maxVoices];
+    voiceNote = new int[maxVoices];
+    voicePriority = new int[maxVoices];
+    voiceEndNanos = new long[maxVoices];
+    voicePositions = new float[maxVoices * 3];
+    for (int i = 0; i < maxVoices; i++) {
+      voiceSound[i] = CardboardAudioEngine.INVALID_ID;
+    }
+  }
+
+  /**
+   * Decodes a sound asset into the engine's shared buffers. Slow; call off the GL thread, before
+   * {@link #addSource} for the same asset.
+   *
+   * @return False if the asset could not be loaded.
+   */
+  public boolean preload(String assetName) {
+    return engine.preloadSoundFile(assetName);
+  }
+
+  /**
+   * Makes a preloaded asset playable.
+   *
+   * @param durationNanos How long the asset plays, as from {@link PcmAudio#readWavDurationNanos}.
+   * @return The source id to pass to {@link #play}.
+   */
+  public int addSource(String assetName, long durationNanos) {
+    int source = sourceAssets.size();
+    sourceAssets.add(assetName);
+    if (source == sourceNanos.length) {
+      long[] grown = new long[source * 2];
+      System.arraycopy(sourceNanos, 0, grown, 0, source);
+      sourceNanos = grown;
+    }
+    sourceNanos[source] = durationNanos;
+    return source;
+  }
+
+  /**
+   * Starts a sound at a note's position, taking a voice from a lesser sound if none is free.
+   *
+   * @param note The note the sound follows, or -1 to leave it where it starts.
+   * @return False if the sound was dropped.
+   */
+  public boolean play(int source, int note, int priority, float x, float y, float z,
+      long nowNanos) {
+    int voice = freeVoice(nowNanos);
+    if (voice < 0) {
+      voice = victim(priority, distanceSquared(x, y, z));
+      if (voice < 0) {
+        droppedCount++;
+        return false;
+      }
+      engine.stopSound(voiceSound[voice]);
+      release(voice);
+      stolenCount++;
+    }
+
+    int sound = engine.createSoundObject(sourceAssets.get(source));
+    if (sound == CardboardAudioEngine.INVALID_ID) {
+      Log.w(TAG, "No sound object for " + sourceAssets.get(source));
+      droppedCount++;
+      return false;
+    }
+    engine.setSoundObjectPosition(sound, x, y, z);
+    engine.playSound(sound, false);
+
+    voiceSound[voice] = sound;
+    voiceNote[voice] = note;
+    voicePriority[voice] = priority;
+    voiceEndNanos[voice] = nowNanos + sourceNanos[source];
+    voicePositions[voice * 3] = x;
+    voicePositions[voice * 3 + 1] = y;
+    voicePositions[voice * 3 + 2] = z;
+    activeVoices++;
+    return true;
+  }
+
+  /**
+   * Moves the listener and every sounding voice to where they are this frame, and frees voices
+   * that have finished. Call once per frame.
+   *
+   * @param headView The head's view matrix, as from {@code HeadTransform.getHeadView}.
+   * @param notes The store the voices' notes live in.
+   */
+  public void update(float[] headView, NoteStore notes, long nowNanos) {
+    // The listener sits at -R^T * t for a view matrix with rotation R and translation t.
+    for (int i = 0; i < 3; i++) {
+      listener[i] = -(headView[i * 4] * headView[12] + headView[i * 4 + 1] * headView[13]
+          + headView[i * 4 + 2] * headView[14]);
+    }
+    toQuaternion(headView, rotation);
+    engine.setHeadPosition(listener[0], listener[1], listener[2]);
+    engine.setHeadRotation(rotation[0], rotation[1], rotation[2], rotation[3]);
+
+    if (activeVoices == 0) {
+      return;
+    }
+    float[] positions = notes.getPositions();
+    for (int voice = 0; voice < voiceSound.length; voice++) {
+      if (voiceSound[voice] == CardboardAudioEngine.INVALID_ID) {
+        continue;
+      }
+      if (nowNanos - voiceEndNanos[voice] >= 0) {
+        // Played out; the engine has already let go of the sound.
+        release(voice);
+        continue;
+      }
+      int note = voiceNote[voice];
+      if (note < 0) {
+        continue;
+      }
+      int p = note * NoteStore.POSITION_STRIDE;
+      int v = voice * 3;
+      if (positions[p] != voicePositions[v] || positions[p + 1] != voicePositions[v + 1]
+          || positions[p + 2] != voicePositions[v + 2]) {
+        voicePositions[v] = positions[p];
+        voicePositions[v + 1] = positions[p + 1];
+        voicePositions[v + 2] = positions[p + 2];
+        engine.setSoundObjectPosition(voiceSound[voice], positions[p], positions[p + 1],
+            positions[p + 2]);
+      }
+    }
+  }
+
+  /**
+   * Stops the sounds following a note. Call before the note is removed.
+   */
+  public void onNoteRemoved(int note) {
+    for (int voice = 0; voice < voiceSound.length; voice++) {
+      if (voiceSound[voice] != CardboardAudioEngine.INVALID_ID && voiceNote[voice] == note) {
+        engine.stopSound(voiceSound[voice]);
+        release(voice);
+      }
+    }
+  }
+
+  /**
+   * Stops every sound, for instance when the notes they follow are replaced.
+   */
+  public void stopAll() {
+    for (int voice = 0; voice < voiceSound.length; voice++) {
+      if (voiceSound[voice] != CardboardAudioEngine.INVALID_ID) {
+        engine.stopSound(voiceSound[voice]);
+        release(voice);
+      }
+    }
+  }
+
+  /**
+   * @return The number of voices playing.
+   */
+  public int getActiveVoiceCount() {
+    return activeVoices;
+  }
+
+  /**
+   * @return The number of sounds cut short to make room for another. Can be read from any
+   *     thread.
+   */
+  public long getStolenCount() {
+    return stolenCount;
+  }
+
+  /**
+   * @return The number of sounds that found no voice. Can be read from any thread.
+   */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  private int freeVoice(long nowNanos) {
+    for (int voice = 0; voice < voiceSound.length; voice++) {
+      if (voiceSound[voice] == CardboardAudioEngine.INVALID_ID) {
+        return voice;
+      }
+      if (nowNanos - voiceEndNanos[voice] >= 0) {
+        release(voice);
+        return voice;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return The voice a sound of {@code priority} at {@code distanceSquared} may take over, or -1.
+   */
+  private int victim(int priority, float distanceSquared) {
+    int victim = -1;
+    int victimPriority = priority;
+    float victimDistance = distanceSquared;
+    for (int voice = 0; voice < voiceSound.length; voice++) {
+      int p = voicePriority[voice];
+      float d = distanceSquared(
+          voicePositions[voice * 3], voicePositions[voice * 3 + 1], voicePositions[voice * 3 + 2]);
+      if (p < victimPriority || (p == victimPriority && d > victimDistance)) {
+        victim = voice;
+        victimPriority = p;
+        victimDistance = d;
+      }
+    }
+    return victim;
+  }
+
+  private void release(int voice) {
+    voiceSound[voice] = CardboardAudioEngine.INVALID_ID;
+    activeVoices--;
+  }
+
+  private float distanceSquared(float x, float y, float z) {
+    float dx = x - listener[0];
+    float dy = y - listener[1];
+    float dz = z - listener[2];
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  /**
+   * Converts the rotation of a column-major matrix to a quaternion (x, y, z, w).
+   */
+  private static void toQuaternion(float[] m, float[] q) {
+    float trace = m[0] + m[5] + m[10];
+    if (trace > 0) {
+      float s = (float) Math.sqrt(trace + 1.0f) * 2.0f;
+      q[3] = 0.25f * s;
+      q[0] = (m[6] - m[9]) / s;
+      q[1] = (m[8] - m[2]) / s;
+      q[2] = (m[1] - m[4]) / s;
+    } else if (m[0] > m[5] && m[0] > m[10]) {
+      float s = (float) Math.sqrt(1.0f + m[0] - m[5] - m[10]) * 2.0f;
+      q[3] = (m[6] - m[9]) / s;
+      q[0] = 0.25f * s;
+      q[1] = (m[4] + m[1]) / s;
+      q[2] = (m[8] + m[2]) / s;
+    } else if (m[5] > m[10]) {
+      float s = (float) Math.sqrt(1.0f + m[5] - m[0] - m[10]) * 2.0f;
+      q[3] = (m[8] - m[2]) / s;
+      q[0] = (m[4] + m[1]) / s;
+      q[1] = 0.25f * s;
+      q[2] = (m[9] + m[6]) / s;
+    } else {
+      float s = (float) Math.sqrt(1.0f + m[10] - m[0] - m[5]) * 2.0f;
+      q[3] = (m[1] - m[4]) / s;
+      q[0] = (m[8] + m[2]) / s;
+      q[1] = (m[9] + m[6]) / s;
+      q[2] = 0.25f * s;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package nerdsquad.note60;
+
+import android.util.Log;
+
+/**
+ * Times the phases of a cold start, on whichever threads they run, and logs them once.
+ *
+ * <p>Each phase is recorded with the thread it ran on, when it started relative to the profile's
+ * creation, and how long it took, so parallel phases show up as overlapping.
+ */
+class StartupProfile {
+  private static final String TAG = "StartupProfile";
+
+  private final long startNanos = System.nanoTime();
+  private final StringBuilder phases = new StringBuilder();
+  private boolean reported;
+
+  /**
+   * @return The time the profile was created, from {@code System.nanoTime()}.
+   */
+  long getStartNanos() {
+    return startNanos;
+  }
+
+  /**
+   * Records a phase that began at {@code beginNanos} and ends now.
+   */
+  synchronized void record(String phase, long beginNanos) {
+    long end = System.nanoTime();
+    phases.append(phase)
+        .append(" [").append(Thread.currentThread().getName()).append("] at ")
+        .append((beginNanos - startNanos) / 1000000).append(" ms took ")
+        .append((end - beginNanos) / 1000000).append(" ms\n");
+  }
+
+  /**
+   * Logs every phase recorded so far. Only the first call logs anything.
+   */
+  synchronized void report() {
+    if (reported) {
+      return;
+    }
+    reported = true;
+    Log.i(TAG, "Startup phases:\n" + phases);
+  }
+}
@@ -0,0 +1,202 @@
+package nerdsquad.note60;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The file format of a voice note: mono IMA ADPCM in fixed-size chunks.
+ *
+ * <p>A 16 byte header (magic, version, sample rate, samples per chunk) is followed by chunks that
+ * all take the same number of bytes. Each chunk starts with its sample count and the coder state
+ * at its first sample, so it decodes on its own: chunk {@code n} sits at a computed offset, and
+ * seeking to a sample costs one read. Only the last chunk may hold fewer samples. A chunk cut
+ * short by a crash is ignored.
+ *
+ * <p>{@link Writer} appends chunks as they are recorded; {@link Reader} streams them back one chunk
+ * at a time.
+ */
+public final class VoiceClip {
+  private static final int MAGIC = 0x4e363056; // "N60V"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  // Chunk header: sample count, predictor, step index, padding.
+  private static final int CHUNK_HEADER_SIZE = 8;
+
+  private VoiceClip() {}
+
+  private static int chunkSize(int samplesPerChunk) {
+    return CHUNK_HEADER_SIZE + (samplesPerChunk + 1) / 2;
+  }
+
+  /**
+   * Encodes samples and appends them to a new clip file. Not thread safe.
+   */
+  public static final class Writer {
+    private final FileOutputStream out;
+    private final int samplesPerChunk;
+    private final ImaAdpcm coder = new ImaAdpcm();
+    private final byte[] chunk;
+    private final ByteBuffer chunkHeader;
+    private int sampleCount;
+
+    /**
+     * Creates {@code file}, and its directory if need be, replacing any clip already there.
+     */
+    public Writer(File file, int sampleRate, int samplesPerChunk) throws IOException {
+      this.samplesPerChunk = samplesPerChunk;
+      // A new note's chunk may still be having its files created on the journal executor.
+      file.getParentFile().mkdirs();
+      chunk = new byte[chunkSize(samplesPerChunk)];
+      chunkHeader = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+      out = new FileOutputStream(file);
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(sampleRate).putInt(samplesPerChunk);
+      out.write(header.array());
+    }
+
+    /**
+     * Encodes and writes one chunk. Every chunk but the last must be full.
+     *
+     * @param count The number of samples, at most the samples per chunk.
+     */
+    public void append(short[] samples, int count) throws IOException {
+      if (count <= 0 || count > samplesPerChunk) {
+        throw new IllegalArgumentException("Bad chunk length " + count);
+      }
+      chunkHeader.putInt(0, count);
+      chunkHeader.putShort(4, (short) coder.predictor);
+      chunk[6] = (byte) coder.stepIndex;
+      chunk[7] = 0;
+      coder.encode(samples, 0, count, chunk, CHUNK_HEADER_SIZE);
+      // Chunks keep their size even when short, so offsets stay computable.
+      for (int i = CHUNK_HEADER_SIZE + (count + 1) / 2; i < chunk.length; i++) {
+        chunk[i] = 0;
+      }
+      out.write(chunk);
+      sampleCount += count;
+    }
+
+    /**
+     * @return The number of samples written so far.
+     */
+    public int getSampleCount() {
+      return sampleCount;
+    }
+
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  /**
+   * Decodes a clip a chunk at a time, from any sample. Not thread safe.
+   */
+  public static final class Reader {
+    private final RandomAccessFile file;
+    private final int sampleRate;
+    private final int samplesPerChunk;
+    private final int chunkCount;
+    private final int sampleCount;
+    private final ImaAdpcm coder = new ImaAdpcm();
+    private final byte[] chunk;
+    private final ByteBuffer chunkHeader;
+    private final short[] decoded;
+
+    // The chunk in decoded, and how far into it the next read starts.
+    private int decodedChunk = -1;
+    private int decodedCount;
+    private int position;
+
+    public Reader(File clip) throws IOException {
+      file = new RandomAccessFile(clip, "r");
+      try {
+        byte[] headerBytes = new byte[HEADER_SIZE];
+        file.readFully(headerBytes);
+        ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+          throw new IOException("Not a voice clip: " + clip);
+        }
+        sampleRate = header.getInt(8);
+        samplesPerChunk = header.getInt(12);
+        if (samplesPerChunk <= 0) {
+          throw new IOException("Corrupt voice clip: " + clip);
+        }
+        chunk = new byte[chunkSize(samplesPerChunk)];
+        chunkHeader = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+        decoded = new short[samplesPerChunk];
+        chunkCount = (int) ((file.length() - HEADER_SIZE) / chunk.length);
+        sampleCount = chunkCount == 0 ? 0
+            : (chunkCount - 1) * samplesPerChunk + readChunkSampleCount(chunkCount - 1);
+      } catch (IOException e) {
+        file.close();
+        throw e;
+      }
+    }
+
+    public int getSampleRate() {
+      return sampleRate;
+    }
+
+    /**
+     * @return The length of the clip in samples.
+     */
+    public int getSampleCount() {
+      return sampleCount;
+    }
+
+    /**
+     * Moves the next read to {@code sample}, clamped to the clip.
+     */
+    public void seek(int sample) {
+      position = Math.max(0, Math.min(sample, sampleCount));
+    }
+
+    /**
+     * Reads up to {@code length} samples, never more than the rest of the current chunk.
+     *
+     * @return The number of samples read, or -1 at the end of the clip.
+     */
+    public int read(short[] samples, int offset, int length) throws IOException {
+      if (position >= sampleCount) {
+        return -1;
+      }
+      int index = position / samplesPerChunk;
+      if (index != decodedChunk) {
+        decodeChunk(index);
+      }
+      int start = position - index * samplesPerChunk;
+      int count = Math.min(length, decodedCount - start);
+      if (count <= 0) {
+        // Only the last chunk may be short; treat a short one earlier as the end.
+        position = sampleCount;
+        return -1;
+      }
+      System.arraycopy(decoded, start, samples, offset, count);
+      position += count;
+      return count;
+    }
+
+    public void close() throws IOException {
+      file.close();
+    }
+
+    private int readChunkSampleCount(int index) throws IOException {
+      file.seek(HEADER_SIZE + (long) index * chunk.length);
+      return Math.max(0, Math.min(Integer.reverseBytes(file.readInt()), samplesPerChunk));
+    }
+
+    private void decodeChunk(int index) throws IOException {
+      file.seek(HEADER_SIZE + (long) index * chunk.length);
+      file.readFully(chunk);
+      decodedCount = Math.max(0, Math.min(chunkHeader.getInt(0), samplesPerChunk));
+      coder.predictor = chunkHeader.getShort(4);
+      coder.stepIndex = Math.min(chunk[6] & 0xff, ImaAdpcm.MAX_STEP_INDEX);
+      coder.decode(chunk, CHUNK_HEADER_SIZE, decodedCount, decoded, 0);
+      decodedChunk = index;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package nerdsquad.note60;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Plays voice notes by streaming them from disk a chunk at a time.
+ *
+ * <p>Only one decoded chunk and the audio track's own buffer are held in memory, however long the
+ * clip. Playing a clip stops whatever was playing before.
+ */
+public class VoicePlayer {
+  private static final String TAG = "VoicePlayer";
+
+  // How often a finished clip checks whether its last samples have been heard.
+  private static final long DRAIN_POLL_MILLIS = 20;
+
+  private final ExecutorService thread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      return new Thread(r, TAG);
+    }
+  });
+  // Bumped by every play and stop; a clip streams only while it holds the current value.
+  private volatile int generation;
+
+  /**
+   * Plays {@code clip} from the start.
+   */
+  public void play(File clip) {
+    play(clip, 0);
+  }
+
+  /**
+   * Plays {@code clip} from {@code startMillis} in. Returns without waiting.
+   */
+  public void play(final File clip, final long startMillis) {
+    final int playing = ++generation;
+    thread.execute(new Runnable() {
+      @Override
+      public void run() {
+        stream(clip, startMillis, playing);
+      }
+    });
+  }
+
+  /**
+   * Stops playback. Returns without waiting.
+   */
+  public void stop() {
+    generation++;
+  }
+
+  public void shutdown() {
+    stop();
+    thread.shutdown();
+  }
+
+  private void stream(File clip, long startMillis, int playing) {
+    if (playing != generation) {
+      return;
+    }
+    Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+    VoiceClip.Reader reader;
+    try {
+      reader = new VoiceClip.Reader(clip);
+    } catch (IOException e) {
+      Log.e(TAG, "Cannot open " + clip, e);
+      return;
+    }
+    AudioTrack track = null;
+    try {
+      int rate = reader.getSampleRate();
+      reader.seek((int) (startMillis * rate / 1000));
+      int bufferBytes = Math.max(AudioTrack.getMinBufferSize(
+          rate, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT),
+          VoiceRecorder.SAMPLES_PER_CHUNK * 2);
+      track = new AudioTrack(AudioManager.STREAM_MUSIC, rate, AudioFormat.CHANNEL_OUT_MONO,
+          AudioFormat.ENCODING_PCM_16BIT, bufferBytes, AudioTrack.MODE_STREAM);
+      if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+        Log.e(TAG, "Cannot open an audio track at " + rate + " Hz");
+        return;
+      }
+      track.play();
+      short[] samples = new short[VoiceRecorder.SAMPLES_PER_CHUNK];
+      int written = 0;
+      int read;
+      while (playing == generation && (read = reader.read(samples, 0, samples.length)) > 0) {
+        // Blocks while the track's buffer is full, which paces the reads.
+        track.write(samples, 0, read);
+        written += read;
+      }
+      if (playing == generation) {
+        // Let the buffered tail play out before the track is released.
+        track.stop();
+        while (playing == generation && track.getPlaybackHeadPosition() < written) {
+          Thread.sleep(DRAIN_POLL_MILLIS);
+        }
+      } else {
+        track.pause();
+        track.flush();
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Cannot read " + clip, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      if (track != null) {
+        track.release();
+      }
+      try {
+        reader.close();
+      } catch (IOException e) {
+        // Only read from.
+      }
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package nerdsquad.note60;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Records voice notes on a background thread, encoding and writing them as they are captured.
+ *
+ * <p>Samples are gathered into fixed-size chunks, and each full chunk is encoded and appended to
+ * the clip file straight away, so a recording never sits in memory and is on disk up to its last
+ * chunk even if the app dies mid-sentence. One recording runs at a time.
+ */
+public class VoiceRecorder {
+  private static final String TAG = "VoiceRecorder";
+
+  // 256 ms at the microphone's 16 kHz.
+  static final int SAMPLES_PER_CHUNK = 4096;
+
+  private final ExecutorService thread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      return new Thread(r, TAG);
+    }
+  });
+  private volatile boolean recording;
+  private volatile boolean stopRequested;
+
+  /**
+   * Starts recording {@code source} into a new clip at {@code clip}. Call from one thread only.
+   *
+   * @throws IllegalStateException If a recording is already running.
+   */
+  public void start(final AudioSource source, final File clip) {
+    if (recording) {
+      throw new IllegalStateException("Already recording");
+    }
+    recording = true;
+    stopRequested = false;
+    thread.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          record(source, clip);
+        } finally {
+          recording = false;
+        }
+      }
+    });
+  }
+
+  /**
+   * Ends the recording after the samples already captured. Returns without waiting.
+   */
+  public void stop() {
+    stopRequested = true;
+  }
+
+  /**
+   * @return True from {@link #start} until the recording is stopped or its source runs out.
+   */
+  public boolean isRecording() {
+    return recording;
+  }
+
+  public void shutdown() {
+    stopRequested = true;
+    thread.shutdown();
+  }
+
+  private void record(AudioSource source, File clip) {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+    VoiceClip.Writer writer = null;
+    try {
+      source.start();
+      writer = new VoiceClip.Writer(clip, source.getSampleRate(), SAMPLES_PER_CHUNK);
+      short[] samples = new short[SAMPLES_PER_CHUNK];
+      int filled = 0;
+      while (!stopRequested) {
+        int read = source.read(samples, filled, SAMPLES_PER_CHUNK - filled);
+        if (read < 0) {
+          break;
+        }
+        filled += read;
+        if (filled == SAMPLES_PER_CHUNK) {
+          writer.append(samples, filled);
+          filled = 0;
+        }
+      }
+      if (filled > 0) {
+        writer.append(samples, filled);
+      }
+      Log.i(TAG, "Recorded " + writer.getSampleCount() + " samples to " + clip);
+    } catch (IOException e) {
+      Log.e(TAG, "Recording to " + clip + " failed", e);
+    } finally {
+      source.close();
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          Log.e(TAG, "Cannot close " + clip, e);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package nerdsquad.note60;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.speech.RecognitionListener;
+import android.speech.RecognizerIntent;
+import android.speech.SpeechRecognizer;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Turns speech into search queries while it is being spoken, through the platform speech
+ * recognizer.
+ *
+ * <p>Each partial transcript is passed on as it arrives, so the notes found narrow word by word,
+ * and the final transcript once more when the speaker stops. Main thread only, as the recognizer
+ * requires.
+ */
+class VoiceSearch {
+  private static final String TAG = "VoiceSearch";
+
+  /**
+   * Receives the queries heard. Called on the main thread.
+   */
+  interface Listener {
+    /**
+     * @param query The transcript so far.
+     * @param done Whether the speaker has stopped, so this is the last query of the search.
+     */
+    void onQuery(String query, boolean done);
+
+    /**
+     * Nothing was understood, or the recognizer failed.
+     */
+    void onNotHeard();
+  }
+
+  private final Context context;
+  private final Listener listener;
+  private SpeechRecognizer recognizer;
+  private boolean listening;
+
+  VoiceSearch(Context context, Listener listener) {
+    this.context = context;
+    this.listener = listener;
+  }
+
+  /**
+   * Starts listening for a query, unless already listening.
+   *
+   * @return False if the device has no speech recognizer.
+   */
+  boolean start() {
+    if (listening) {
+      return true;
+    }
+    if (recognizer == null) {
+      if (!SpeechRecognizer.isRecognitionAvailable(context)) {
+        return false;
+      }
+      recognizer = SpeechRecognizer.createSpeechRecognizer(context);
+      recognizer.setRecognitionListener(new Recognition());
+    }
+    Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
+    intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL,
+        RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
+    intent.putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, true);
+    intent.putExtra(RecognizerIntent.EXTRA_CALLING_PACKAGE, context.getPackageName());
+    recognizer.startListening(intent);
+    listening = true;
+    return true;
+  }
+
+  /**
+   * Stops listening without passing on anything more.
+   */
+  void stop() {
+    if (listening) {
+      recognizer.cancel();
+      listening = false;
+    }
+  }
+
+  /**
+   * Releases the recognizer.
+   */
+  void destroy() {
+    stop();
+    if (recognizer != null) {
+      recognizer.destroy();
+      recognizer = null;
+    }
+  }
+
+  private static String bestTranscript(Bundle results) {
+    List<String> transcripts = results.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+    return transcripts == null || transcripts.isEmpty() ? null : transcripts.get(0);
+  }
+
+  private final class Recognition implements RecognitionListener {
+    @Override
+    public void onPartialResults(Bundle partialResults) {
+      String query = bestTranscript(partialResults);
+      if (listening && query != null && query.length() > 0) {
+        listener.onQuery(query, false);
+      }
+    }
+
+    @Override
+    public void onResults(Bundle results) {
+      if (!listening) {
+        return;
+      }
+      listening = false;
+      String query = bestTranscript(results);
+      if (query == null || query.length() == 0) {
+        listener.onNotHeard();
+      } else {
+        listener.onQuery(query, true);
+      }
+    }
+
+    @Override
+    public void onError(int error) {
+      if (!listening) {
+        return;
+      }
+      Log.w(TAG, "Speech recognition failed with error " + error);
+      listening = false;
+      listener.onNotHeard();
+    }
+
+    @Override
+    public void onReadyForSpeech(Bundle params) {}
+
+    @Override
+    public void onBeginningOfSpeech() {}
+
+    @Override
+    public void onRmsChanged(float rmsdB) {}
+
+    @Override
+    public void onBufferReceived(byte[] buffer) {}
+
+    @Override
+    public void onEndOfSpeech() {}
+
+    @Override
+    public void onEvent(int eventType, Bundle params) {}
+  }
+}
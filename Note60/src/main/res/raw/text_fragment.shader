@@ -0,0 +1,8 @@
+precision mediump float;
+uniform sampler2D u_Texture;
+uniform vec4 u_Color;
+varying vec2 v_TexCoord;
+
+void main() {
+    gl_FragColor = vec4(u_Color.rgb, u_Color.a * texture2D(u_Texture, v_TexCoord).a);
+}
@@ -0,0 +1,53 @@
+package nerdsquad.note60;
+
+import java.util.Random;
+
+/**
+ * Deterministic note layouts shared by the benchmarks.
+ */
+final class BenchmarkScenes {
+  /** How far from the origin notes are scattered, about as far as the view reaches. */
+  static final float FIELD_RADIUS = 80.0f;
+  /** The app's spatial grid cell size. */
+  static final float GRID_CELL_SIZE = 4.0f;
+
+  private BenchmarkScenes() {}
+
+  /**
+   * @return {@code count} xyz positions scattered over a disc around the viewer, around eye
+   *     height. The same count always gives the same positions.
+   */
+  static float[] scatter(int count) {
+    Random random = new Random(count);
+    float[] positions = new float[count * NoteStore.POSITION_STRIDE];
+    for (int i = 0; i < count; i++) {
+      double angle = random.nextDouble() * 2 * Math.PI;
+      double distance = 2.0 + Math.sqrt(random.nextDouble()) * (FIELD_RADIUS - 2.0);
+      int p = i * NoteStore.POSITION_STRIDE;
+      positions[p] = (float) (Math.cos(angle) * distance);
+      positions[p + 1] = (float) (random.nextGaussian() * 1.5);
+      positions[p + 2] = (float) (Math.sin(angle) * distance);
+    }
+    return positions;
+  }
+
+  /**
+   * Adds notes at {@code positions} to a store and a grid, facing the origin as placed notes do.
+   */
+  static void fill(NoteStore store, SpatialGrid grid, float[] positions) {
+    for (int p = 0; p < positions.length; p += NoteStore.POSITION_STRIDE) {
+      float x = positions[p];
+      float y = positions[p + 1];
+      float z = positions[p + 2];
+      int id = store.add(message(p / NoteStore.POSITION_STRIDE), x, y, z,
+          Note.faceOriginYaw(x, z));
+      if (grid != null) {
+        grid.insert(id, x, y, z);
+      }
+    }
+  }
+
+  static String message(int index) {
+    return "Note " + index;
+  }
+}
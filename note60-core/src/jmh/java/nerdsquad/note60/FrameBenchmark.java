@@ -0,0 +1,181 @@
+package nerdsquad.note60;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CPU work of one frame, through the {@link NoteScene} the app runs: streaming, picking and
+ * recording the scene in {@code onNewFrame}, and replaying it for both eyes.
+ *
+ * <p>The scene is set up as {@code TraceReplay} sets it up, with clusters over the notes, a
+ * {@link MemoryWorld} and a {@link RecordingRenderBackend}, which packs uploads as the GL
+ * renderers do, in place of them. The head turns a little every frame, so culling sees a
+ * different part of the field each time, as it does while someone looks around.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameBenchmark {
+  // A typical headset: 40 degrees to each side, eyes 6 cm apart, 1920x1080 split between them.
+  private static final float FOV_DEGREES = 40.0f;
+  private static final float EYE_OFFSET = 0.03f;
+  private static final int VIEWPORT_WIDTH = 960;
+  private static final int VIEWPORT_HEIGHT = 1080;
+  private static final float DEGREES_PER_FRAME = 0.5f;
+  private static final long FRAME_NANOS = 1000000000L / 60;
+  // Matching MainActivity.
+  private static final int NOTE_INGEST_BUDGET = 4;
+  private static final int TEXT_UPLOAD_BUDGET = 8;
+  // Eye.Type.LEFT and Eye.Type.RIGHT.
+  private static final int[] EYE_TYPES = {1, 2};
+
+  @Param({"1000", "20000"})
+  public int noteCount;
+
+  private NotePreparer preparer;
+  private NoteScene scene;
+
+  private final float[] headView = new float[16];
+  private final float[] forward = new float[3];
+  private final float[][] eyeViews = new float[2][16];
+  private final float[] perspective = new float[16];
+  private final float[] fovs = new float[8];
+  private float headYaw;
+  private long nowNanos;
+
+  @Setup
+  public void setUp() {
+    NoteStore notes = new NoteStore(noteCount);
+    SpatialGrid grid = new SpatialGrid(BenchmarkScenes.GRID_CELL_SIZE);
+    BenchmarkScenes.fill(notes, grid, BenchmarkScenes.scatter(noteCount));
+    NoteClusters clusters = new NoteClusters(notes);
+    notes.addListener(clusters);
+    preparer = new NotePreparer(new DirectExecutorService(), new FixedPitchLayouter());
+    scene = new NoteScene(notes, grid, clusters, new MemoryWorld(notes, grid), preparer,
+        new RecordingRenderBackend(preparer, TEXT_UPLOAD_BUDGET), new FrameTelemetry(),
+        new IgnoreTriggers(), NOTE_INGEST_BUDGET);
+
+    float extent = NoteScene.Z_NEAR * (float) Math.tan(Math.toRadians(FOV_DEGREES));
+    MatrixMath.frustumM(perspective, 0, -extent, extent, -extent, extent, NoteScene.Z_NEAR,
+        NoteScene.Z_FAR);
+    Arrays.fill(fovs, FOV_DEGREES);
+
+    // Record a first frame, for drawEyes to replay and the record benchmarks to record again.
+    turnHead();
+    scene.onNewFrame(headView, forward, nowNanos);
+  }
+
+  @TearDown
+  public void tearDown() {
+    preparer.shutdown();
+  }
+
+  /**
+   * A whole frame: {@code onNewFrame}, then {@code onDrawEye} for both eyes.
+   *
+   * @return The number of notes drawn.
+   */
+  @Benchmark
+  public int frame() {
+    turnHead();
+    scene.onNewFrame(headView, forward, nowNanos);
+    drawEye(0);
+    drawEye(1);
+    return scene.getVisibleNoteCount();
+  }
+
+  /**
+   * {@code onDrawEye} for both eyes, replaying the scene recorded by the last frame.
+   *
+   * @return The number of notes drawn.
+   */
+  @Benchmark
+  public int drawEyes() {
+    drawEye(0);
+    drawEye(1);
+    return scene.getVisibleNoteCount();
+  }
+
+  /**
+   * Culling, sorting and uploading the scene once, then replaying it for both eyes, as
+   * {@link NoteScene} does. The head holds still, so this and {@link #recordPerEye()} do the same
+   * work on the same notes but for the number of times they record.
+   *
+   * @return The number of notes drawn.
+   */
+  @Benchmark
+  public int recordOncePerFrame() {
+    scene.recordScene();
+    drawEye(0);
+    drawEye(1);
+    return scene.getVisibleNoteCount();
+  }
+
+  /**
+   * Culling, sorting and uploading the scene again for each eye before drawing it, as the frame
+   * loop did before it recorded once per frame.
+   *
+   * @return The number of notes drawn.
+   */
+  @Benchmark
+  public int recordPerEye() {
+    scene.recordScene();
+    drawEye(0);
+    scene.recordScene();
+    drawEye(1);
+    return scene.getVisibleNoteCount();
+  }
+
+  private void drawEye(int eye) {
+    scene.onDrawEye(EYE_TYPES[eye], eyeViews[eye], perspective, fovs, eye * 4, VIEWPORT_WIDTH,
+        VIEWPORT_HEIGHT);
+  }
+
+  private void turnHead() {
+    nowNanos += FRAME_NANOS;
+    headYaw = (headYaw + DEGREES_PER_FRAME) % 360.0f;
+    MatrixMath.setIdentityM(headView, 0);
+    MatrixMath.rotateM(headView, 0, headYaw, 0.0f, 1.0f, 0.0f);
+    // The head looks down its -z, so forward is the head view's third row, negated.
+    forward[0] = -headView[2];
+    forward[1] = -headView[6];
+    forward[2] = -headView[10];
+    for (int eye = 0; eye < 2; eye++) {
+      float[] eyeView = eyeViews[eye];
+      System.arraycopy(headView, 0, eyeView, 0, 16);
+      eyeView[12] += eye == 0 ? EYE_OFFSET : -EYE_OFFSET;
+    }
+  }
+
+  /**
+   * Passes on every pull; the benchmarks pull none.
+   */
+  private static final class IgnoreTriggers implements NoteScene.Listener {
+    @Override
+    public void onNoteGazed(int id, long nowNanos) {}
+
+    @Override
+    public boolean onTrigger(int gazedNote) {
+      return true;
+    }
+
+    @Override
+    public void onNoteAdded(int id, NotePreparer.PreparedNote note, long nowNanos) {}
+  }
+}
@@ -0,0 +1,104 @@
+package nerdsquad.note60;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of creating one note, split the way the app splits it: placement math, the worker
+ * side of {@link NotePreparer}, and the GL thread's ingest from a trigger pull to a stored note.
+ *
+ * <p>The store holds a steady {@link #STORE_SIZE} notes; each created note is removed again so
+ * its id is reused, as it would be once a workspace has seen deletes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NoteCreationBenchmark {
+  private static final int STORE_SIZE = 10000;
+  // Positions cycled through, a power of two.
+  private static final int POSITION_COUNT = 1024;
+
+  private float[] positions;
+  private NoteStore store;
+  private NoteIngestRing ring;
+  private float[] polled;
+  private float[] model;
+  private NotePreparer.PreparedNote[] prepared;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    positions = BenchmarkScenes.scatter(POSITION_COUNT);
+    store = new NoteStore(STORE_SIZE + 1);
+    BenchmarkScenes.fill(store, null, BenchmarkScenes.scatter(STORE_SIZE));
+    ring = new NoteIngestRing(64);
+    polled = new float[NoteIngestRing.RECORD_FLOATS];
+    model = new float[Note.MODEL_STRIDE];
+    prepared = new NotePreparer.PreparedNote[POSITION_COUNT];
+    for (int i = 0; i < POSITION_COUNT; i++) {
+      int p = i * NoteStore.POSITION_STRIDE;
+      prepared[i] = new NotePreparer.PreparedNote(BenchmarkScenes.message(i), positions[p],
+          positions[p + 1], positions[p + 2], false, null);
+    }
+  }
+
+  /** Orienting a note toward the viewer and building its model matrix. */
+  @Benchmark
+  public float[] placeModel() {
+    int p = nextPosition();
+    float x = positions[p];
+    float z = positions[p + 2];
+    Note.placeModel(model, 0, x, positions[p + 1], z, Note.faceOriginYaw(x, z));
+    return model;
+  }
+
+  /** A worker preparing a note: placement plus encoding its message. */
+  @Benchmark
+  public NotePreparer.PreparedNote prepare() {
+    int p = nextPosition();
+    return new NotePreparer.PreparedNote("", positions[p], positions[p + 1], positions[p + 2],
+        false, null);
+  }
+
+  /** A trigger pull through the ingest ring, and a prepared note committed to the store. */
+  @Benchmark
+  public int ingest() {
+    int p = nextPosition();
+    ring.offer(positions[p], positions[p + 1], positions[p + 2]);
+    ring.poll(polled);
+    NotePreparer.PreparedNote note = prepared[p / NoteStore.POSITION_STRIDE];
+    int id = store.add(note.message, polled[0], polled[1], polled[2], note.yaw, note.model, 0);
+    store.remove(id);
+    return id;
+  }
+
+  /** Adding a note with its placement computed on the spot, as a restore or an edit does. */
+  @Benchmark
+  public int add() {
+    int p = nextPosition();
+    float x = positions[p];
+    float z = positions[p + 2];
+    int id = store.add("", x, positions[p + 1], z, Note.faceOriginYaw(x, z));
+    store.remove(id);
+    return id;
+  }
+
+  private int nextPosition() {
+    int i = next;
+    next = (i + 1) & (POSITION_COUNT - 1);
+    return i * NoteStore.POSITION_STRIDE;
+  }
+}
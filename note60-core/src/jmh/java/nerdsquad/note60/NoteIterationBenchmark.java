@@ -0,0 +1,95 @@
+package nerdsquad.note60;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes over N notes: a scan of the whole store, packing model matrices for a draw the way the
+ * note renderer does, and a gaze pick through the field.
+ *
+ * <p>A tenth of the notes are removed before measuring, so scans skip holes as they do in a
+ * workspace that has seen deletes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NoteIterationBenchmark {
+  private static final float Z_FAR = 100.0f;
+
+  @Param({"1000", "10000", "100000"})
+  public int noteCount;
+
+  private NoteStore notes;
+  private NotePicker picker;
+  private int[] liveIds;
+  private int liveCount;
+  private float[] packed;
+  private float gazeAngle;
+
+  @Setup
+  public void setUp() {
+    notes = new NoteStore(noteCount);
+    SpatialGrid grid = new SpatialGrid(BenchmarkScenes.GRID_CELL_SIZE);
+    BenchmarkScenes.fill(notes, grid, BenchmarkScenes.scatter(noteCount));
+    for (int id = 0; id < noteCount; id += 10) {
+      notes.remove(id);
+      grid.remove(id);
+    }
+    liveIds = new int[noteCount];
+    for (int id = 0; id < notes.getIdBound(); id++) {
+      if (notes.isAlive(id)) {
+        liveIds[liveCount++] = id;
+      }
+    }
+    packed = new float[liveCount * Note.MODEL_STRIDE];
+    // No budget: every pick runs to the end.
+    picker = new NotePicker(grid, notes, Long.MAX_VALUE);
+  }
+
+  /** Every live note's position, visited in id order. */
+  @Benchmark
+  public float scanPositions() {
+    float[] positions = notes.getPositions();
+    float sum = 0;
+    for (int id = 0; id < notes.getIdBound(); id++) {
+      if (notes.isAlive(id)) {
+        int p = id * NoteStore.POSITION_STRIDE;
+        sum += positions[p] + positions[p + 1] + positions[p + 2];
+      }
+    }
+    return sum;
+  }
+
+  /** Copying the model matrices of a list of notes into one draw buffer. */
+  @Benchmark
+  public float[] packModels() {
+    float[] models = notes.getModels();
+    for (int i = 0; i < liveCount; i++) {
+      System.arraycopy(models, liveIds[i] * Note.MODEL_STRIDE, packed, i * Note.MODEL_STRIDE,
+          Note.MODEL_STRIDE);
+    }
+    return packed;
+  }
+
+  /** A gaze ray from the viewer, turning a little each time, through the grid. */
+  @Benchmark
+  public int pick() {
+    gazeAngle += 0.01f;
+    return picker.pick(0.0f, 0.0f, 0.0f, (float) Math.sin(gazeAngle), 0.0f,
+        -(float) Math.cos(gazeAngle), Z_FAR);
+  }
+}
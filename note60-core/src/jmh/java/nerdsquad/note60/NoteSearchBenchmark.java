@@ -0,0 +1,102 @@
+package nerdsquad.note60;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searching N notes by message: whole words, the one-letter prefix a spoken query starts as,
+ * two words together, and keeping the index up to date through an edit.
+ *
+ * <p>Messages are a few words drawn from a fixed vocabulary, common words far more often than
+ * rare ones, as in written text.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NoteSearchBenchmark {
+  private static final int VOCABULARY_SIZE = 5000;
+  private static final int MAX_RESULTS = 64;
+
+  @Param({"1000", "100000"})
+  public int noteCount;
+
+  private String[] vocabulary;
+  private Random random;
+  private NoteStore notes;
+  private NoteIndex index;
+  private final int[] results = new int[MAX_RESULTS];
+  private int edited;
+
+  @Setup
+  public void setUp() {
+    random = new Random(noteCount);
+    vocabulary = new String[VOCABULARY_SIZE];
+    for (int i = 0; i < VOCABULARY_SIZE; i++) {
+      StringBuilder word = new StringBuilder();
+      for (int length = 3 + random.nextInt(7); length > 0; length--) {
+        word.append((char) ('a' + random.nextInt(26)));
+      }
+      vocabulary[i] = word.toString();
+    }
+    notes = new NoteStore(noteCount);
+    BenchmarkScenes.fill(notes, null, BenchmarkScenes.scatter(noteCount));
+    for (int id = 0; id < noteCount; id++) {
+      notes.setMessage(id, message());
+    }
+    index = new NoteIndex(notes);
+    notes.addListener(index);
+  }
+
+  /** A common whole word. */
+  @Benchmark
+  public int word() {
+    return index.search(vocabulary[1], 0.0f, 0.0f, 0.0f, results, null);
+  }
+
+  /** One letter, matching the start of a large share of all terms. */
+  @Benchmark
+  public int letter() {
+    return index.search(vocabulary[0].substring(0, 1), 0.0f, 0.0f, 0.0f, results, null);
+  }
+
+  /** Two words that must both appear, the second still being spoken. */
+  @Benchmark
+  public int twoWords() {
+    return index.search(vocabulary[0] + " " + vocabulary[2].substring(0, 2), 0.0f, 0.0f, 0.0f,
+        results, null);
+  }
+
+  /** Replacing a note's message, which files it under new terms. */
+  @Benchmark
+  public void edit() {
+    notes.setMessage(edited, message());
+    edited = (edited + 1) % noteCount;
+  }
+
+  /**
+   * @return Two to nine words, the lower ranks of the vocabulary far more often.
+   */
+  private String message() {
+    StringBuilder message = new StringBuilder();
+    for (int words = 2 + random.nextInt(8); words > 0; words--) {
+      int rank = (int) Math.min(VOCABULARY_SIZE - 1, Math.abs(random.nextGaussian()) * 800);
+      message.append(vocabulary[rank]).append(' ');
+    }
+    return message.toString();
+  }
+}
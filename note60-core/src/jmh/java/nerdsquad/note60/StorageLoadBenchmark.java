@@ -0,0 +1,82 @@
+package nerdsquad.note60;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a saved workspace of N notes: opening and replaying its journal, and restoring the
+ * notes into a fresh store, as a chunk load does.
+ *
+ * <p>The workspace is written once per trial to a temporary directory. Its files stay in the page
+ * cache, so this measures the CPU side of a load rather than the storage device.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StorageLoadBenchmark {
+  @Param({"1000", "20000"})
+  public int noteCount;
+
+  private File directory;
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = File.createTempFile("note60-jmh", "");
+    if (!directory.delete() || !directory.mkdir()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    NoteJournal journal = new NoteJournal(directory);
+    journal.open();
+    float[] positions = BenchmarkScenes.scatter(noteCount);
+    for (int i = 0; i < noteCount; i++) {
+      int p = i * NoteStore.POSITION_STRIDE;
+      journal.appendAdd(i, positions[p], positions[p + 1], positions[p + 2],
+          Note.faceOriginYaw(positions[p], positions[p + 2]), BenchmarkScenes.message(i));
+    }
+    journal.close();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    new NoteJournal(directory).delete();
+    directory.delete();
+  }
+
+  /** Opening the journal alone: mapping the files and replaying the records. */
+  @Benchmark
+  public int open() throws IOException {
+    NoteJournal journal = new NoteJournal(directory);
+    journal.open();
+    int size = journal.size();
+    journal.close();
+    return size;
+  }
+
+  /** Opening the journal and restoring its notes, model matrices included, into a store. */
+  @Benchmark
+  public NoteStore openAndRestore() throws IOException {
+    NoteJournal journal = new NoteJournal(directory);
+    journal.open();
+    NoteStore store = new NoteStore();
+    journal.restore(store);
+    journal.close();
+    return store;
+  }
+}
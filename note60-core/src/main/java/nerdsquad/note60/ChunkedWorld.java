@@ -0,0 +1,760 @@
+package nerdsquad.note60;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams the notes of an unbounded world in and out of a {@link NoteStore}, in square chunks.
+ *
+ * <p>The world is cut into {@link #CHUNK_SIZE} by {@link #CHUNK_SIZE} columns on the floor plane,
+ * each saved as its own {@link NoteJournal} with its own note ids. Only chunks near the head are
+ * resident: their notes are in the store and the spatial grid, and so reach the renderers and the
+ * GPU. {@link #update} keeps the chunks around the head resident, prefetches those ahead along
+ * the gaze, and when more notes than the cap are resident evicts the chunks used least recently.
+ * Memory therefore depends on the cap, not on how many notes the world holds.
+ *
+ * <p>Chunks load on the I/O executor. Their notes are then added to the store a time-budgeted
+ * batch per frame, like new notes. Eviction removes a chunk's notes from the store and closes its
+ * journal on the I/O executor, so a chunk evicted and loaded again always reads what was written.
+ * Chunks within prefetch reach of the head are never evicted. A chunk's journal is opened, and
+ * its files created, on the I/O executor too; writes made before that is done queue behind it.
+ * Evicted chunk objects are kept for reuse.
+ *
+ * <p>Owned by the GL thread.
+ */
+public class ChunkedWorld implements NoteWorld {
+  private static final Logger LOG = Logger.getLogger(ChunkedWorld.class.getName());
+
+  /** Edge length of a chunk, in meters. */
+  public static final float CHUNK_SIZE = 32.0f;
+
+  // Chunks kept resident on each side of the head's chunk: 1 keeps a 3x3 block.
+  private static final int RESIDENT_RADIUS = 1;
+  // How many chunks ahead along the gaze are prefetched.
+  private static final int PREFETCH_CHUNKS = 2;
+  // Chunks on each side of the head's chunk a prefetch can reach, along any gaze.
+  private static final int PREFETCH_REACH = RESIDENT_RADIUS + PREFETCH_CHUNKS;
+  // Resident chunks allowed regardless of note count, bounding per-chunk journal overhead. Twice
+  // the 7x7 block a full look around prefetches, so turning in place never reaches it.
+  private static final int MAX_RESIDENT_CHUNKS =
+      2 * (2 * PREFETCH_REACH + 1) * (2 * PREFETCH_REACH + 1);
+  // Notes committed between clock reads.
+  private static final int COMMIT_BATCH = 64;
+
+  private static final String CHUNK_DIRECTORY = "chunks";
+  // Where a legacy workspace is moved into chunks before they take CHUNK_DIRECTORY's place.
+  private static final String MIGRATION_DIRECTORY = "chunks.migrating";
+  private static final String VOICE_DIRECTORY = "voice";
+
+  private static final int STATE_LOADING = 0;
+  private static final int STATE_COMMITTING = 1;
+  private static final int STATE_RESIDENT = 2;
+
+  /**
+   * Told about notes leaving the store because their chunk was evicted.
+   */
+  public interface Listener {
+    /**
+     * Called just before note {@code id} is removed from the store.
+     */
+    void onNoteEvicted(int id);
+  }
+
+  private static final class Chunk {
+    int cx;
+    int cz;
+    File directory;
+    NoteJournal journal;
+    int state;
+    long lastUsedFrame;
+    Future<LoadedChunk> loading;
+    LoadedChunk loaded;
+    int committed;
+    int nextLocalId;
+    // Whether the chunk has files on disk, or is having them created, and its journal is open.
+    boolean saved;
+    // The last journal write queued on the I/O executor, until it is done.
+    Future<?> queuedWrite;
+    // Store ids of the chunk's resident notes.
+    int[] notes = new int[16];
+    int noteCount;
+    // Notes added while the chunk was loading, added once it is resident.
+    List<NotePreparer.PreparedNote> pendingAdds;
+
+    /**
+     * Points a new or reused chunk at the chunk at (cx, cz), not yet loaded.
+     */
+    void reset(int cx, int cz, File directory) {
+      this.cx = cx;
+      this.cz = cz;
+      this.directory = directory;
+      journal = new NoteJournal(directory);
+      state = STATE_LOADING;
+      loading = null;
+      loaded = null;
+      committed = 0;
+      nextLocalId = 0;
+      saved = false;
+      queuedWrite = null;
+      noteCount = 0;
+      pendingAdds = null;
+    }
+  }
+
+  /**
+   * A chunk's notes as read from disk on the I/O executor.
+   */
+  private static final class LoadedChunk {
+    boolean saved;
+    int count;
+    int nextLocalId;
+    int[] localIds;
+    float[] positions;
+    float[] yaws;
+    float[] models;
+    String[] messages;
+  }
+
+  private final File directory;
+  private final NoteStore store;
+  private final SpatialGrid grid;
+  private final ExecutorService io;
+  private final Listener listener;
+  private final int maxResidentNotes;
+  private final LongArrayMap<Chunk> chunks = new LongArrayMap<Chunk>();
+  // Evicted chunks, kept for reuse.
+  private final ArrayList<Chunk> freeChunks = new ArrayList<Chunk>();
+
+  // Where each store id came from, by store id.
+  private Chunk[] noteChunks = new Chunk[64];
+  private int[] noteLocalIds = new int[64];
+  private int[] noteSlots = new int[64];
+
+  private long frame;
+  private int headCx;
+  private int headCz;
+  private boolean settled;
+  private boolean startedLoads;
+  private int residentChunks;
+  // Volatile so the telemetry dump can read it whole from another thread.
+  private volatile long evictedChunks;
+
+  /**
+   * @param directory The workspace directory.
+   * @param io A single-threaded executor for journal I/O.
+   * @param maxResidentNotes The most notes to keep resident, beyond those near the head.
+   */
+  public ChunkedWorld(File directory, NoteStore store, SpatialGrid grid, ExecutorService io,
+      Listener listener, int maxResidentNotes) {
+    this.directory = directory;
+    this.store = store;
+    this.grid = grid;
+    this.io = io;
+    this.listener = listener;
+    this.maxResidentNotes = maxResidentNotes;
+  }
+
+  /**
+   * Moves a workspace saved before the world was chunked into chunks. Runs on the I/O executor
+   * ahead of any chunk load; call once, before the first {@link #update}.
+   */
+  public void migrateLegacyWorkspace() {
+    io.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (!NoteJournal.exists(directory)) {
+          return;
+        }
+        try {
+          migrate();
+        } catch (IOException e) {
+          LOG.log(Level.SEVERE, "Cannot move the workspace into chunks", e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Loads, commits, prefetches and evicts chunks around the head. Call once per frame.
+   *
+   * @param headX The head's x coordinate.
+   * @param headZ The head's z coordinate.
+   * @param forward The head's forward vector.
+   * @param budgetNanos The most time to spend adding loaded notes to the store.
+   * @return Whether notes were added to or removed from the store.
+   */
+  @Override
+  public boolean update(float headX, float headZ, float[] forward, long budgetNanos) {
+    frame++;
+    startedLoads = false;
+    boolean changed = commitLoadedChunks(budgetNanos);
+
+    headCx = chunkCoordinate(headX);
+    headCz = chunkCoordinate(headZ);
+    boolean allResident = true;
+    for (int dz = -RESIDENT_RADIUS; dz <= RESIDENT_RADIUS; dz++) {
+      for (int dx = -RESIDENT_RADIUS; dx <= RESIDENT_RADIUS; dx++) {
+        allResident &= use(headCx + dx, headCz + dz).state == STATE_RESIDENT;
+      }
+    }
+    settled = allResident;
+
+    // Prefetch along the gaze, projected on the floor, beyond the resident block.
+    float length = (float) Math.sqrt(forward[0] * forward[0] + forward[2] * forward[2]);
+    if (length > 1e-3f) {
+      float stepX = forward[0] / length * CHUNK_SIZE;
+      float stepZ = forward[2] / length * CHUNK_SIZE;
+      for (int i = 1; i <= RESIDENT_RADIUS + PREFETCH_CHUNKS; i++) {
+        use(chunkCoordinate(headX + stepX * i), chunkCoordinate(headZ + stepZ * i));
+      }
+    }
+
+    changed |= evictIfNeeded();
+    return changed;
+  }
+
+  /**
+   * @return Whether every chunk around the head was resident at the last {@link #update}.
+   */
+  @Override
+  public boolean isSettled() {
+    return settled;
+  }
+
+  /**
+   * @return Whether the last {@link #update}, or a note added since, started loading a chunk.
+   */
+  @Override
+  public boolean hasStartedLoads() {
+    return startedLoads;
+  }
+
+  /**
+   * Adds a prepared note to the chunk it falls in and saves it.
+   *
+   * @return The note's store id, or -1 if its chunk is still loading; the note is then added
+   *     once the chunk is resident.
+   */
+  @Override
+  public int add(NotePreparer.PreparedNote note) {
+    Chunk chunk = use(chunkCoordinate(note.x), chunkCoordinate(note.z));
+    if (chunk.state != STATE_RESIDENT) {
+      if (chunk.pendingAdds == null) {
+        chunk.pendingAdds = new ArrayList<NotePreparer.PreparedNote>();
+      }
+      chunk.pendingAdds.add(note);
+      return -1;
+    }
+    int localId = chunk.nextLocalId++;
+    if (!chunk.saved) {
+      // The first note in a chunk creates its files, once, on the I/O executor.
+      openJournal(chunk);
+    }
+    appendAdd(chunk, localId, note);
+    return insert(chunk, localId, note.message, note.x, note.y, note.z, note.yaw, note.model, 0);
+  }
+
+  /**
+   * Removes a note from the store, the spatial grid and its chunk.
+   */
+  @Override
+  public void remove(int id) {
+    appendRemove(noteChunks[id], noteLocalIds[id]);
+    detach(id);
+  }
+
+  /**
+   * @return The file holding the voice note of note {@code id}, which may not exist.
+   */
+  public File getVoiceClip(int id) {
+    return new File(new File(noteChunks[id].directory, VOICE_DIRECTORY),
+        noteLocalIds[id] + ".clip");
+  }
+
+  /**
+   * Writes every resident chunk through to storage on the I/O executor, compacting where it
+   * pays off.
+   */
+  public void flush() {
+    for (int i = 0; i < chunks.size(); i++) {
+      Chunk chunk = chunks.valueAt(i);
+      if (chunk.state != STATE_RESIDENT || !chunk.saved) {
+        continue;
+      }
+      final NoteJournal journal = chunk.journal;
+      final String name = chunk.directory.getName();
+      io.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            journal.flush();
+            journal.compactIfNeeded();
+          } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Cannot compact chunk " + name, e);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Closes every chunk on the I/O executor.
+   */
+  public void close() {
+    for (int i = 0; i < chunks.size(); i++) {
+      closeJournal(chunks.valueAt(i));
+    }
+  }
+
+  /**
+   * @return The number of chunks whose notes are all in the store.
+   */
+  public int getResidentChunkCount() {
+    return residentChunks;
+  }
+
+  /**
+   * @return The number of chunks evicted since startup. Can be read from any thread.
+   */
+  public long getEvictedChunkCount() {
+    return evictedChunks;
+  }
+
+  private static int chunkCoordinate(float coordinate) {
+    return (int) Math.floor(coordinate / CHUNK_SIZE);
+  }
+
+  private static long key(int cx, int cz) {
+    return ((long) cx << 32) | (cz & 0xffffffffL);
+  }
+
+  /**
+   * Marks a chunk used this frame, starting to load it if it isn't known yet.
+   */
+  private Chunk use(int cx, int cz) {
+    long key = key(cx, cz);
+    Chunk chunk = chunks.get(key);
+    if (chunk == null) {
+      int free = freeChunks.size();
+      chunk = free > 0 ? freeChunks.remove(free - 1) : new Chunk();
+      chunk.reset(cx, cz, chunkDirectory(cx, cz));
+      chunk.loading = io.submit(loader(chunk.directory, chunk.journal));
+      chunks.put(key, chunk);
+      startedLoads = true;
+    }
+    chunk.lastUsedFrame = frame;
+    return chunk;
+  }
+
+  private File chunkDirectory(int cx, int cz) {
+    return chunkDirectory(new File(directory, CHUNK_DIRECTORY), cx, cz);
+  }
+
+  private static File chunkDirectory(File chunksDirectory, int cx, int cz) {
+    return new File(chunksDirectory, cx + "_" + cz);
+  }
+
+  private static Callable<LoadedChunk> loader(final File directory, final NoteJournal journal) {
+    return new Callable<LoadedChunk>() {
+      @Override
+      public LoadedChunk call() throws IOException {
+        LoadedChunk loaded = new LoadedChunk();
+        if (!NoteJournal.exists(directory)) {
+          // Most of the world is empty; its chunks get files only once a note lands in them.
+          return loaded;
+        }
+        journal.open();
+        journal.compactIfNeeded();
+        NoteStore notes = new NoteStore();
+        journal.restore(notes);
+
+        // Copy out everything the GL thread needs, decoding messages here rather than there.
+        loaded.saved = true;
+        int count = notes.size();
+        loaded.nextLocalId = journal.getIdBound();
+        loaded.localIds = new int[count];
+        loaded.positions = new float[count * NoteStore.POSITION_STRIDE];
+        loaded.yaws = new float[count];
+        loaded.models = new float[count * Note.MODEL_STRIDE];
+        loaded.messages = new String[count];
+        float[] positions = notes.getPositions();
+        float[] models = notes.getModels();
+        for (int id = 0; id < notes.getIdBound(); id++) {
+          if (!notes.isAlive(id)) {
+            continue;
+          }
+          int i = loaded.count++;
+          loaded.localIds[i] = id;
+          System.arraycopy(positions, id * NoteStore.POSITION_STRIDE,
+              loaded.positions, i * NoteStore.POSITION_STRIDE, NoteStore.POSITION_STRIDE);
+          loaded.yaws[i] = notes.getYaw(id);
+          System.arraycopy(models, id * Note.MODEL_STRIDE,
+              loaded.models, i * Note.MODEL_STRIDE, Note.MODEL_STRIDE);
+          loaded.messages[i] = notes.getMessage(id);
+        }
+        return loaded;
+      }
+    };
+  }
+
+  /**
+   * Picks up finished loads and adds loaded notes to the store until the budget runs out.
+   */
+  private boolean commitLoadedChunks(long budgetNanos) {
+    long deadline = System.nanoTime() + budgetNanos;
+    boolean changed = false;
+    for (int i = 0; i < chunks.size(); i++) {
+      Chunk chunk = chunks.valueAt(i);
+      if (chunk.state == STATE_LOADING && chunk.loading.isDone()) {
+        adoptLoad(chunk);
+      }
+      if (chunk.state != STATE_COMMITTING) {
+        continue;
+      }
+      if (System.nanoTime() - deadline >= 0) {
+        break;
+      }
+      LoadedChunk loaded = chunk.loaded;
+      while (chunk.committed < loaded.count) {
+        int n = chunk.committed++;
+        int p = n * NoteStore.POSITION_STRIDE;
+        insert(chunk, loaded.localIds[n], loaded.messages[n], loaded.positions[p],
+            loaded.positions[p + 1], loaded.positions[p + 2], loaded.yaws[n], loaded.models,
+            n * Note.MODEL_STRIDE);
+        changed = true;
+        if (chunk.committed % COMMIT_BATCH == 0 && System.nanoTime() - deadline >= 0) {
+          break;
+        }
+      }
+      if (chunk.committed == loaded.count) {
+        chunk.loaded = null;
+        chunk.state = STATE_RESIDENT;
+        residentChunks++;
+        changed |= addPending(chunk);
+      }
+    }
+    return changed;
+  }
+
+  private void adoptLoad(Chunk chunk) {
+    try {
+      chunk.loaded = chunk.loading.get();
+      chunk.nextLocalId = chunk.loaded.nextLocalId;
+      chunk.saved = chunk.loaded.saved;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    } catch (ExecutionException e) {
+      // Keep going with the chunk empty rather than lose the session; new notes still save.
+      LOG.log(Level.SEVERE, "Cannot load chunk " + chunk.directory.getName(), e.getCause());
+      chunk.loaded = new LoadedChunk();
+    }
+    chunk.loading = null;
+    chunk.state = STATE_COMMITTING;
+  }
+
+  private boolean addPending(Chunk chunk) {
+    List<NotePreparer.PreparedNote> pending = chunk.pendingAdds;
+    if (pending == null) {
+      return false;
+    }
+    chunk.pendingAdds = null;
+    for (int i = 0; i < pending.size(); i++) {
+      add(pending.get(i));
+    }
+    return true;
+  }
+
+  /**
+   * Creates the chunk's files and opens its journal on the I/O executor. Journal writes made
+   * until that is done queue behind it.
+   */
+  private void openJournal(Chunk chunk) {
+    chunk.saved = true;
+    final NoteJournal journal = chunk.journal;
+    final String name = chunk.directory.getName();
+    chunk.queuedWrite = io.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          journal.open();
+        } catch (IOException e) {
+          LOG.log(Level.SEVERE, "Cannot create chunk " + name, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * @return Whether journal writes for the chunk have to queue on the I/O executor, behind the
+   *     opening of its journal or writes queued for that reason.
+   */
+  private static boolean mustQueueWrites(Chunk chunk) {
+    if (chunk.queuedWrite != null && chunk.queuedWrite.isDone()) {
+      // The executor runs in order, so everything queued before it is done too.
+      chunk.queuedWrite = null;
+    }
+    return chunk.queuedWrite != null;
+  }
+
+  private void appendAdd(Chunk chunk, final int localId, final NotePreparer.PreparedNote note) {
+    if (!mustQueueWrites(chunk)) {
+      try {
+        chunk.journal.appendAdd(localId, note.x, note.y, note.z, note.yaw, note.messageUtf8);
+      } catch (IOException e) {
+        LOG.log(Level.SEVERE,
+            "Cannot save note " + localId + " of chunk " + chunk.directory.getName(), e);
+      }
+      return;
+    }
+    final NoteJournal journal = chunk.journal;
+    final String name = chunk.directory.getName();
+    chunk.queuedWrite = io.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          journal.appendAdd(localId, note.x, note.y, note.z, note.yaw, note.messageUtf8);
+        } catch (IOException e) {
+          LOG.log(Level.SEVERE, "Cannot save note " + localId + " of chunk " + name, e);
+        }
+      }
+    });
+  }
+
+  private void appendRemove(Chunk chunk, final int localId) {
+    if (!mustQueueWrites(chunk)) {
+      try {
+        chunk.journal.appendRemove(localId);
+      } catch (IOException e) {
+        LOG.log(Level.SEVERE, "Cannot save removal of note " + localId + " of chunk "
+            + chunk.directory.getName(), e);
+      }
+      return;
+    }
+    final NoteJournal journal = chunk.journal;
+    final String name = chunk.directory.getName();
+    chunk.queuedWrite = io.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          journal.appendRemove(localId);
+        } catch (IOException e) {
+          LOG.log(Level.SEVERE,
+              "Cannot save removal of note " + localId + " of chunk " + name, e);
+        }
+      }
+    });
+  }
+
+  private int insert(Chunk chunk, int localId, String message, float x, float y, float z,
+      float yaw, float[] models, int modelOffset) {
+    int id = store.add(message, x, y, z, yaw, models, modelOffset);
+    grid.insert(id, x, y, z);
+    if (id >= noteChunks.length) {
+      int capacity = Math.max(id + 1, noteChunks.length * 2);
+      Chunk[] grownChunks = new Chunk[capacity];
+      System.arraycopy(noteChunks, 0, grownChunks, 0, noteChunks.length);
+      noteChunks = grownChunks;
+      int[] grownLocalIds = new int[capacity];
+      System.arraycopy(noteLocalIds, 0, grownLocalIds, 0, noteLocalIds.length);
+      noteLocalIds = grownLocalIds;
+      int[] grownSlots = new int[capacity];
+      System.arraycopy(noteSlots, 0, grownSlots, 0, noteSlots.length);
+      noteSlots = grownSlots;
+    }
+    if (chunk.noteCount == chunk.notes.length) {
+      int[] grown = new int[chunk.notes.length * 2];
+      System.arraycopy(chunk.notes, 0, grown, 0, chunk.noteCount);
+      chunk.notes = grown;
+    }
+    noteChunks[id] = chunk;
+    noteLocalIds[id] = localId;
+    noteSlots[id] = chunk.noteCount;
+    chunk.notes[chunk.noteCount++] = id;
+    return id;
+  }
+
+  /**
+   * Takes a note out of the store, the grid and its chunk's list, without touching the journal.
+   */
+  private void detach(int id) {
+    Chunk chunk = noteChunks[id];
+    int slot = noteSlots[id];
+    int last = chunk.notes[--chunk.noteCount];
+    chunk.notes[slot] = last;
+    noteSlots[last] = slot;
+    noteChunks[id] = null;
+    grid.remove(id);
+    store.remove(id);
+  }
+
+  /**
+   * Evicts the least recently used resident chunks not used this frame, and out of prefetch
+   * reach of the head, until the notes and chunks in memory are back under their caps.
+   */
+  private boolean evictIfNeeded() {
+    boolean changed = false;
+    while (store.size() > maxResidentNotes || residentChunks > MAX_RESIDENT_CHUNKS) {
+      int victim = -1;
+      long oldest = frame;
+      for (int i = 0; i < chunks.size(); i++) {
+        Chunk chunk = chunks.valueAt(i);
+        if (chunk.state == STATE_RESIDENT && chunk.lastUsedFrame < oldest
+            && chunk.pendingAdds == null
+            && (Math.abs(chunk.cx - headCx) > PREFETCH_REACH
+                || Math.abs(chunk.cz - headCz) > PREFETCH_REACH)) {
+          victim = i;
+          oldest = chunk.lastUsedFrame;
+        }
+      }
+      if (victim < 0) {
+        // Everything left is in use; the cap gives way to the chunks around the head.
+        break;
+      }
+      evict(victim);
+      changed = true;
+    }
+    return changed;
+  }
+
+  private void evict(int index) {
+    Chunk chunk = chunks.valueAt(index);
+    while (chunk.noteCount > 0) {
+      int id = chunk.notes[chunk.noteCount - 1];
+      listener.onNoteEvicted(id);
+      detach(id);
+    }
+    chunks.removeAt(index);
+    residentChunks--;
+    evictedChunks++;
+    closeJournal(chunk);
+    freeChunks.add(chunk);
+  }
+
+  private void closeJournal(Chunk chunk) {
+    final NoteJournal journal = chunk.journal;
+    final String name = chunk.directory.getName();
+    io.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          journal.close();
+        } catch (IOException e) {
+          LOG.log(Level.SEVERE, "Cannot close chunk " + name, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Copies the notes of the single pre-chunk workspace into chunks, along with their voice
+   * notes, then deletes it. Runs on the I/O executor.
+   *
+   * <p>The chunks are built in a staging directory that only takes the place of the chunk
+   * directory once every chunk and clip is on disk, and the legacy workspace is left untouched
+   * until then. A crash part way through leaves the legacy workspace whole, and the next launch
+   * discards the half-built chunks and starts over, so no note is copied twice and no clip lost.
+   */
+  private void migrate() throws IOException {
+    File chunksDirectory = new File(directory, CHUNK_DIRECTORY);
+    File legacyVoice = new File(directory, VOICE_DIRECTORY);
+    NoteJournal legacy = new NoteJournal(directory);
+    if (chunksDirectory.exists()) {
+      // A crash after the chunks were moved into place but before the cleanup below. Opening
+      // finds the heap file to delete.
+      legacy.open();
+      legacy.delete();
+      deleteTree(legacyVoice);
+      return;
+    }
+
+    File staging = new File(directory, MIGRATION_DIRECTORY);
+    deleteTree(staging);
+    legacy.open();
+    NoteStore notes = new NoteStore();
+    legacy.restore(notes);
+    LongArrayMap<NoteJournal> journals = new LongArrayMap<NoteJournal>();
+    float[] positions = notes.getPositions();
+    try {
+      for (int id = 0; id < notes.getIdBound(); id++) {
+        if (!notes.isAlive(id)) {
+          continue;
+        }
+        int p = id * NoteStore.POSITION_STRIDE;
+        int cx = chunkCoordinate(positions[p]);
+        int cz = chunkCoordinate(positions[p + 2]);
+        File chunkDirectory = chunkDirectory(staging, cx, cz);
+        NoteJournal journal = journals.get(key(cx, cz));
+        if (journal == null) {
+          journal = new NoteJournal(chunkDirectory);
+          journal.open();
+          new File(chunkDirectory, VOICE_DIRECTORY).mkdirs();
+          journals.put(key(cx, cz), journal);
+        }
+        int localId = journal.getIdBound();
+        journal.appendAdd(localId, positions[p], positions[p + 1], positions[p + 2],
+            notes.getYaw(id), notes.getMessage(id));
+        File clip = new File(legacyVoice, id + ".clip");
+        if (clip.exists()) {
+          copy(clip, new File(new File(chunkDirectory, VOICE_DIRECTORY), localId + ".clip"));
+        }
+      }
+    } finally {
+      for (int i = 0; i < journals.size(); i++) {
+        journals.valueAt(i).close();
+      }
+      legacy.close();
+    }
+    // An empty workspace still gets its chunk directory, to mark the migration done.
+    staging.mkdirs();
+    if (!staging.renameTo(chunksDirectory)) {
+      throw new IOException("Cannot move " + staging + " to " + chunksDirectory);
+    }
+    // Only now that every chunk is in place; a crash before this migrates again.
+    legacy.delete();
+    deleteTree(legacyVoice);
+    LOG.info("Moved " + notes.size() + " notes into " + journals.size() + " chunks");
+  }
+
+  private static void copy(File from, File to) throws IOException {
+    FileInputStream in = new FileInputStream(from);
+    try {
+      FileOutputStream out = new FileOutputStream(to);
+      try {
+        FileChannel source = in.getChannel();
+        FileChannel target = out.getChannel();
+        long size = source.size();
+        for (long position = 0; position < size; ) {
+          position += source.transferTo(position, size - position, target);
+        }
+        // The legacy clip is deleted once the chunks are in place, so this copy must be on disk.
+        out.getFD().sync();
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void deleteTree(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteTree(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,187 @@
+package nerdsquad.note60;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-frame stage timings and note counts, kept for the last {@value #CAPACITY} frames.
+ *
+ * <p>The GL thread brackets each frame with {@link #beginFrame()} and {@link #endFrame} and each
+ * stage with {@link #begin} and {@link #end}. Stage times are summed into a preallocated ring
+ * slot with {@code System.nanoTime}, and the slot is published at the end of the frame, so
+ * writing allocates nothing and takes no lock.
+ *
+ * <p>Any other thread can take a {@link Snapshot} at any time. It copies the published frames
+ * without locking and drops any frame the writer may have started overwriting during the copy.
+ * The histograms are built on the reading thread, so the render thread never pays for them.
+ */
+class FrameTelemetry {
+  static final int STAGE_FRAME = 0;
+  static final int STAGE_NEW_FRAME = 1;
+  static final int STAGE_INGEST = 2;
+  static final int STAGE_RECORD = 3;
+  static final int STAGE_LEFT_EYE = 4;
+  static final int STAGE_RIGHT_EYE = 5;
+  static final int STAGE_FLOOR = 6;
+  static final int STAGE_COUNT = 7;
+
+  private static final String[] STAGE_NAMES = {
+      "frame", "onNewFrame", "ingest", "record", "leftEye", "rightEye", "floor"
+  };
+
+  static final int CAPACITY = 512;
+  private static final int MASK = CAPACITY - 1;
+
+  private final long[] stageNanos = new long[CAPACITY * STAGE_COUNT];
+  private final int[] drawnNotes = new int[CAPACITY];
+  private final int[] culledNotes = new int[CAPACITY];
+  private final AtomicLong published = new AtomicLong();
+
+  // Writer state, GL thread only.
+  private final long[] stageStart = new long[STAGE_COUNT];
+  private long frame;
+  private int slot;
+
+  /**
+   * Starts a frame, and its {@link #STAGE_FRAME} timing.
+   */
+  void beginFrame() {
+    slot = (int) (frame & MASK);
+    int base = slot * STAGE_COUNT;
+    for (int i = 0; i < STAGE_COUNT; i++) {
+      stageNanos[base + i] = 0;
+    }
+    stageStart[STAGE_FRAME] = System.nanoTime();
+  }
+
+  void begin(int stage) {
+    stageStart[stage] = System.nanoTime();
+  }
+
+  /**
+   * Adds the time since the matching {@link #begin} to the stage. A stage can run several times
+   * in a frame.
+   */
+  void end(int stage) {
+    stageNanos[slot * STAGE_COUNT + stage] += System.nanoTime() - stageStart[stage];
+  }
+
+  /**
+   * Ends and publishes the frame.
+   *
+   * @param drawn The notes drawn this frame.
+   * @param culled The notes culled this frame.
+   */
+  void endFrame(int drawn, int culled) {
+    end(STAGE_FRAME);
+    drawnNotes[slot] = drawn;
+    culledNotes[slot] = culled;
+    frame++;
+    // Release the slot to readers; the plain array writes above happen before it.
+    published.lazySet(frame);
+  }
+
+  /**
+   * Fills {@code out} with the frames currently in the ring. Safe to call from any thread; reuse
+   * {@code out} to avoid allocating.
+   */
+  void snapshot(Snapshot out) {
+    long end = published.get();
+    long start = Math.max(0, end - CAPACITY);
+    for (long f = start; f < end; f++) {
+      int s = (int) (f & MASK);
+      int i = (int) (f - start);
+      System.arraycopy(stageNanos, s * STAGE_COUNT, out.stageNanos, i * STAGE_COUNT, STAGE_COUNT);
+      out.drawnNotes[i] = drawnNotes[s];
+      out.culledNotes[i] = culledNotes[s];
+    }
+
+    // The writer may have moved on during the copy. Frame "after" reuses the slot of frame
+    // "after - CAPACITY", so only frames newer than that are intact.
+    long after = published.get();
+    long firstIntact = Math.max(start, after - CAPACITY + 1);
+    out.reset();
+    out.frames = end;
+    for (long f = firstIntact; f < end; f++) {
+      out.add((int) (f - start));
+    }
+  }
+
+  /**
+   * Histograms over the frames in the ring when it was taken.
+   */
+  static class Snapshot {
+    private final long[] stageNanos = new long[CAPACITY * STAGE_COUNT];
+    private final int[] drawnNotes = new int[CAPACITY];
+    private final int[] culledNotes = new int[CAPACITY];
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_COUNT];
+    private long frames;
+    private int sampledFrames;
+    private long drawnTotal;
+    private long culledTotal;
+    private int lastDrawn;
+    private int lastCulled;
+
+    Snapshot() {
+      for (int i = 0; i < STAGE_COUNT; i++) {
+        histograms[i] = new LatencyHistogram();
+      }
+    }
+
+    private void reset() {
+      for (LatencyHistogram histogram : histograms) {
+        histogram.reset();
+      }
+      sampledFrames = 0;
+      drawnTotal = 0;
+      culledTotal = 0;
+      lastDrawn = 0;
+      lastCulled = 0;
+    }
+
+    private void add(int index) {
+      for (int stage = 0; stage < STAGE_COUNT; stage++) {
+        histograms[stage].record(stageNanos[index * STAGE_COUNT + stage]);
+      }
+      sampledFrames++;
+      lastDrawn = drawnNotes[index];
+      lastCulled = culledNotes[index];
+      drawnTotal += lastDrawn;
+      culledTotal += lastCulled;
+    }
+
+    /**
+     * Writes the snapshot to {@code file} as plain text, replacing it.
+     */
+    void writeTo(File file) throws IOException {
+      PrintWriter out = new PrintWriter(new FileWriter(file));
+      try {
+        out.println("frames " + frames + ", sampled " + sampledFrames);
+        if (sampledFrames > 0) {
+          out.println("notes drawn avg " + drawnTotal / sampledFrames + " last " + lastDrawn
+              + ", culled avg " + culledTotal / sampledFrames + " last " + lastCulled);
+        }
+        out.println("stage p50_us p99_us max_us");
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+          LatencyHistogram histogram = histograms[stage];
+          out.println(STAGE_NAMES[stage]
+              + " " + micros(histogram.getValueAtPercentile(50))
+              + " " + micros(histogram.getValueAtPercentile(99))
+              + " " + micros(histogram.getMax()));
+        }
+      } finally {
+        out.close();
+      }
+      if (out.checkError()) {
+        throw new IOException("Cannot write " + file);
+      }
+    }
+
+    private static String micros(long nanos) {
+      return String.valueOf(nanos / 1000) + "." + (nanos / 100) % 10;
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package nerdsquad.note60;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The file format of a head-pose trace: everything the frame loop was given, frame by frame, so
+ * a session can be replayed off the device.
+ *
+ * <p>A 16 byte header (magic, version, eyes per frame, frame size) is followed by fixed-size
+ * frame records. Each holds the frame time, the trigger pulls since the frame before, the head
+ * view and forward vector, and for each eye its type, viewport, field of view, eye view and
+ * perspective. All little-endian. A frame cut short by a crash is ignored.
+ *
+ * <p>{@link Writer} appends frames as they are rendered; {@link Reader} reads them back into a
+ * reused {@link Frame}.
+ */
+public final class FrameTrace {
+  private static final int MAGIC = 0x4e363054; // "N60T"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+
+  /** Eyes recorded per frame, as a stereo renderer draws them. */
+  public static final int EYES = 2;
+
+  // Frame layout: time, triggers, padding, head view, forward, then the eyes.
+  private static final int FRAME_HEADER_SIZE = 8 + 4 + 4 + 16 * 4 + 3 * 4;
+  // Eye layout: type, viewport width and height, field of view, eye view, perspective.
+  private static final int EYE_SIZE = 3 * 4 + 4 * 4 + 16 * 4 + 16 * 4;
+  private static final int FRAME_SIZE = FRAME_HEADER_SIZE + EYES * EYE_SIZE;
+
+  private FrameTrace() {}
+
+  /**
+   * One frame of a trace. Its arrays are filled in place.
+   */
+  public static final class Frame {
+    public long timeNanos;
+    /** Trigger pulls between the previous frame and this one. */
+    public int triggers;
+    public final float[] headView = new float[16];
+    public final float[] forward = new float[3];
+    /** Per eye, as {@code Eye.Type}. */
+    public final int[] eyeTypes = new int[EYES];
+    /** Viewport width and height, per eye. */
+    public final int[] viewports = new int[EYES * 2];
+    /** Field of view in degrees: left, right, bottom and top, per eye. */
+    public final float[] fovs = new float[EYES * 4];
+    public final float[][] eyeViews = new float[EYES][16];
+    public final float[][] perspectives = new float[EYES][16];
+  }
+
+  /**
+   * Appends frames to a new trace file. Not thread safe.
+   */
+  public static final class Writer {
+    private final OutputStream out;
+    private final ByteBuffer record =
+        ByteBuffer.allocate(FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private int frameCount;
+
+    /**
+     * Creates {@code file}, replacing any trace already there.
+     */
+    public Writer(File file) throws IOException {
+      out = new BufferedOutputStream(new FileOutputStream(file), 64 * FRAME_SIZE);
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(EYES).putInt(FRAME_SIZE);
+      out.write(header.array());
+    }
+
+    /**
+     * Writes one frame. Allocates nothing.
+     */
+    public void write(Frame frame) throws IOException {
+      record.clear();
+      record.putLong(frame.timeNanos).putInt(frame.triggers).putInt(0);
+      putFloats(frame.headView);
+      putFloats(frame.forward);
+      for (int eye = 0; eye < EYES; eye++) {
+        record.putInt(frame.eyeTypes[eye]);
+        record.putInt(frame.viewports[eye * 2]).putInt(frame.viewports[eye * 2 + 1]);
+        for (int i = 0; i < 4; i++) {
+          record.putFloat(frame.fovs[eye * 4 + i]);
+        }
+        putFloats(frame.eyeViews[eye]);
+        putFloats(frame.perspectives[eye]);
+      }
+      out.write(record.array(), 0, FRAME_SIZE);
+      frameCount++;
+    }
+
+    /**
+     * @return The number of frames written so far.
+     */
+    public int getFrameCount() {
+      return frameCount;
+    }
+
+    /**
+     * Writes buffered frames through to the file.
+     */
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    public void close() throws IOException {
+      out.close();
+    }
+
+    private void putFloats(float[] values) {
+      for (float value : values) {
+        record.putFloat(value);
+      }
+    }
+  }
+
+  /**
+   * Reads a trace front to back. Not thread safe.
+   */
+  public static final class Reader {
+    private final InputStream in;
+    private final byte[] bytes = new byte[FRAME_SIZE];
+    private final ByteBuffer record = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    private final int frameCount;
+
+    public Reader(File trace) throws IOException {
+      in = new BufferedInputStream(new FileInputStream(trace), 64 * FRAME_SIZE);
+      try {
+        byte[] headerBytes = new byte[HEADER_SIZE];
+        readFully(headerBytes);
+        ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+            || header.getInt(8) != EYES || header.getInt(12) != FRAME_SIZE) {
+          throw new IOException("Not a frame trace: " + trace);
+        }
+        frameCount = (int) ((trace.length() - HEADER_SIZE) / FRAME_SIZE);
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+
+    /**
+     * @return The number of whole frames in the trace.
+     */
+    public int getFrameCount() {
+      return frameCount;
+    }
+
+    /**
+     * Reads the next frame into {@code frame}.
+     *
+     * @return False at the end of the trace.
+     */
+    public boolean next(Frame frame) throws IOException {
+      try {
+        readFully(bytes);
+      } catch (EOFException e) {
+        return false;
+      }
+      record.clear();
+      frame.timeNanos = record.getLong();
+      frame.triggers = record.getInt();
+      record.getInt();
+      getFloats(frame.headView);
+      getFloats(frame.forward);
+      for (int eye = 0; eye < EYES; eye++) {
+        frame.eyeTypes[eye] = record.getInt();
+        frame.viewports[eye * 2] = record.getInt();
+        frame.viewports[eye * 2 + 1] = record.getInt();
+        for (int i = 0; i < 4; i++) {
+          frame.fovs[eye * 4 + i] = record.getFloat();
+        }
+        getFloats(frame.eyeViews[eye]);
+        getFloats(frame.perspectives[eye]);
+      }
+      return true;
+    }
+
+    public void close() throws IOException {
+      in.close();
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+      int read = 0;
+      while (read < buffer.length) {
+        int n = in.read(buffer, read, buffer.length - read);
+        if (n < 0) {
+          throw new EOFException();
+        }
+        read += n;
+      }
+    }
+
+    private void getFloats(float[] values) {
+      for (int i = 0; i < values.length; i++) {
+        values[i] = record.getFloat();
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package nerdsquad.note60;
+
+/**
+ * The six clip planes of a view-projection matrix, for culling bounding volumes against it.
+ *
+ * <p>Planes are stored normalized as (a, b, c, d) with the inside where
+ * {@code a * x + b * y + c * z + d >= 0}.
+ */
+public class Frustum {
+  public static final int OUTSIDE = 0;
+  public static final int INTERSECTS = 1;
+  public static final int INSIDE = 2;
+
+  private static final int PLANES = 6;
+
+  private final float[] planes = new float[PLANES * 4];
+
+  /**
+   * Extracts the planes of a column-major view-projection matrix, as produced by
+   * {@code MatrixMath.multiplyMM(vp, 0, perspective, 0, view, 0)}. Planes come out in world space.
+   */
+  public void set(float[] viewProjection) {
+    float[] m = viewProjection;
+    // Row i of the matrix is (m[i], m[4 + i], m[8 + i], m[12 + i]).
+    setPlane(0, m[3] + m[0], m[7] + m[4], m[11] + m[8], m[15] + m[12]); // Left.
+    setPlane(1, m[3] - m[0], m[7] - m[4], m[11] - m[8], m[15] - m[12]); // Right.
+    setPlane(2, m[3] + m[1], m[7] + m[5], m[11] + m[9], m[15] + m[13]); // Bottom.
+    setPlane(3, m[3] - m[1], m[7] - m[5], m[11] - m[9], m[15] - m[13]); // Top.
+    setPlane(4, m[3] + m[2], m[7] + m[6], m[11] + m[10], m[15] + m[14]); // Near.
+    setPlane(5, m[3] - m[2], m[7] - m[6], m[11] - m[10], m[15] - m[14]); // Far.
+  }
+
+  private void setPlane(int plane, float a, float b, float c, float d) {
+    float length = (float) Math.sqrt(a * a + b * b + c * c);
+    int p = plane * 4;
+    planes[p] = a / length;
+    planes[p + 1] = b / length;
+    planes[p + 2] = c / length;
+    planes[p + 3] = d / length;
+  }
+
+  /**
+   * @return Whether any part of the sphere may be inside the frustum.
+   */
+  public boolean intersectsSphere(float x, float y, float z, float radius) {
+    for (int p = 0; p < PLANES * 4; p += 4) {
+      if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < -radius) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Classifies an axis-aligned box against the frustum.
+   *
+   * @return {@link #OUTSIDE}, {@link #INTERSECTS} or {@link #INSIDE}.
+   */
+  public int classifyBox(
+      float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+    int result = INSIDE;
+    for (int p = 0; p < PLANES * 4; p += 4) {
+      float a = planes[p];
+      float b = planes[p + 1];
+      float c = planes[p + 2];
+      float d = planes[p + 3];
+      // The corner furthest along the plane normal, and the one furthest against it.
+      float far = a * (a >= 0 ? maxX : minX) + b * (b >= 0 ? maxY : minY)
+          + c * (c >= 0 ? maxZ : minZ) + d;
+      if (far < 0) {
+        return OUTSIDE;
+      }
+      float near = a * (a >= 0 ? minX : maxX) + b * (b >= 0 ? minY : maxY)
+          + c * (c >= 0 ? minZ : maxZ) + d;
+      if (near < 0) {
+        result = INTERSECTS;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,88 @@
+package nerdsquad.note60;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size, log-linear histogram of durations in nanoseconds, in the style of HdrHistogram.
+ *
+ * <p>Each power of two is split into {@value #SUB_BUCKETS} linear buckets, so any recorded value
+ * is known to within about 6% whatever its magnitude, from single nanoseconds up to
+ * {@link #MAX_VALUE}. Larger values are clamped. The exact maximum is tracked separately.
+ * Recording allocates nothing. Not thread-safe.
+ */
+class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** The largest value that gets its own bucket, about 17 seconds. */
+  static final long MAX_VALUE = (1L << 34) - 1;
+
+  private static final int BUCKETS = bucketOf(MAX_VALUE) + 1;
+
+  private final long[] counts = new long[BUCKETS];
+  private long total;
+  private long max;
+
+  void reset() {
+    Arrays.fill(counts, 0);
+    total = 0;
+    max = 0;
+  }
+
+  void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    counts[bucketOf(Math.min(nanos, MAX_VALUE))]++;
+    total++;
+    if (nanos > max) {
+      max = nanos;
+    }
+  }
+
+  long getMax() {
+    return max;
+  }
+
+  /**
+   * @param percentile In [0, 100].
+   * @return The largest value that falls in the same bucket as the requested percentile, or 0 if
+   *     nothing was recorded.
+   */
+  long getValueAtPercentile(double percentile) {
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(percentile / 100.0 * total);
+    if (rank < 1) {
+      rank = 1;
+    }
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), max);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Values below {@code 2 * SUB_BUCKETS} get a bucket each. Above that, a value with highest bit
+   * {@code SUB_BUCKET_BITS + e} lands in bucket {@code e * SUB_BUCKETS + (value >> e)}.
+   */
+  private static int bucketOf(long value) {
+    int log2 = 63 - Long.numberOfLeadingZeros(value);
+    int exponent = Math.max(0, log2 - SUB_BUCKET_BITS);
+    return exponent * SUB_BUCKETS + (int) (value >> exponent);
+  }
+
+  private static long bucketUpperBound(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS - 1;
+    long mantissa = bucket - exponent * SUB_BUCKETS;
+    return ((mantissa + 1) << exponent) - 1;
+  }
+}
@@ -0,0 +1,65 @@
+package nerdsquad.note60;
+
+import java.util.Arrays;
+
+/**
+ * A map from long keys to objects, kept as sorted parallel arrays, like Android's
+ * {@code LongSparseArray} but without Android.
+ *
+ * <p>Lookups are a binary search and allocate nothing, unlike a {@code HashMap<Long, V>}, which
+ * boxes every key it is asked about. Entries are visited in key order through {@link #valueAt},
+ * by index below {@link #size()}. Not thread safe.
+ */
+final class LongArrayMap<V> {
+  private long[] keys = new long[16];
+  private Object[] values = new Object[16];
+  private int size;
+
+  /**
+   * @return The value for {@code key}, or null if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  V get(long key) {
+    int i = Arrays.binarySearch(keys, 0, size, key);
+    return i >= 0 ? (V) values[i] : null;
+  }
+
+  /**
+   * Maps {@code key} to {@code value}, replacing any value it had.
+   */
+  void put(long key, V value) {
+    int i = Arrays.binarySearch(keys, 0, size, key);
+    if (i >= 0) {
+      values[i] = value;
+      return;
+    }
+    i = -i - 1;
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, size * 2);
+      values = Arrays.copyOf(values, size * 2);
+    }
+    System.arraycopy(keys, i, keys, i + 1, size - i);
+    System.arraycopy(values, i, values, i + 1, size - i);
+    keys[i] = key;
+    values[i] = value;
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  @SuppressWarnings("unchecked")
+  V valueAt(int index) {
+    return (V) values[index];
+  }
+
+  /**
+   * Removes the entry at {@code index}; the entries after it move down by one.
+   */
+  void removeAt(int index) {
+    System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+    System.arraycopy(values, index + 1, values, index, size - index - 1);
+    values[--size] = null;
+  }
+}
@@ -0,0 +1,181 @@
+package nerdsquad.note60;
+
+/**
+ * 4x4 matrix math in plain Java, for code that has to run off Android too.
+ *
+ * <p>Matrices are column-major float arrays addressed by offset, with the same argument order and
+ * results as {@code android.opengl.Matrix}, so calls carry over unchanged. Nothing allocates and
+ * nothing is shared between calls, so every method is safe to use from any thread. As there,
+ * results must not overlap their inputs unless a method says otherwise.
+ */
+public final class MatrixMath {
+  private MatrixMath() {}
+
+  public static void setIdentityM(float[] m, int offset) {
+    for (int i = 0; i < 16; i++) {
+      m[offset + i] = (i % 5 == 0) ? 1.0f : 0.0f;
+    }
+  }
+
+  /**
+   * Sets {@code result} to {@code lhs * rhs}.
+   */
+  public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset,
+      float[] rhs, int rhsOffset) {
+    for (int column = 0; column < 4; column++) {
+      int r = rhsOffset + column * 4;
+      float r0 = rhs[r];
+      float r1 = rhs[r + 1];
+      float r2 = rhs[r + 2];
+      float r3 = rhs[r + 3];
+      for (int row = 0; row < 4; row++) {
+        int l = lhsOffset + row;
+        result[resultOffset + column * 4 + row] =
+            lhs[l] * r0 + lhs[l + 4] * r1 + lhs[l + 8] * r2 + lhs[l + 12] * r3;
+      }
+    }
+  }
+
+  /**
+   * Sets the 4-vector {@code result} to {@code lhs * rhs}.
+   */
+  public static void multiplyMV(float[] result, int resultOffset, float[] lhs, int lhsOffset,
+      float[] rhs, int rhsOffset) {
+    float x = rhs[rhsOffset];
+    float y = rhs[rhsOffset + 1];
+    float z = rhs[rhsOffset + 2];
+    float w = rhs[rhsOffset + 3];
+    for (int row = 0; row < 4; row++) {
+      int l = lhsOffset + row;
+      result[resultOffset + row] = lhs[l] * x + lhs[l + 4] * y + lhs[l + 8] * z + lhs[l + 12] * w;
+    }
+  }
+
+  /**
+   * Translates {@code m} in place by (x, y, z), applied before the existing transform.
+   */
+  public static void translateM(float[] m, int offset, float x, float y, float z) {
+    for (int i = 0; i < 4; i++) {
+      int c = offset + i;
+      m[c + 12] += m[c] * x + m[c + 4] * y + m[c + 8] * z;
+    }
+  }
+
+  /**
+   * Scales {@code m} in place by (x, y, z), applied before the existing transform.
+   */
+  public static void scaleM(float[] m, int offset, float x, float y, float z) {
+    for (int i = 0; i < 4; i++) {
+      int c = offset + i;
+      m[c] *= x;
+      m[c + 4] *= y;
+      m[c + 8] *= z;
+    }
+  }
+
+  /**
+   * Rotates {@code m} in place by {@code angle} degrees about the axis (x, y, z), applied before
+   * the existing transform.
+   */
+  public static void rotateM(float[] m, int offset, float angle, float x, float y, float z) {
+    float radians = (float) Math.toRadians(angle);
+    float s = (float) Math.sin(radians);
+    float c = (float) Math.cos(radians);
+    float length = (float) Math.sqrt(x * x + y * y + z * z);
+    if (length != 1.0f) {
+      x /= length;
+      y /= length;
+      z /= length;
+    }
+    float nc = 1.0f - c;
+    // The rotation's 3x3 block, by row and column.
+    float r00 = x * x * nc + c;
+    float r01 = x * y * nc - z * s;
+    float r02 = x * z * nc + y * s;
+    float r10 = y * x * nc + z * s;
+    float r11 = y * y * nc + c;
+    float r12 = y * z * nc - x * s;
+    float r20 = x * z * nc - y * s;
+    float r21 = y * z * nc + x * s;
+    float r22 = z * z * nc + c;
+    // Only the first three columns change; each row of them is rewritten from its old values.
+    for (int row = 0; row < 4; row++) {
+      int i = offset + row;
+      float m0 = m[i];
+      float m1 = m[i + 4];
+      float m2 = m[i + 8];
+      m[i] = m0 * r00 + m1 * r10 + m2 * r20;
+      m[i + 4] = m0 * r01 + m1 * r11 + m2 * r21;
+      m[i + 8] = m0 * r02 + m1 * r12 + m2 * r22;
+    }
+  }
+
+  /**
+   * Sets {@code m} to a perspective projection of the given near-plane rectangle.
+   */
+  public static void frustumM(float[] m, int offset, float left, float right, float bottom,
+      float top, float near, float far) {
+    if (left == right || bottom == top || near == far || near <= 0.0f || far <= 0.0f) {
+      throw new IllegalArgumentException("Degenerate frustum");
+    }
+    float width = 1.0f / (right - left);
+    float height = 1.0f / (top - bottom);
+    float depth = 1.0f / (near - far);
+    for (int i = 0; i < 16; i++) {
+      m[offset + i] = 0.0f;
+    }
+    m[offset] = 2.0f * near * width;
+    m[offset + 5] = 2.0f * near * height;
+    m[offset + 8] = (right + left) * width;
+    m[offset + 9] = (top + bottom) * height;
+    m[offset + 10] = (far + near) * depth;
+    m[offset + 11] = -1.0f;
+    m[offset + 14] = 2.0f * far * near * depth;
+  }
+
+  /**
+   * Sets {@code m} to a view matrix looking from the eye point toward the center point.
+   */
+  public static void setLookAtM(float[] m, int offset, float eyeX, float eyeY, float eyeZ,
+      float centerX, float centerY, float centerZ, float upX, float upY, float upZ) {
+    float fx = centerX - eyeX;
+    float fy = centerY - eyeY;
+    float fz = centerZ - eyeZ;
+    float rlf = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+    fx *= rlf;
+    fy *= rlf;
+    fz *= rlf;
+
+    // s = f x up, normalized.
+    float sx = fy * upZ - fz * upY;
+    float sy = fz * upX - fx * upZ;
+    float sz = fx * upY - fy * upX;
+    float rls = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+    sx *= rls;
+    sy *= rls;
+    sz *= rls;
+
+    // u = s x f.
+    float ux = sy * fz - sz * fy;
+    float uy = sz * fx - sx * fz;
+    float uz = sx * fy - sy * fx;
+
+    m[offset] = sx;
+    m[offset + 1] = ux;
+    m[offset + 2] = -fx;
+    m[offset + 3] = 0.0f;
+    m[offset + 4] = sy;
+    m[offset + 5] = uy;
+    m[offset + 6] = -fy;
+    m[offset + 7] = 0.0f;
+    m[offset + 8] = sz;
+    m[offset + 9] = uz;
+    m[offset + 10] = -fz;
+    m[offset + 11] = 0.0f;
+    m[offset + 12] = 0.0f;
+    m[offset + 13] = 0.0f;
+    m[offset + 14] = 0.0f;
+    m[offset + 15] = 1.0f;
+    translateM(m, offset, -eyeX, -eyeY, -eyeZ);
+  }
+}
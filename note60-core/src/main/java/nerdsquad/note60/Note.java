@@ -0,0 +1,51 @@
+package nerdsquad.note60;
+
+/**
+ * Created by dylan on 2/28/16.
+ *
+ * Placement math for notes. Note data itself lives in {@link NoteStore}.
+ */
+public final class Note {
+    public static final int MODEL_STRIDE = 16;
+
+    private Note() {}
+
+    /**
+     * Writes the model matrix for a note at (x, y, z), rotated about the y axis to face the origin.
+     *
+     * @param modelNote Destination array.
+     * @param offset Offset of the matrix in {@code modelNote}.
+     */
+    public static void placeModel(float[] modelNote, int offset, float x, float y, float z) {
+        placeModel(modelNote, offset, x, y, z, faceOriginYaw(x, z));
+    }
+
+    /**
+     * Writes the model matrix for a note at (x, y, z) rotated by {@code yaw} degrees about the
+     * y axis.
+     */
+    public static void placeModel(float[] modelNote, int offset, float x, float y, float z, float yaw) {
+        MatrixMath.setIdentityM(modelNote, offset);
+        MatrixMath.translateM(modelNote, offset, x, y, z);
+        MatrixMath.rotateM(modelNote, offset, yaw, 0f, 1.0f, 0f);
+    }
+
+    /**
+     * @return The rotation about the y axis, in degrees, that turns a note at (x, z) to face the
+     *     origin.
+     */
+    public static float faceOriginYaw(float x, float z) {
+        float sign = 1.0f;
+        if (x > 0.0)
+            sign *= -1.0f;
+        if (z > 0.0)
+            sign *= -1.0f;
+
+        //need to rotate the note to face the origin
+        if (z < 0.0)
+            return sign * (float) Math.toDegrees(Math.atan(Math.abs(x/z)));
+        else
+            return sign * (float) (Math.toDegrees(Math.atan(Math.abs(x/z))) + 180.0f);
+    }
+
+}
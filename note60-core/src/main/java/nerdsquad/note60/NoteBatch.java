@@ -0,0 +1,126 @@
+package nerdsquad.note60;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * The per-frame data a note renderer uploads, packed from the store for the notes to draw.
+ *
+ * <p>Instanced, each note is its model matrix followed by a highlight color, transparent unless
+ * the note is highlighted. Merged, each note is the note quad pre-transformed into world space,
+ * in the app's interleaved position, normal and color vertex layout, with the highlight color in
+ * place of a highlighted note's own. {@link #pack} reuses one direct buffer, grown as needed, so a
+ * frame that draws no more notes than an earlier one allocates nothing.
+ */
+public class NoteBatch {
+  public static final int FLOATS_PER_MATRIX = 16;
+  public static final int HIGHLIGHT_SIZE = 4;
+  /** Instance data: the model matrix, then the highlight color. */
+  public static final int FLOATS_PER_INSTANCE = FLOATS_PER_MATRIX + HIGHLIGHT_SIZE;
+
+  // Matching GeometryManager's vertex layout.
+  private static final int POSITION_SIZE = 3;
+  private static final int NORMAL_SIZE = 3;
+  private static final int COLOR_SIZE = 4;
+  private static final int FLOATS_PER_VERTEX = POSITION_SIZE + NORMAL_SIZE + COLOR_SIZE;
+  private static final int NOTE_VERTICES = WorldLayoutData.NOTE_COORDS.length / POSITION_SIZE;
+
+  // Highlighted notes turn a cyan that stands out from their usual yellow.
+  private static final float[] HIGHLIGHT_COLOR = {0.2f, 0.9f, 1.0f, 1.0f};
+  private static final float[] NO_HIGHLIGHT = {0.0f, 0.0f, 0.0f, 0.0f};
+
+  private final boolean instanced;
+  private FloatBuffer data;
+  private int capacity;
+
+  /**
+   * @param instanced Whether to pack instance data rather than merged vertices.
+   */
+  public NoteBatch(boolean instanced) {
+    this.instanced = instanced;
+  }
+
+  public boolean isInstanced() {
+    return instanced;
+  }
+
+  /**
+   * Packs the notes to draw, replacing what the last call packed.
+   *
+   * @param notes The note store.
+   * @param ids The ids of the notes to draw.
+   * @param count The number of ids in {@code ids}.
+   * @param highlighted Which notes to draw highlighted, by id. Ids past its end are not.
+   */
+  public void pack(NoteStore notes, int[] ids, int count, boolean[] highlighted) {
+    float[] models = notes.getModels();
+    ensureCapacity(count);
+    data.clear();
+    for (int i = 0; i < count; i++) {
+      int id = ids[i];
+      int m = id * FLOATS_PER_MATRIX;
+      boolean highlight = id < highlighted.length && highlighted[id];
+      if (instanced) {
+        data.put(models, m, FLOATS_PER_MATRIX);
+        data.put(highlight ? HIGHLIGHT_COLOR : NO_HIGHLIGHT, 0, HIGHLIGHT_SIZE);
+      } else {
+        transformNote(models, m, highlight);
+      }
+    }
+    data.flip();
+  }
+
+  /**
+   * @return The data packed by the last {@link #pack} call, from position 0 to its limit.
+   */
+  public FloatBuffer getData() {
+    return data;
+  }
+
+  /**
+   * Appends the note quad, transformed into world space by the matrix at {@code m}.
+   */
+  private void transformNote(float[] model, int m, boolean highlight) {
+    float[] coords = WorldLayoutData.NOTE_COORDS;
+    float[] normals = WorldLayoutData.NOTE_NORMALS;
+    float[] colors = WorldLayoutData.NOTE_COLORS;
+    for (int v = 0; v < NOTE_VERTICES; v++) {
+      int p = v * POSITION_SIZE;
+      float x = coords[p];
+      float y = coords[p + 1];
+      float z = coords[p + 2];
+      data.put(model[m] * x + model[m + 4] * y + model[m + 8] * z + model[m + 12]);
+      data.put(model[m + 1] * x + model[m + 5] * y + model[m + 9] * z + model[m + 13]);
+      data.put(model[m + 2] * x + model[m + 6] * y + model[m + 10] * z + model[m + 14]);
+
+      int n = v * NORMAL_SIZE;
+      float nx = normals[n];
+      float ny = normals[n + 1];
+      float nz = normals[n + 2];
+      data.put(model[m] * nx + model[m + 4] * ny + model[m + 8] * nz);
+      data.put(model[m + 1] * nx + model[m + 5] * ny + model[m + 9] * nz);
+      data.put(model[m + 2] * nx + model[m + 6] * ny + model[m + 10] * nz);
+
+      if (highlight) {
+        data.put(HIGHLIGHT_COLOR, 0, COLOR_SIZE);
+      } else {
+        data.put(colors, v * COLOR_SIZE, COLOR_SIZE);
+      }
+    }
+  }
+
+  /**
+   * Grows the buffer so it can hold at least {@code count} notes.
+   */
+  private void ensureCapacity(int count) {
+    if (count <= capacity && data != null) {
+      return;
+    }
+    int newCapacity = Math.max(count, Math.max(64, capacity * 2));
+    int floatsPerNote = instanced ? FLOATS_PER_INSTANCE : NOTE_VERTICES * FLOATS_PER_VERTEX;
+    data = ByteBuffer.allocateDirect(newCapacity * floatsPerNote * 4)
+        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    capacity = newCapacity;
+  }
+}
@@ -0,0 +1,389 @@
+package nerdsquad.note60;
+
+import java.util.Arrays;
+
+/**
+ * Level of detail for crowds of notes: far away, notes close together are drawn as one badge
+ * saying how many there are, and split back into notes as the head comes closer.
+ *
+ * <p>Notes are grouped in a hierarchy of cubic cells, {@link #LEVELS} deep, each level's cells
+ * twice the size of the level below. A cluster is a cell of one level holding notes; it keeps
+ * their count and the sum of their positions, so its centroid is known without visiting them.
+ * The hierarchy follows the store as a {@link NoteStore.Listener}: adding or removing a note
+ * updates one cluster per level, and nothing is ever rebuilt. Clusters are kept once created,
+ * like the cells of {@link SpatialGrid}.
+ *
+ * <p>{@link #collapse} runs once per frame over the visible notes. Each note is checked against
+ * its clusters from the coarsest down, and the first far enough away and crowded enough stands
+ * in for it. Every note of a cluster reaches the same verdict, so a cluster is drawn either as a
+ * badge or as its notes, never a mix. A cluster collapses beyond a distance but expands again
+ * only some way nearer, so it doesn't flicker as the head sways about the boundary.
+ *
+ * <p>Badges are notes of their own {@link NoteStore}, created for a cluster the first time it
+ * collapses and moved and relabelled only when its notes change, so they are drawn by the note
+ * renderers and their text laid out once per change.
+ *
+ * <p>Not thread safe; owned by the GL thread.
+ */
+public class NoteClusters implements NoteStore.Listener {
+  /** Depth of the cluster hierarchy. */
+  public static final int LEVELS = 3;
+
+  // Edge length of a level 0 cell, in meters; each level up doubles it.
+  private static final float BASE_CELL_SIZE = 4.0f;
+  // Distance from the head to a cluster's centroid beyond which it collapses, by level.
+  private static final float[] COLLAPSE_DISTANCES = {16.0f, 32.0f, 64.0f};
+  // A collapsed cluster expands again nearer than this share of its collapse distance.
+  private static final float EXPAND_RATIO = 0.85f;
+  // Fewest notes worth a badge.
+  private static final int MIN_NOTES = 3;
+  // Size of a badge against a note, by level, so a badge stays legible as far as it is shown.
+  private static final float[] BADGE_SCALES = {1.5f, 2.5f, 4.0f};
+
+  private static final long EMPTY_KEY = Long.MIN_VALUE;
+  private static final int COORD_BITS = 20;
+  private static final int COORD_MASK = (1 << COORD_BITS) - 1;
+
+  private final NoteStore notes;
+  private final NoteStore badges = new NoteStore();
+  private final float[] cellSizes = new float[LEVELS];
+
+  // Hash of cluster key, level included, to cluster index.
+  private long[] tableKeys = new long[64];
+  private int[] tableClusters = new int[64];
+
+  // Clusters, by index.
+  private int clusterCount;
+  private int[] clusterLevels = new int[16];
+  private int[] clusterSizes = new int[16];
+  private double[] clusterSumX = new double[16];
+  private double[] clusterSumY = new double[16];
+  private double[] clusterSumZ = new double[16];
+  // Bumped whenever a note joins or leaves, so badges can tell they are stale.
+  private int[] clusterVersions = new int[16];
+  private boolean[] clusterCollapsed = new boolean[16];
+  // The frame the cluster was last judged in, and last shown as a badge in.
+  private int[] clusterJudgedFrames = new int[16];
+  private int[] clusterShownFrames = new int[16];
+  // The cluster's badge, or -1 before its first collapse, and the version it was placed at.
+  private int[] clusterBadges = new int[16];
+  private int[] clusterBadgeVersions = new int[16];
+
+  // Notes, by id: position, and the cluster holding it at each level, or -1 if not clustered.
+  private float[] noteX = new float[64];
+  private float[] noteY = new float[64];
+  private float[] noteZ = new float[64];
+  private int[] noteClusters = new int[64 * LEVELS];
+
+  private int frame;
+  private int[] shownBadges = new int[16];
+  private int shownBadgeCount;
+  private int collapsedNoteCount;
+  private boolean badgesChanged;
+  private final float[] badgeModel = new float[Note.MODEL_STRIDE];
+
+  /**
+   * Clusters the notes already in {@code notes}. Add the clusters as a listener of the store to
+   * keep them up to date from then on.
+   */
+  public NoteClusters(NoteStore notes) {
+    this.notes = notes;
+    for (int level = 0; level < LEVELS; level++) {
+      cellSizes[level] = BASE_CELL_SIZE * (1 << level);
+    }
+    Arrays.fill(tableKeys, EMPTY_KEY);
+    Arrays.fill(noteClusters, -1);
+    for (int id = 0; id < notes.getIdBound(); id++) {
+      if (notes.isAlive(id)) {
+        onNoteAdded(id);
+      }
+    }
+  }
+
+  @Override
+  public void onNoteAdded(int id) {
+    ensureNoteCapacity(id + 1);
+    leave(id);
+    float[] positions = notes.getPositions();
+    int p = id * NoteStore.POSITION_STRIDE;
+    float x = positions[p];
+    float y = positions[p + 1];
+    float z = positions[p + 2];
+    noteX[id] = x;
+    noteY[id] = y;
+    noteZ[id] = z;
+    for (int level = 0; level < LEVELS; level++) {
+      float size = cellSizes[level];
+      int cluster = findOrCreateCluster(level, (int) Math.floor(x / size),
+          (int) Math.floor(y / size), (int) Math.floor(z / size));
+      clusterSizes[cluster]++;
+      clusterSumX[cluster] += x;
+      clusterSumY[cluster] += y;
+      clusterSumZ[cluster] += z;
+      clusterVersions[cluster]++;
+      noteClusters[id * LEVELS + level] = cluster;
+    }
+  }
+
+  @Override
+  public void onNoteRemoved(int id) {
+    if (id * LEVELS < noteClusters.length) {
+      leave(id);
+    }
+  }
+
+  @Override
+  public void onMessageChanged(int id) {}
+
+  private void leave(int id) {
+    if (noteClusters[id * LEVELS] < 0) {
+      return;
+    }
+    for (int level = 0; level < LEVELS; level++) {
+      int cluster = noteClusters[id * LEVELS + level];
+      if (--clusterSizes[cluster] == 0) {
+        // Start afresh rather than keep the rounding left by every note that came and went.
+        clusterSumX[cluster] = 0;
+        clusterSumY[cluster] = 0;
+        clusterSumZ[cluster] = 0;
+      } else {
+        clusterSumX[cluster] -= noteX[id];
+        clusterSumY[cluster] -= noteY[id];
+        clusterSumZ[cluster] -= noteZ[id];
+      }
+      clusterVersions[cluster]++;
+      noteClusters[id * LEVELS + level] = -1;
+    }
+  }
+
+  /**
+   * Replaces the visible notes that are part of a collapsed cluster by the cluster's badge. The
+   * badges shown are then {@link #getShownBadges()}, ids into {@link #getBadges()}.
+   *
+   * @param ids The ids of the visible notes; only the first {@code count} are read. Compacted in
+   *     place to the notes still drawn on their own.
+   * @param keep Notes never collapsed, such as search results, by id. Ids past its end may be.
+   * @return The number of notes still drawn on their own.
+   */
+  public int collapse(int[] ids, int count, float headX, float headY, float headZ,
+      boolean[] keep) {
+    frame++;
+    shownBadgeCount = 0;
+    badgesChanged = false;
+    int kept = 0;
+    for (int i = 0; i < count; i++) {
+      int id = ids[i];
+      int cluster = id < keep.length && keep[id] ? -1 : standIn(id, headX, headY, headZ);
+      if (cluster < 0) {
+        ids[kept++] = id;
+      } else if (clusterShownFrames[cluster] != frame) {
+        clusterShownFrames[cluster] = frame;
+        showBadge(cluster);
+      }
+    }
+    collapsedNoteCount = count - kept;
+    return kept;
+  }
+
+  /**
+   * @return The collapsed cluster standing in for the note, or -1 to draw it.
+   */
+  private int standIn(int id, float headX, float headY, float headZ) {
+    if (id * LEVELS >= noteClusters.length) {
+      return -1;
+    }
+    for (int level = LEVELS - 1; level >= 0; level--) {
+      int cluster = noteClusters[id * LEVELS + level];
+      if (cluster >= 0 && isCollapsed(cluster, headX, headY, headZ)) {
+        return cluster;
+      }
+    }
+    return -1;
+  }
+
+  private boolean isCollapsed(int cluster, float headX, float headY, float headZ) {
+    if (clusterJudgedFrames[cluster] == frame) {
+      return clusterCollapsed[cluster];
+    }
+    clusterJudgedFrames[cluster] = frame;
+    int size = clusterSizes[cluster];
+    boolean collapsed = false;
+    if (size >= MIN_NOTES) {
+      float dx = (float) (clusterSumX[cluster] / size) - headX;
+      float dy = (float) (clusterSumY[cluster] / size) - headY;
+      float dz = (float) (clusterSumZ[cluster] / size) - headZ;
+      float distance = COLLAPSE_DISTANCES[clusterLevels[cluster]];
+      if (clusterCollapsed[cluster]) {
+        distance *= EXPAND_RATIO;
+      }
+      collapsed = dx * dx + dy * dy + dz * dz > distance * distance;
+    }
+    clusterCollapsed[cluster] = collapsed;
+    return collapsed;
+  }
+
+  /**
+   * Adds the cluster's badge to those shown, first placing it again if its notes changed.
+   */
+  private void showBadge(int cluster) {
+    int badge = clusterBadges[cluster];
+    if (badge < 0 || clusterBadgeVersions[cluster] != clusterVersions[cluster]) {
+      int size = clusterSizes[cluster];
+      float x = (float) (clusterSumX[cluster] / size);
+      float y = (float) (clusterSumY[cluster] / size);
+      float z = (float) (clusterSumZ[cluster] / size);
+      float yaw = Note.faceOriginYaw(x, z);
+      float scale = BADGE_SCALES[clusterLevels[cluster]];
+      Note.placeModel(badgeModel, 0, x, y, z, yaw);
+      MatrixMath.scaleM(badgeModel, 0, scale, scale, scale);
+      String label = size + " notes";
+      if (badge < 0) {
+        badge = badges.add(label, x, y, z, yaw, badgeModel, 0);
+        clusterBadges[cluster] = badge;
+        // A badge is shown at most once a frame, so this is as many as can ever be shown.
+        if (shownBadges.length < badges.getIdBound()) {
+          shownBadges = Arrays.copyOf(shownBadges,
+              Math.max(badges.getIdBound(), shownBadges.length * 2));
+        }
+      } else {
+        badges.move(badge, x, y, z, yaw, badgeModel, 0);
+        badges.setMessage(badge, label);
+      }
+      clusterBadgeVersions[cluster] = clusterVersions[cluster];
+      badgesChanged = true;
+    }
+    shownBadges[shownBadgeCount++] = badge;
+  }
+
+  /**
+   * @return The store holding the badges.
+   */
+  public NoteStore getBadges() {
+    return badges;
+  }
+
+  /**
+   * @return The ids of the badges shown by the last {@link #collapse}, in no particular order.
+   *     Only the first {@link #getShownBadgeCount()} are valid.
+   */
+  public int[] getShownBadges() {
+    return shownBadges;
+  }
+
+  public int getShownBadgeCount() {
+    return shownBadgeCount;
+  }
+
+  /**
+   * @return The number of visible notes the badges stood in for in the last {@link #collapse}.
+   */
+  public int getCollapsedNoteCount() {
+    return collapsedNoteCount;
+  }
+
+  /**
+   * @return Whether the last {@link #collapse} added, moved or relabelled a badge, work expected
+   *     to allocate.
+   */
+  public boolean haveBadgesChanged() {
+    return badgesChanged;
+  }
+
+  /**
+   * @return The number of clusters ever created, over all levels.
+   */
+  public int getClusterCount() {
+    return clusterCount;
+  }
+
+  private static long key(int level, int x, int y, int z) {
+    return ((long) level << (3 * COORD_BITS))
+        | ((long) (x & COORD_MASK) << (2 * COORD_BITS))
+        | ((long) (y & COORD_MASK) << COORD_BITS)
+        | (z & COORD_MASK);
+  }
+
+  /**
+   * @return The table slot holding {@code key}, or the empty slot where it would go.
+   */
+  private int probe(long key) {
+    int mask = tableKeys.length - 1;
+    int slot = hash(key) & mask;
+    while (tableKeys[slot] != EMPTY_KEY && tableKeys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private int findOrCreateCluster(int level, int x, int y, int z) {
+    long key = key(level, x, y, z);
+    int slot = probe(key);
+    if (tableKeys[slot] == key) {
+      return tableClusters[slot];
+    }
+
+    if (clusterCount == clusterLevels.length) {
+      int newLength = clusterCount * 2;
+      clusterLevels = Arrays.copyOf(clusterLevels, newLength);
+      clusterSizes = Arrays.copyOf(clusterSizes, newLength);
+      clusterSumX = Arrays.copyOf(clusterSumX, newLength);
+      clusterSumY = Arrays.copyOf(clusterSumY, newLength);
+      clusterSumZ = Arrays.copyOf(clusterSumZ, newLength);
+      clusterVersions = Arrays.copyOf(clusterVersions, newLength);
+      clusterCollapsed = Arrays.copyOf(clusterCollapsed, newLength);
+      clusterJudgedFrames = Arrays.copyOf(clusterJudgedFrames, newLength);
+      clusterShownFrames = Arrays.copyOf(clusterShownFrames, newLength);
+      clusterBadges = Arrays.copyOf(clusterBadges, newLength);
+      clusterBadgeVersions = Arrays.copyOf(clusterBadgeVersions, newLength);
+    }
+    int cluster = clusterCount++;
+    clusterLevels[cluster] = level;
+    clusterBadges[cluster] = -1;
+
+    tableKeys[slot] = key;
+    tableClusters[slot] = cluster;
+    // Keep the table at most half full.
+    if (clusterCount * 2 > tableKeys.length) {
+      rehash(tableKeys.length * 2);
+    }
+    return cluster;
+  }
+
+  private void rehash(int newLength) {
+    long[] oldKeys = tableKeys;
+    int[] oldClusters = tableClusters;
+    tableKeys = new long[newLength];
+    tableClusters = new int[newLength];
+    Arrays.fill(tableKeys, EMPTY_KEY);
+    int mask = newLength - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] == EMPTY_KEY) {
+        continue;
+      }
+      int slot = hash(oldKeys[i]) & mask;
+      while (tableKeys[slot] != EMPTY_KEY) {
+        slot = (slot + 1) & mask;
+      }
+      tableKeys[slot] = oldKeys[i];
+      tableClusters[slot] = oldClusters[i];
+    }
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private void ensureNoteCapacity(int needed) {
+    int length = noteX.length;
+    if (needed <= length) {
+      return;
+    }
+    int newLength = Math.max(needed, length * 2);
+    noteX = Arrays.copyOf(noteX, newLength);
+    noteY = Arrays.copyOf(noteY, newLength);
+    noteZ = Arrays.copyOf(noteZ, newLength);
+    noteClusters = Arrays.copyOf(noteClusters, newLength * LEVELS);
+    Arrays.fill(noteClusters, length * LEVELS, newLength * LEVELS, -1);
+  }
+}
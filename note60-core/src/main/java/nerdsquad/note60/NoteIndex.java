@@ -0,0 +1,453 @@
+package nerdsquad.note60;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A full-text index over note messages, for finding notes by what they say.
+ *
+ * <p>Messages are split into terms: runs of letters and digits, lower-cased. Each term keeps a
+ * posting list, the sorted ids of the notes containing it, in a plain int array; each note keeps
+ * the terms it was filed under so it can be taken out again. The index follows the store as its
+ * {@link NoteStore.Listener}, so adding, removing or editing a note touches only that note's
+ * postings, and a note can be found from the frame it is added.
+ *
+ * <p>{@link #search} matches each word of a query against the start of terms, so results narrow
+ * while a query is still being spoken. Matches are ranked by how rare the matched terms are and
+ * by how close the note is to the head.
+ *
+ * <p>Not thread safe; owned by the GL thread, like the store.
+ */
+public class NoteIndex implements NoteStore.Listener {
+  // A word matching only the start of a term counts for this much of a whole-term match, scaled
+  // by how much of the term it covers.
+  private static final float PREFIX_WEIGHT = 0.5f;
+  // Distance from the head at which a match's score halves, in meters.
+  private static final float DISTANCE_FALLOFF = 10.0f;
+
+  private static final Term[] NO_TERMS = new Term[0];
+
+  private static final class Term {
+    final String text;
+    // Ids of the notes containing the term, ascending.
+    int[] postings = new int[2];
+    int count;
+
+    Term(String text) {
+      this.text = text;
+    }
+
+    void insert(int id) {
+      int at = search(id);
+      if (at >= 0) {
+        return;
+      }
+      at = -at - 1;
+      if (count == postings.length) {
+        int[] grown = new int[count * 2];
+        System.arraycopy(postings, 0, grown, 0, count);
+        postings = grown;
+      }
+      System.arraycopy(postings, at, postings, at + 1, count - at);
+      postings[at] = id;
+      count++;
+    }
+
+    void delete(int id) {
+      int at = search(id);
+      if (at < 0) {
+        return;
+      }
+      System.arraycopy(postings, at + 1, postings, at, count - at - 1);
+      count--;
+    }
+
+    private int search(int id) {
+      // New ids usually come last, so check the end before searching.
+      if (count == 0 || postings[count - 1] < id) {
+        return -count - 1;
+      }
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int value = postings[mid];
+        if (value < id) {
+          low = mid + 1;
+        } else if (value > id) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -low - 1;
+    }
+  }
+
+  private final NoteStore notes;
+  private final TreeMap<String, Term> terms = new TreeMap<String, Term>();
+  // The terms each note is filed under, by note id; null for ids not indexed.
+  private Term[][] noteTerms = new Term[64][];
+  private int noteCount;
+  // Volatile so the telemetry dump can read it whole from another thread.
+  private volatile long postingCount;
+
+  // Words of the message or query being split.
+  private String[] words = new String[16];
+
+  // Query scratch, by note id. A note is a candidate of the current query if its stamp matches.
+  private int[] stamps = new int[0];
+  private int stamp;
+  private int[] matchedWords = new int[0];
+  private float[] textScores = new float[0];
+  private float[] wordScores = new float[0];
+  private int[] candidates = new int[64];
+  private int candidateCount;
+  private float[] heapScores = new float[0];
+  private int lastMatchCount;
+
+  /**
+   * Indexes the notes already in {@code notes}. Add the index as a listener of the store to keep
+   * it up to date from then on.
+   */
+  public NoteIndex(NoteStore notes) {
+    this.notes = notes;
+    rebuild();
+  }
+
+  /**
+   * Indexes the store from scratch, after a {@link NoteStore#restore}.
+   */
+  public void rebuild() {
+    terms.clear();
+    noteTerms = new Term[Math.max(64, notes.getIdBound())][];
+    noteCount = 0;
+    postingCount = 0;
+    for (int id = 0; id < notes.getIdBound(); id++) {
+      if (notes.isAlive(id)) {
+        index(id);
+      }
+    }
+  }
+
+  @Override
+  public void onNoteAdded(int id) {
+    index(id);
+  }
+
+  @Override
+  public void onNoteRemoved(int id) {
+    unindex(id);
+  }
+
+  @Override
+  public void onMessageChanged(int id) {
+    unindex(id);
+    index(id);
+  }
+
+  /**
+   * @return The number of notes indexed.
+   */
+  public int size() {
+    return noteCount;
+  }
+
+  /**
+   * @return The number of distinct terms over all messages.
+   */
+  public int getTermCount() {
+    return terms.size();
+  }
+
+  /**
+   * @return The number of entries in all posting lists together. Can be read from any thread.
+   */
+  public long getPostingCount() {
+    return postingCount;
+  }
+
+  /**
+   * Finds the notes whose messages match every word of {@code query}, best first.
+   *
+   * <p>A word matches a term that starts with it. A term weighs more the fewer notes contain it;
+   * a word matching only the start of a term gets part of that weight. A note's text score adds
+   * up the weight of its best term for each word, and is divided by
+   * {@code 1 + distance / DISTANCE_FALLOFF} for its distance from (x, y, z).
+   *
+   * @param x The head's x coordinate.
+   * @param y The head's y coordinate.
+   * @param z The head's z coordinate.
+   * @param results Receives the ids of the best matches, best first.
+   * @param scores Receives the score of each result, or null.
+   * @return The number of results, at most {@code results.length}. See
+   *     {@link #getLastMatchCount()} for how many notes matched in all.
+   */
+  public int search(String query, float x, float y, float z, int[] results, float[] scores) {
+    lastMatchCount = 0;
+    int wordCount = split(query);
+    if (wordCount == 0 || results.length == 0) {
+      return 0;
+    }
+    ensureScratchCapacity(notes.getIdBound());
+    nextStamp();
+    candidateCount = 0;
+    for (int w = 0; w < wordCount; w++) {
+      String word = words[w];
+      for (Map.Entry<String, Term> entry : terms.tailMap(word).entrySet()) {
+        String text = entry.getKey();
+        if (!text.startsWith(word)) {
+          break;
+        }
+        Term term = entry.getValue();
+        float weight = (float) Math.log(1.0 + (double) noteCount / term.count);
+        if (text.length() > word.length()) {
+          weight *= PREFIX_WEIGHT * word.length() / text.length();
+        }
+        score(term, w, weight);
+      }
+    }
+    return rank(wordCount, x, y, z, results, scores);
+  }
+
+  /**
+   * @return How many notes matched the last {@link #search}, including those that did not fit in
+   *     its results.
+   */
+  public int getLastMatchCount() {
+    return lastMatchCount;
+  }
+
+  private void index(int id) {
+    if (id >= noteTerms.length) {
+      Term[][] grown = new Term[Math.max(id + 1, noteTerms.length * 2)][];
+      System.arraycopy(noteTerms, 0, grown, 0, noteTerms.length);
+      noteTerms = grown;
+    }
+    int count = split(notes.getMessage(id));
+    Term[] filed = count == 0 ? NO_TERMS : new Term[count];
+    int filedCount = 0;
+    for (int i = 0; i < count; i++) {
+      Term term = terms.get(words[i]);
+      if (term == null) {
+        term = new Term(words[i]);
+        terms.put(term.text, term);
+      } else if (contains(filed, filedCount, term)) {
+        continue;
+      }
+      term.insert(id);
+      filed[filedCount++] = term;
+    }
+    if (filedCount < count) {
+      Term[] trimmed = new Term[filedCount];
+      System.arraycopy(filed, 0, trimmed, 0, filedCount);
+      filed = trimmed;
+    }
+    noteTerms[id] = filed;
+    noteCount++;
+    postingCount += filedCount;
+  }
+
+  private void unindex(int id) {
+    if (id >= noteTerms.length || noteTerms[id] == null) {
+      return;
+    }
+    Term[] filed = noteTerms[id];
+    for (Term term : filed) {
+      term.delete(id);
+      if (term.count == 0) {
+        terms.remove(term.text);
+      }
+    }
+    noteTerms[id] = null;
+    noteCount--;
+    postingCount -= filed.length;
+  }
+
+  private static boolean contains(Term[] filed, int count, Term term) {
+    for (int i = 0; i < count; i++) {
+      if (filed[i] == term) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Splits {@code text} into lower-cased runs of letters and digits in {@link #words}.
+   *
+   * @return The number of words.
+   */
+  private int split(String text) {
+    int count = 0;
+    int length = text.length();
+    int i = 0;
+    while (i < length) {
+      int codePoint = text.codePointAt(i);
+      if (!Character.isLetterOrDigit(codePoint)) {
+        i += Character.charCount(codePoint);
+        continue;
+      }
+      int start = i;
+      do {
+        i += Character.charCount(codePoint);
+      } while (i < length && Character.isLetterOrDigit(codePoint = text.codePointAt(i)));
+      if (count == words.length) {
+        String[] grown = new String[count * 2];
+        System.arraycopy(words, 0, grown, 0, count);
+        words = grown;
+      }
+      words[count++] = text.substring(start, i).toLowerCase(Locale.ROOT);
+    }
+    return count;
+  }
+
+  /**
+   * Credits each note in {@code term}'s posting list for query word {@code word}. A note stays a
+   * candidate only if it matched every word before this one.
+   */
+  private void score(Term term, int word, float weight) {
+    int[] postings = term.postings;
+    if (word == 0) {
+      candidates = ensureCandidateCapacity(candidates, candidateCount + term.count);
+    }
+    for (int i = 0; i < term.count; i++) {
+      int id = postings[i];
+      if (stamps[id] != stamp) {
+        if (word > 0) {
+          continue;
+        }
+        stamps[id] = stamp;
+        matchedWords[id] = 0;
+        textScores[id] = 0;
+        candidates[candidateCount++] = id;
+      }
+      if (matchedWords[id] == word) {
+        // The first of the note's terms to match this word.
+        matchedWords[id] = word + 1;
+        wordScores[id] = weight;
+        textScores[id] += weight;
+      } else if (matchedWords[id] == word + 1 && weight > wordScores[id]) {
+        // A better term for the same word replaces the one counted.
+        textScores[id] += weight - wordScores[id];
+        wordScores[id] = weight;
+      }
+    }
+  }
+
+  /**
+   * Keeps the best candidates that matched all {@code wordCount} words in a min-heap, then sorts
+   * them into {@code results}, best first.
+   */
+  private int rank(int wordCount, float x, float y, float z, int[] results, float[] scores) {
+    int capacity = results.length;
+    if (heapScores.length < capacity) {
+      heapScores = new float[capacity];
+    }
+    float[] positions = notes.getPositions();
+    int size = 0;
+    for (int i = 0; i < candidateCount; i++) {
+      int id = candidates[i];
+      if (matchedWords[id] != wordCount) {
+        continue;
+      }
+      lastMatchCount++;
+      int p = id * NoteStore.POSITION_STRIDE;
+      float dx = positions[p] - x;
+      float dy = positions[p + 1] - y;
+      float dz = positions[p + 2] - z;
+      float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+      float score = textScores[id] / (1.0f + distance / DISTANCE_FALLOFF);
+      if (size < capacity) {
+        results[size] = id;
+        heapScores[size] = score;
+        siftUp(results, size++);
+      } else if (score > heapScores[0]) {
+        results[0] = id;
+        heapScores[0] = score;
+        siftDown(results, 0, size);
+      }
+    }
+    // Popping the smallest to the back leaves the results sorted best first.
+    for (int end = size - 1; end > 0; end--) {
+      swap(results, 0, end);
+      siftDown(results, 0, end);
+    }
+    if (scores != null) {
+      System.arraycopy(heapScores, 0, scores, 0, Math.min(size, scores.length));
+    }
+    return size;
+  }
+
+  private void siftUp(int[] heap, int at) {
+    while (at > 0) {
+      int parent = (at - 1) >>> 1;
+      if (heapScores[parent] <= heapScores[at]) {
+        return;
+      }
+      swap(heap, parent, at);
+      at = parent;
+    }
+  }
+
+  private void siftDown(int[] heap, int at, int size) {
+    while (true) {
+      int smallest = at;
+      int left = at * 2 + 1;
+      int right = left + 1;
+      if (left < size && heapScores[left] < heapScores[smallest]) {
+        smallest = left;
+      }
+      if (right < size && heapScores[right] < heapScores[smallest]) {
+        smallest = right;
+      }
+      if (smallest == at) {
+        return;
+      }
+      swap(heap, smallest, at);
+      at = smallest;
+    }
+  }
+
+  private void swap(int[] heap, int a, int b) {
+    int id = heap[a];
+    heap[a] = heap[b];
+    heap[b] = id;
+    float score = heapScores[a];
+    heapScores[a] = heapScores[b];
+    heapScores[b] = score;
+  }
+
+  private void nextStamp() {
+    stamp++;
+    if (stamp == 0) {
+      // Wrapped around: old stamps could collide with new ones.
+      Arrays.fill(stamps, 0);
+      stamp = 1;
+    }
+  }
+
+  private void ensureScratchCapacity(int idBound) {
+    if (stamps.length >= idBound) {
+      return;
+    }
+    int capacity = Math.max(idBound, stamps.length * 2);
+    int[] grownStamps = new int[capacity];
+    System.arraycopy(stamps, 0, grownStamps, 0, stamps.length);
+    stamps = grownStamps;
+    matchedWords = new int[capacity];
+    textScores = new float[capacity];
+    wordScores = new float[capacity];
+  }
+
+  private static int[] ensureCandidateCapacity(int[] array, int needed) {
+    if (needed <= array.length) {
+      return array;
+    }
+    int[] grown = new int[Math.max(needed, array.length * 2)];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+}
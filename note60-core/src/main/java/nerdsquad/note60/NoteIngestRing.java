@@ -0,0 +1,88 @@
+package nerdsquad.note60;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded single-producer, single-consumer queue of note positions, packed into one float
+ * array.
+ *
+ * <p>One thread (the UI thread, for trigger pulls) offers positions and one other thread (the GL
+ * thread) polls them. Neither side locks or allocates: each side owns its own index and publishes
+ * it with {@code lazySet}, which is enough ordering for one writer per index. When the ring is
+ * full new positions are dropped and counted rather than blocking the producer.
+ */
+class NoteIngestRing {
+  static final int RECORD_FLOATS = 3;
+
+  private final float[] records;
+  private final int mask;
+
+  // Index of the next record to write; written by the producer only.
+  private final AtomicLong tail = new AtomicLong();
+  // Index of the next record to read; written by the consumer only.
+  private final AtomicLong head = new AtomicLong();
+  // Written by the producer only.
+  private volatile long dropped;
+
+  /**
+   * @param capacity The number of positions the ring holds. Rounded up to a power of two.
+   */
+  NoteIngestRing(int capacity) {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    records = new float[size * RECORD_FLOATS];
+    mask = size - 1;
+  }
+
+  /**
+   * Queues a position. Producer thread only.
+   *
+   * @return False if the ring was full and the position was dropped.
+   */
+  boolean offer(float x, float y, float z) {
+    long t = tail.get();
+    if (t - head.get() > mask) {
+      dropped++;
+      return false;
+    }
+    int i = (int) (t & mask) * RECORD_FLOATS;
+    records[i] = x;
+    records[i + 1] = y;
+    records[i + 2] = z;
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  /**
+   * Takes the oldest position. Consumer thread only.
+   *
+   * @param out Receives x, y and z.
+   * @return False if the ring was empty.
+   */
+  boolean poll(float[] out) {
+    long h = head.get();
+    if (h == tail.get()) {
+      return false;
+    }
+    int i = (int) (h & mask) * RECORD_FLOATS;
+    out[0] = records[i];
+    out[1] = records[i + 1];
+    out[2] = records[i + 2];
+    head.lazySet(h + 1);
+    return true;
+  }
+
+  /**
+   * @return The number of positions waiting. Approximate while the other side is running.
+   */
+  int size() {
+    long h = head.get();
+    return (int) (tail.get() - h);
+  }
+
+  /**
+   * @return The number of positions dropped because the ring was full.
+   */
+  long getDropCount() {
+    return dropped;
+  }
+}
@@ -0,0 +1,461 @@
+package nerdsquad.note60;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Append-only, memory-mapped persistence for the note workspace.
+ *
+ * <p>The workspace is two files. The journal holds fixed-size records, one per change: a note
+ * added (id, position and yaw), removed, or given a new message. Messages themselves are UTF-8
+ * bytes in a separate string heap, which records point into by offset and length. Both files are
+ * written through memory mappings, so appending a record is a handful of stores into memory and
+ * never blocks on I/O.
+ *
+ * <p>{@link #open()} maps the files and replays the records into primitive arrays, and
+ * {@link #restore} hands those arrays to a {@link NoteStore} without creating an object per note.
+ * Once removed notes and replaced messages make up most of the journal, {@link #compactIfNeeded()}
+ * rewrites both files with only the live notes. The heap file carries a generation number that
+ * the journal header points at, so a compaction interrupted halfway leaves the old files intact.
+ *
+ * <p>All methods are synchronized: appends come from the GL thread, while opening and compaction
+ * run on a background thread.
+ */
+public class NoteJournal {
+  private static final int JOURNAL_MAGIC = 0x4e36304a; // "N60J"
+  private static final int HEAP_MAGIC = 0x4e363053; // "N60S"
+  private static final int VERSION = 1;
+
+  // Both files start with a 16 byte header: magic, version, then two file-specific ints.
+  private static final int HEADER_SIZE = 16;
+  private static final int JOURNAL_RECORD_COUNT = 8;
+  private static final int JOURNAL_HEAP_GENERATION = 12;
+  private static final int HEAP_USED_BYTES = 8;
+
+  // Record layout: op, id, x, y, z, yaw, message offset, message length.
+  private static final int RECORD_SIZE = 32;
+  private static final int OP_ADD = 1;
+  private static final int OP_REMOVE = 2;
+  private static final int OP_MESSAGE = 3;
+
+  private static final int INITIAL_MAP_SIZE = 64 * 1024;
+
+  // Compact once the journal has this many records and fewer than half are live notes.
+  private static final int COMPACT_MIN_RECORDS = 1024;
+
+  private static final String JOURNAL_FILE = "notes.journal";
+  private static final String HEAP_FILE_PREFIX = "notes.strings.";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File directory;
+
+  private RandomAccessFile journalFile;
+  private MappedByteBuffer journal;
+  private RandomAccessFile heapFile;
+  private MappedByteBuffer heap;
+  private int recordCount;
+  private int heapUsed;
+  private int heapGeneration;
+
+  // Live state replayed from the journal, by note id.
+  private int idBound;
+  private int liveCount;
+  private boolean[] alive = new boolean[64];
+  private float[] positions = new float[64 * NoteStore.POSITION_STRIDE];
+  private float[] yaws = new float[64];
+  private int[] messageOffsets = new int[64];
+  private int[] messageLengths = new int[64];
+
+  /**
+   * @param directory Where the workspace files live. Created if missing.
+   */
+  public NoteJournal(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Maps the workspace files, creating them if needed, and replays the journal.
+   */
+  public synchronized void open() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    File file = new File(directory, JOURNAL_FILE);
+    boolean exists = file.length() >= HEADER_SIZE;
+    journalFile = new RandomAccessFile(file, "rw");
+    journal = map(journalFile, Math.max(INITIAL_MAP_SIZE, journalFile.length()));
+    if (exists) {
+      checkHeader(journal, JOURNAL_MAGIC, file);
+      recordCount = journal.getInt(JOURNAL_RECORD_COUNT);
+      heapGeneration = journal.getInt(JOURNAL_HEAP_GENERATION);
+    } else {
+      writeHeader(journal, JOURNAL_MAGIC);
+      journal.putInt(JOURNAL_RECORD_COUNT, 0);
+      journal.putInt(JOURNAL_HEAP_GENERATION, 0);
+    }
+    openHeap(exists);
+    deleteStaleHeaps();
+    replay();
+  }
+
+  /**
+   * Fills an empty {@link NoteStore} with the notes replayed by {@link #open()}.
+   */
+  public synchronized void restore(NoteStore store) {
+    ByteBuffer heapView = heap.duplicate();
+    heapView.position(HEADER_SIZE);
+    store.restore(idBound, Arrays.copyOf(alive, idBound),
+        Arrays.copyOf(positions, idBound * NoteStore.POSITION_STRIDE),
+        Arrays.copyOf(yaws, idBound), heapView.slice(),
+        Arrays.copyOf(messageOffsets, idBound), Arrays.copyOf(messageLengths, idBound));
+  }
+
+  /**
+   * Records a note added with the given id.
+   */
+  public synchronized void appendAdd(int id, float x, float y, float z, float yaw, String message)
+      throws IOException {
+    int length = appendString(message);
+    appendRecord(OP_ADD, id, x, y, z, yaw, heapUsed - length, length);
+  }
+
+  /**
+   * Like {@link #appendAdd(int, float, float, float, float, String)}, with the message already
+   * encoded as UTF-8.
+   */
+  public synchronized void appendAdd(int id, float x, float y, float z, float yaw,
+      byte[] messageUtf8) throws IOException {
+    int length = appendBytes(messageUtf8);
+    appendRecord(OP_ADD, id, x, y, z, yaw, heapUsed - length, length);
+  }
+
+  /**
+   * Records the removal of a note.
+   */
+  public synchronized void appendRemove(int id) throws IOException {
+    appendRecord(OP_REMOVE, id, 0, 0, 0, 0, 0, 0);
+  }
+
+  /**
+   * Records a new message for a note.
+   */
+  public synchronized void appendMessage(int id, String message) throws IOException {
+    int length = appendString(message);
+    appendRecord(OP_MESSAGE, id, 0, 0, 0, 0, heapUsed - length, length);
+  }
+
+  /**
+   * Writes mapped changes through to storage.
+   */
+  public synchronized void flush() {
+    if (journal != null) {
+      journal.force();
+      heap.force();
+    }
+  }
+
+  /**
+   * Rewrites the workspace with only its live notes if most of the journal is garbage.
+   *
+   * @return Whether the workspace was compacted.
+   */
+  public synchronized boolean compactIfNeeded() throws IOException {
+    if (recordCount < COMPACT_MIN_RECORDS || recordCount < 2 * liveCount) {
+      return false;
+    }
+    compact();
+    return true;
+  }
+
+  public synchronized void close() throws IOException {
+    if (journal == null) {
+      return;
+    }
+    flush();
+    journalFile.close();
+    heapFile.close();
+    journal = null;
+    heap = null;
+  }
+
+  /**
+   * @return The number of notes in the workspace.
+   */
+  public synchronized int size() {
+    return liveCount;
+  }
+
+  /**
+   * @return One more than the largest note id the workspace has seen.
+   */
+  public synchronized int getIdBound() {
+    return idBound;
+  }
+
+  /**
+   * Closes the workspace and deletes its files.
+   */
+  public synchronized void delete() throws IOException {
+    close();
+    new File(directory, JOURNAL_FILE).delete();
+    heapFile(heapGeneration).delete();
+  }
+
+  /**
+   * @return Whether {@code directory} holds a workspace.
+   */
+  public static boolean exists(File directory) {
+    return new File(directory, JOURNAL_FILE).length() >= HEADER_SIZE;
+  }
+
+  private void compact() throws IOException {
+    int newGeneration = heapGeneration + 1;
+    File newHeapFile = heapFile(newGeneration);
+    RandomAccessFile newHeapRaf = new RandomAccessFile(newHeapFile, "rw");
+    newHeapRaf.setLength(0);
+    int usedHeap = 0;
+    for (int id = 0; id < idBound; id++) {
+      if (alive[id]) {
+        usedHeap += messageLengths[id];
+      }
+    }
+    MappedByteBuffer newHeap = map(newHeapRaf, Math.max(INITIAL_MAP_SIZE, HEADER_SIZE + usedHeap));
+    writeHeader(newHeap, HEAP_MAGIC);
+
+    File tmpFile = new File(directory, JOURNAL_FILE + ".tmp");
+    RandomAccessFile tmpRaf = new RandomAccessFile(tmpFile, "rw");
+    tmpRaf.setLength(0);
+    MappedByteBuffer tmp = map(tmpRaf,
+        Math.max(INITIAL_MAP_SIZE, HEADER_SIZE + (long) liveCount * RECORD_SIZE));
+    writeHeader(tmp, JOURNAL_MAGIC);
+
+    int newHeapUsed = 0;
+    int records = 0;
+    for (int id = 0; id < idBound; id++) {
+      if (!alive[id]) {
+        continue;
+      }
+      int length = messageLengths[id];
+      int offset = newHeapUsed;
+      if (length > 0) {
+        ByteBuffer src = heap.duplicate();
+        src.position(HEADER_SIZE + messageOffsets[id]);
+        src.limit(HEADER_SIZE + messageOffsets[id] + length);
+        ByteBuffer dst = newHeap.duplicate();
+        dst.position(HEADER_SIZE + offset);
+        dst.put(src);
+      }
+      newHeapUsed += length;
+      int p = id * NoteStore.POSITION_STRIDE;
+      putRecord(tmp, records++, OP_ADD, id, positions[p], positions[p + 1], positions[p + 2],
+          yaws[id], offset, length);
+      messageOffsets[id] = offset;
+    }
+    newHeap.putInt(HEAP_USED_BYTES, newHeapUsed);
+    tmp.putInt(JOURNAL_RECORD_COUNT, records);
+    tmp.putInt(JOURNAL_HEAP_GENERATION, newGeneration);
+    newHeap.force();
+    tmp.force();
+
+    // The rename is the commit point: before it the old files are intact, after it the new ones.
+    if (!tmpFile.renameTo(new File(directory, JOURNAL_FILE))) {
+      tmpRaf.close();
+      newHeapRaf.close();
+      throw new IOException("Cannot replace " + JOURNAL_FILE);
+    }
+    journalFile.close();
+    heapFile.close();
+    heapFile(heapGeneration).delete();
+
+    journalFile = tmpRaf;
+    journal = tmp;
+    heapFile = newHeapRaf;
+    heap = newHeap;
+    recordCount = records;
+    heapUsed = newHeapUsed;
+    heapGeneration = newGeneration;
+  }
+
+  private void openHeap(boolean journalExists) throws IOException {
+    File file = heapFile(heapGeneration);
+    boolean exists = journalExists && file.length() >= HEADER_SIZE;
+    heapFile = new RandomAccessFile(file, "rw");
+    heap = map(heapFile, Math.max(INITIAL_MAP_SIZE, heapFile.length()));
+    if (exists) {
+      checkHeader(heap, HEAP_MAGIC, file);
+      heapUsed = heap.getInt(HEAP_USED_BYTES);
+    } else {
+      writeHeader(heap, HEAP_MAGIC);
+      heap.putInt(HEAP_USED_BYTES, 0);
+      heapUsed = 0;
+    }
+  }
+
+  /**
+   * Deletes heap files of other generations, left behind by an interrupted compaction.
+   */
+  private void deleteStaleHeaps() {
+    String current = heapFile(heapGeneration).getName();
+    String[] names = directory.list();
+    if (names == null) {
+      return;
+    }
+    for (String name : names) {
+      if (name.startsWith(HEAP_FILE_PREFIX) && !name.equals(current)) {
+        new File(directory, name).delete();
+      }
+    }
+    new File(directory, JOURNAL_FILE + ".tmp").delete();
+  }
+
+  /**
+   * Rebuilds the live state from the records, reading fields straight out of the mapping.
+   */
+  private void replay() {
+    idBound = 0;
+    liveCount = 0;
+    for (int r = 0; r < recordCount; r++) {
+      int base = HEADER_SIZE + r * RECORD_SIZE;
+      apply(journal.getInt(base), journal.getInt(base + 4),
+          journal.getFloat(base + 8), journal.getFloat(base + 12), journal.getFloat(base + 16),
+          journal.getFloat(base + 20), journal.getInt(base + 24), journal.getInt(base + 28));
+    }
+  }
+
+  private void apply(int op, int id, float x, float y, float z, float yaw, int offset,
+      int length) {
+    ensureCapacity(id + 1);
+    idBound = Math.max(idBound, id + 1);
+    switch (op) {
+      case OP_ADD:
+        if (!alive[id]) {
+          liveCount++;
+        }
+        alive[id] = true;
+        int p = id * NoteStore.POSITION_STRIDE;
+        positions[p] = x;
+        positions[p + 1] = y;
+        positions[p + 2] = z;
+        yaws[id] = yaw;
+        messageOffsets[id] = offset;
+        messageLengths[id] = length;
+        break;
+      case OP_REMOVE:
+        if (alive[id]) {
+          liveCount--;
+        }
+        alive[id] = false;
+        break;
+      case OP_MESSAGE:
+        messageOffsets[id] = offset;
+        messageLengths[id] = length;
+        break;
+      default:
+        throw new IllegalStateException("Unknown journal op " + op);
+    }
+  }
+
+  private void appendRecord(int op, int id, float x, float y, float z, float yaw, int offset,
+      int length) throws IOException {
+    checkOpen();
+    long needed = HEADER_SIZE + (long) (recordCount + 1) * RECORD_SIZE;
+    if (needed > journal.capacity()) {
+      journal = map(journalFile, Math.max(needed, 2L * journal.capacity()));
+    }
+    putRecord(journal, recordCount, op, id, x, y, z, yaw, offset, length);
+    // Bump the count only once the record is complete.
+    recordCount++;
+    journal.putInt(JOURNAL_RECORD_COUNT, recordCount);
+    apply(op, id, x, y, z, yaw, offset, length);
+  }
+
+  private static void putRecord(ByteBuffer buffer, int record, int op, int id, float x, float y,
+      float z, float yaw, int offset, int length) {
+    int base = HEADER_SIZE + record * RECORD_SIZE;
+    buffer.putInt(base, op);
+    buffer.putInt(base + 4, id);
+    buffer.putFloat(base + 8, x);
+    buffer.putFloat(base + 12, y);
+    buffer.putFloat(base + 16, z);
+    buffer.putFloat(base + 20, yaw);
+    buffer.putInt(base + 24, offset);
+    buffer.putInt(base + 28, length);
+  }
+
+  /**
+   * Appends a message to the string heap.
+   *
+   * @return Its length in bytes; it starts at {@code heapUsed - length}.
+   */
+  private int appendString(String message) throws IOException {
+    if (message == null || message.length() == 0) {
+      checkOpen();
+      return 0;
+    }
+    return appendBytes(message.getBytes(UTF_8));
+  }
+
+  private int appendBytes(byte[] bytes) throws IOException {
+    checkOpen();
+    if (bytes.length == 0) {
+      return 0;
+    }
+    long needed = HEADER_SIZE + (long) heapUsed + bytes.length;
+    if (needed > heap.capacity()) {
+      heap = map(heapFile, Math.max(needed, 2L * heap.capacity()));
+    }
+    ByteBuffer target = heap.duplicate();
+    target.position(HEADER_SIZE + heapUsed);
+    target.put(bytes);
+    heapUsed += bytes.length;
+    heap.putInt(HEAP_USED_BYTES, heapUsed);
+    return bytes.length;
+  }
+
+  private void ensureCapacity(int needed) {
+    if (needed <= alive.length) {
+      return;
+    }
+    int length = Math.max(needed, alive.length * 2);
+    alive = Arrays.copyOf(alive, length);
+    positions = Arrays.copyOf(positions, length * NoteStore.POSITION_STRIDE);
+    yaws = Arrays.copyOf(yaws, length);
+    messageOffsets = Arrays.copyOf(messageOffsets, length);
+    messageLengths = Arrays.copyOf(messageLengths, length);
+  }
+
+  private void checkOpen() throws IOException {
+    if (journal == null) {
+      throw new IOException("Journal is not open");
+    }
+  }
+
+  private File heapFile(int generation) {
+    return new File(directory, HEAP_FILE_PREFIX + generation);
+  }
+
+  private static MappedByteBuffer map(RandomAccessFile file, long size) throws IOException {
+    MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    return buffer;
+  }
+
+  private static void writeHeader(ByteBuffer buffer, int magic) {
+    buffer.putInt(0, magic);
+    buffer.putInt(4, VERSION);
+  }
+
+  private static void checkHeader(ByteBuffer buffer, int magic, File file) throws IOException {
+    if (buffer.getInt(0) != magic || buffer.getInt(4) != VERSION) {
+      throw new IOException("Not a note workspace file: " + file);
+    }
+  }
+}
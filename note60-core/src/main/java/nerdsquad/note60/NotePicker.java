@@ -0,0 +1,195 @@
+package nerdsquad.note60;
+
+import java.util.Arrays;
+
+/**
+ * Finds the note hit first by a ray, such as the user's gaze.
+ *
+ * <p>The ray is walked cell by cell through the {@link SpatialGrid} (a 3D DDA), so a query only
+ * looks at notes near the ray instead of scanning every note. Because a note quad can poke out of
+ * the cell holding its center, each visited cell is tested together with its neighbours, which
+ * is enough as long as {@link SpatialGrid#NOTE_RADIUS} is smaller than a cell. Notes seen twice
+ * in one query are skipped. The walk stops as soon as it enters a cell beyond the
+ * closest hit so far, or when the per-query time budget runs out, in which case the closest hit
+ * found so far is returned.
+ *
+ * <p>Not thread safe; owned by the GL thread.
+ */
+public class NotePicker {
+  // Half the edge length of a note quad, see WorldLayoutData.NOTE_COORDS.
+  private static final float NOTE_HALF_SIZE = 1.0f;
+
+  // How many cells to walk between checks of the clock.
+  private static final int STEPS_PER_CLOCK_CHECK = 8;
+
+  private final SpatialGrid grid;
+  private final NoteStore notes;
+  private final long budgetNanos;
+
+  // Per-note stamp of the last query that tested it.
+  private int[] testedStamps = new int[64];
+  private int stamp;
+
+  private float hitDistance;
+
+  /**
+   * @param budgetNanos The most time a single {@link #pick} may take.
+   */
+  public NotePicker(SpatialGrid grid, NoteStore notes, long budgetNanos) {
+    this.grid = grid;
+    this.notes = notes;
+    this.budgetNanos = budgetNanos;
+  }
+
+  /**
+   * Casts a ray against all notes.
+   *
+   * @param ox Ray origin.
+   * @param dx Ray direction; need not be normalized.
+   * @param maxDistance The furthest distance along the ray to consider.
+   * @return The id of the closest note hit, or -1 if none.
+   */
+  public int pick(
+      float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance) {
+    long start = System.nanoTime();
+    hitDistance = Float.POSITIVE_INFINITY;
+
+    float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    if (length == 0) {
+      return -1;
+    }
+    dx /= length;
+    dy /= length;
+    dz /= length;
+    beginQuery();
+
+    float cellSize = grid.getCellSize();
+    int ix = grid.cellCoord(ox);
+    int iy = grid.cellCoord(oy);
+    int iz = grid.cellCoord(oz);
+    int stepX = dx > 0 ? 1 : -1;
+    int stepY = dy > 0 ? 1 : -1;
+    int stepZ = dz > 0 ? 1 : -1;
+    float tDeltaX = dx != 0 ? cellSize / Math.abs(dx) : Float.POSITIVE_INFINITY;
+    float tDeltaY = dy != 0 ? cellSize / Math.abs(dy) : Float.POSITIVE_INFINITY;
+    float tDeltaZ = dz != 0 ? cellSize / Math.abs(dz) : Float.POSITIVE_INFINITY;
+    float tMaxX = boundaryDistance(ox, dx, ix, stepX, cellSize);
+    float tMaxY = boundaryDistance(oy, dy, iy, stepY, cellSize);
+    float tMaxZ = boundaryDistance(oz, dz, iz, stepZ, cellSize);
+
+    int hit = -1;
+    float tEnter = 0;
+    int steps = 0;
+    while (tEnter <= maxDistance && tEnter <= hitDistance) {
+      for (int x = ix - 1; x <= ix + 1; x++) {
+        for (int y = iy - 1; y <= iy + 1; y++) {
+          for (int z = iz - 1; z <= iz + 1; z++) {
+            int cell = grid.findCell(x, y, z);
+            if (cell >= 0) {
+              hit = testCell(cell, ox, oy, oz, dx, dy, dz, maxDistance, hit);
+            }
+          }
+        }
+      }
+
+      if (tMaxX <= tMaxY && tMaxX <= tMaxZ) {
+        tEnter = tMaxX;
+        tMaxX += tDeltaX;
+        ix += stepX;
+      } else if (tMaxY <= tMaxZ) {
+        tEnter = tMaxY;
+        tMaxY += tDeltaY;
+        iy += stepY;
+      } else {
+        tEnter = tMaxZ;
+        tMaxZ += tDeltaZ;
+        iz += stepZ;
+      }
+
+      if (++steps % STEPS_PER_CLOCK_CHECK == 0 && System.nanoTime() - start > budgetNanos) {
+        break;
+      }
+    }
+    return hit;
+  }
+
+  private int testCell(int cell, float ox, float oy, float oz, float dx, float dy, float dz,
+      float maxDistance, int hit) {
+    int[] members = grid.getCellNotes(cell);
+    int size = grid.getCellNoteCount(cell);
+    float[] models = notes.getModels();
+    for (int i = 0; i < size; i++) {
+      int id = members[i];
+      if (testedStamps[id] == stamp) {
+        continue;
+      }
+      testedStamps[id] = stamp;
+      float t = intersectNote(models, id * Note.MODEL_STRIDE, ox, oy, oz, dx, dy, dz);
+      if (t >= 0 && t <= maxDistance && t < hitDistance) {
+        hitDistance = t;
+        hit = id;
+      }
+    }
+    return hit;
+  }
+
+  /**
+   * Intersects a ray with the note quad placed by the rigid model matrix at {@code m}.
+   *
+   * @return The distance along the ray to the hit, or -1 for a miss.
+   */
+  private static float intersectNote(float[] model, int m,
+      float ox, float oy, float oz, float dx, float dy, float dz) {
+    // The model is a rotation plus a translation, so its inverse is the transposed rotation
+    // applied after undoing the translation.
+    float px = ox - model[m + 12];
+    float py = oy - model[m + 13];
+    float pz = oz - model[m + 14];
+    float localZ = px * model[m + 8] + py * model[m + 9] + pz * model[m + 10];
+    float dirZ = dx * model[m + 8] + dy * model[m + 9] + dz * model[m + 10];
+    if (dirZ == 0) {
+      return -1;
+    }
+    float t = -localZ / dirZ;
+    if (t < 0) {
+      return -1;
+    }
+    float hx = px + dx * t;
+    float hy = py + dy * t;
+    float hz = pz + dz * t;
+    float localX = hx * model[m] + hy * model[m + 1] + hz * model[m + 2];
+    float localY = hx * model[m + 4] + hy * model[m + 5] + hz * model[m + 6];
+    if (Math.abs(localX) > NOTE_HALF_SIZE || Math.abs(localY) > NOTE_HALF_SIZE) {
+      return -1;
+    }
+    return t;
+  }
+
+  private static float boundaryDistance(float o, float d, int cell, int step, float cellSize) {
+    if (d == 0) {
+      return Float.POSITIVE_INFINITY;
+    }
+    float boundary = (step > 0 ? cell + 1 : cell) * cellSize;
+    return (boundary - o) / d;
+  }
+
+  /**
+   * Makes room for notes with ids below {@code idBound}, so a later {@link #pick} allocates
+   * nothing.
+   */
+  public void reserve(int idBound) {
+    if (testedStamps.length < idBound) {
+      testedStamps = new int[Math.max(idBound, testedStamps.length * 2)];
+      stamp = 0;
+    }
+  }
+
+  private void beginQuery() {
+    reserve(notes.getIdBound());
+    stamp++;
+    if (stamp == 0) {
+      Arrays.fill(testedStamps, 0);
+      stamp = 1;
+    }
+  }
+}
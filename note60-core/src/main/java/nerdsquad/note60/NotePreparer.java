@@ -0,0 +1,194 @@
+package nerdsquad.note60;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Does the CPU side of creating notes on a background worker pool.
+ *
+ * <p>Workers compute each note's orientation and model matrix, encode its message and, given a
+ * {@link TextLayouter}, lay the message out into glyphs, and hand the result back as a
+ * {@link PreparedNote}. The GL thread then only copies prepared notes into the store with
+ * {@link #poll()}, a few per frame, and uploads their text, so a large import is spread over as
+ * many frames as it needs instead of stalling one.
+ */
+public class NotePreparer {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // Notes prepared per worker task in a bulk import.
+  private static final int BATCH_SIZE = 256;
+
+  private final ExecutorService workers;
+  private final TextLayouter layouter;
+  private final ConcurrentLinkedQueue<PreparedNote> prepared =
+      new ConcurrentLinkedQueue<PreparedNote>();
+  private final AtomicInteger pending = new AtomicInteger();
+
+  /**
+   * A note ready to be added to a {@link NoteStore}.
+   */
+  public static final class PreparedNote {
+    public final float x;
+    public final float y;
+    public final float z;
+    public final float yaw;
+    public final float[] model = new float[Note.MODEL_STRIDE];
+    public final String message;
+    public final byte[] messageUtf8;
+    /** Whether a voice note should be recorded for the note once it is added. */
+    public final boolean recordVoice;
+    /** The laid out message, or null if the preparer has no {@link TextLayouter}. */
+    public final TextLayout textLayout;
+
+    PreparedNote(String message, float x, float y, float z, boolean recordVoice,
+        TextLayouter layouter) {
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      this.message = message;
+      this.recordVoice = recordVoice;
+      yaw = Note.faceOriginYaw(x, z);
+      Note.placeModel(model, 0, x, y, z, yaw);
+      messageUtf8 = message.getBytes(UTF_8);
+      textLayout = layouter != null ? layouter.layout(message) : null;
+    }
+  }
+
+  /**
+   * Told when a message given to {@link #layout} is laid out.
+   */
+  public interface LayoutCallback {
+    /** Called on a worker thread. */
+    void onLaidOut(TextLayout layout);
+  }
+
+  /**
+   * @param threads The number of worker threads.
+   * @param layouter Lays out the messages of prepared notes.
+   */
+  public NotePreparer(int threads, TextLayouter layouter) {
+    this.layouter = layouter;
+    workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "NotePreparer-" + count.incrementAndGet());
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Prepares notes without laying out their messages.
+   *
+   * @param workers Runs the preparation tasks. Shut down by {@link #shutdown()}.
+   */
+  public NotePreparer(ExecutorService workers) {
+    this(workers, null);
+  }
+
+  /**
+   * @param workers Runs the preparation tasks. Shut down by {@link #shutdown()}.
+   * @param layouter Lays out the messages of prepared notes, or null to leave them unlaid out.
+   */
+  public NotePreparer(ExecutorService workers, TextLayouter layouter) {
+    this.workers = workers;
+    this.layouter = layouter;
+  }
+
+  /**
+   * Prepares one note at (x, y, z) facing the origin.
+   */
+  public void prepare(String message, float x, float y, float z) {
+    prepare(message, x, y, z, false);
+  }
+
+  /**
+   * Prepares one note at (x, y, z) facing the origin.
+   *
+   * @param recordVoice Whether to record a voice note for it, passed on in the prepared note.
+   */
+  public void prepare(final String message, final float x, final float y, final float z,
+      final boolean recordVoice) {
+    pending.incrementAndGet();
+    workers.execute(new Runnable() {
+      @Override
+      public void run() {
+        prepared.add(new PreparedNote(message, x, y, z, recordVoice, layouter));
+      }
+    });
+  }
+
+  /**
+   * Prepares many notes, in batches across the workers.
+   *
+   * @param messages The note messages.
+   * @param positions xyz positions, {@link NoteStore#POSITION_STRIDE} floats per message.
+   */
+  public void prepareAll(final String[] messages, final float[] positions) {
+    if (positions.length < messages.length * NoteStore.POSITION_STRIDE) {
+      throw new IllegalArgumentException("Missing positions");
+    }
+    pending.addAndGet(messages.length);
+    for (int start = 0; start < messages.length; start += BATCH_SIZE) {
+      final int from = start;
+      final int to = Math.min(messages.length, start + BATCH_SIZE);
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = from; i < to; i++) {
+            int p = i * NoteStore.POSITION_STRIDE;
+            prepared.add(new PreparedNote(messages[i], positions[p], positions[p + 1],
+                positions[p + 2], false, layouter));
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Lays out a message on a worker, for text that was not prepared here or whose layout went
+   * stale: a note loaded with its chunk, a badge, or a note whose glyphs the atlas dropped.
+   *
+   * @throws IllegalStateException If the preparer has no {@link TextLayouter}.
+   */
+  public void layout(final String message, final LayoutCallback callback) {
+    if (layouter == null) {
+      throw new IllegalStateException("No text layouter");
+    }
+    workers.execute(new Runnable() {
+      @Override
+      public void run() {
+        callback.onLaidOut(layouter.layout(message));
+      }
+    });
+  }
+
+  /**
+   * @return The next prepared note, or null if none is ready.
+   */
+  public PreparedNote poll() {
+    PreparedNote note = prepared.poll();
+    if (note != null) {
+      pending.decrementAndGet();
+    }
+    return note;
+  }
+
+  /**
+   * @return The number of notes submitted but not yet polled, prepared or not.
+   */
+  public int getPendingCount() {
+    return pending.get();
+  }
+
+  public void shutdown() {
+    workers.shutdownNow();
+  }
+}
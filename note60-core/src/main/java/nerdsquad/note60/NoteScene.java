@@ -0,0 +1,536 @@
+package nerdsquad.note60;
+
+/**
+ * The frame loop of the note world, apart from the platform: head pose in, draws out.
+ *
+ * <p>Each frame {@link #onNewFrame} streams the world around the head, finds the note under the
+ * gaze, turns trigger pulls into selections or new notes, and records the scene once for both
+ * eyes: culled against one frustum, far crowds of notes collapsed into {@link NoteClusters}
+ * badges, queued and sorted, and uploaded through the {@link RenderBackend}. {@link #onDrawEye}
+ * then replays it for each eye. The activity feeds it from the Cardboard callbacks; a headless
+ * replay feeds it from a {@link FrameTrace}.
+ *
+ * <p>Apart from {@link #onTrigger()}, owned by the render thread.
+ */
+public class NoteScene {
+  public static final float Z_NEAR = 0.1f;
+  public static final float Z_FAR = 100.0f;
+
+  private static final float CAMERA_Z = 0.01f;
+
+  // How far in front of the head a trigger pull places a note.
+  private static final float NEW_NOTE_DISTANCE = 3.5f;
+
+  // Most time the gaze ray may spend looking for a note each frame.
+  private static final long PICK_BUDGET_NANOS = 1000000L;
+  // Render thread time per frame spent adding prepared notes to the store.
+  private static final long NOTE_COMMIT_BUDGET_NANOS = 1000000L;
+  // Render thread time per frame spent adding notes from the world to the store.
+  private static final long WORLD_COMMIT_BUDGET_NANOS = 1000000L;
+  // Trigger pulls waiting to be handled before new ones are dropped.
+  private static final int NOTE_INGEST_CAPACITY = 256;
+
+  // Generous eye field of view (degrees per side) and half interpupillary distance, used to cull
+  // the first frame before the real eyes are known.
+  private static final float DEFAULT_FOV = 60.0f;
+  private static final float DEFAULT_EYE_OFFSET = 0.035f;
+
+  // We keep the light always position just above the user.
+  private static final float[] LIGHT_POS_IN_WORLD_SPACE = new float[] {0.0f, 2.0f, 0.0f, 1.0f};
+
+  private static final float FLOOR_DEPTH = 20f;
+
+  // Render queue keys. Opaque draws are grouped by program in this order, so the notes come
+  // first: they sit above the floor and occlude it, never the other way around.
+  private static final int NOTE_PROGRAM = 0;
+  private static final int FLOOR_PROGRAM = 1;
+  private static final int TEXT_PROGRAM = 2;
+  private static final int NOTE_MESH = 0;
+  private static final int FLOOR_MESH = 1;
+  private static final int CLUSTER_MESH = 2;
+
+  /**
+   * The platform's side of the things that happen to notes.
+   */
+  public interface Listener {
+    /**
+     * The gaze landed on a note it was not on the frame before.
+     */
+    void onNoteGazed(int id, long nowNanos);
+
+    /**
+     * A trigger pull, before the scene acts on it.
+     *
+     * @param gazedNote The note being looked at, or -1.
+     * @return True if the listener handled the pull; otherwise a new note is placed where the
+     *     head was pointing.
+     */
+    boolean onTrigger(int gazedNote);
+
+    /**
+     * A prepared note was added to the store.
+     */
+    void onNoteAdded(int id, NotePreparer.PreparedNote note, long nowNanos);
+  }
+
+  private final NoteStore notes;
+  private final SpatialGrid grid;
+  private final NoteClusters clusters;
+  private final NoteWorld world;
+  private final NotePreparer preparer;
+  private final RenderBackend backend;
+  private final FrameTelemetry telemetry;
+  private final Listener listener;
+  private final int noteIngestBudget;
+
+  private final NotePicker picker;
+  private final NoteIngestRing newNotes = new NoteIngestRing(NOTE_INGEST_CAPACITY);
+  private final float[] newNote = new float[NoteIngestRing.RECORD_FLOATS];
+
+  private final float[] camera = new float[16];
+  private final float[] view = new float[16];
+  private final float[] headView = new float[16];
+  private final float[] headForward = new float[3];
+  private final float[] headPosition = new float[3];
+  private final float[] modelViewProjection = new float[16];
+  private final float[] modelView = new float[16];
+  private final float[] modelFloor = new float[16];
+  private final float[] lightPosInEyeSpace = new float[4];
+
+  private final Frustum sceneFrustum = new Frustum();
+  private final float[] sceneView = new float[16];
+  private final float[] sceneProjection = new float[16];
+  private final float[] sceneViewProjection = new float[16];
+  private float sceneFovLeft = DEFAULT_FOV;
+  private float sceneFovRight = DEFAULT_FOV;
+  private float sceneFovBottom = DEFAULT_FOV;
+  private float sceneFovTop = DEFAULT_FOV;
+  private float sceneEyeOffset = DEFAULT_EYE_OFFSET;
+  private boolean sceneFovMeasured;
+  private final RenderQueue renderQueue = new RenderQueue(Z_FAR);
+  private int[] visibleNotes = new int[64];
+  private int visibleNoteCount;
+  private int[] visibleBadges = new int[16];
+  private int visibleBadgeCount;
+  private int culledNoteCount;
+
+  // Notes marked by a search, by id, and the ids marked so they can be cleared.
+  private boolean[] highlighted = new boolean[64];
+  private int[] highlightedIds = new int[16];
+  private int highlightedCount;
+
+  // Set by the quality governor: how far away notes are drawn, and show their text.
+  private float drawDistance = Z_FAR;
+  private float textDistance = Z_FAR;
+
+  private int gazedNote = -1;
+  private boolean notesChanged;
+
+  /**
+   * @param notes The store {@code world} keeps the notes around the head in.
+   * @param grid The spatial index {@code world} keeps over them.
+   * @param clusters The clusters over {@code notes}, listening to it.
+   * @param noteIngestBudget The most trigger pulls handled per frame.
+   */
+  public NoteScene(NoteStore notes, SpatialGrid grid, NoteClusters clusters, NoteWorld world,
+      NotePreparer preparer, RenderBackend backend, FrameTelemetry telemetry, Listener listener,
+      int noteIngestBudget) {
+    this.notes = notes;
+    this.grid = grid;
+    this.clusters = clusters;
+    this.world = world;
+    this.preparer = preparer;
+    this.backend = backend;
+    this.telemetry = telemetry;
+    this.listener = listener;
+    this.noteIngestBudget = noteIngestBudget;
+    picker = new NotePicker(grid, notes, PICK_BUDGET_NANOS);
+    MatrixMath.setIdentityM(modelFloor, 0);
+    MatrixMath.translateM(modelFloor, 0, 0, -FLOOR_DEPTH, 0); // Floor appears below user.
+  }
+
+  /**
+   * Queues a new note in front of the head, to be placed on the next frame. Can be called from
+   * any thread.
+   *
+   * @return False if too many pulls were waiting and this one was dropped.
+   */
+  public boolean onTrigger() {
+    return newNotes.offer(headForward[0] * NEW_NOTE_DISTANCE, headForward[1] * NEW_NOTE_DISTANCE,
+        headForward[2] * NEW_NOTE_DISTANCE);
+  }
+
+  /**
+   * Updates the world for a new head pose and records the scene for both eyes.
+   *
+   * @param headView The head's view matrix, as from {@code HeadTransform.getHeadView}.
+   * @param headForward The head's forward vector.
+   */
+  public void onNewFrame(float[] headView, float[] headForward, long nowNanos) {
+    // Build the camera matrix and apply it to the ModelView.
+    MatrixMath.setLookAtM(camera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+    System.arraycopy(headView, 0, this.headView, 0, 16);
+    System.arraycopy(headForward, 0, this.headForward, 0, 3);
+
+    // The camera's position, moved by whatever translation the head tracker reports.
+    for (int i = 0; i < 3; i++) {
+      headPosition[i] = -(headView[i * 4] * headView[12] + headView[i * 4 + 1] * headView[13]
+          + headView[i * 4 + 2] * headView[14]);
+    }
+    headPosition[2] += CAMERA_Z;
+    notesChanged = world.update(headPosition[0], headPosition[2], headForward,
+        WORLD_COMMIT_BUDGET_NANOS);
+    ensureVisibleCapacity();
+
+    // Find the note the user is looking at, and tell the listener when the gaze lands on it.
+    int lastGazedNote = gazedNote;
+    gazedNote = picker.pick(0.0f, 0.0f, CAMERA_Z, headForward[0], headForward[1],
+        headForward[2], drawDistance);
+    if (gazedNote >= 0 && gazedNote != lastGazedNote) {
+      listener.onNoteGazed(gazedNote, nowNanos);
+    }
+
+    // Each trigger pull goes to the listener, and starts preparing a new note if the listener
+    // passes on it. Pulls wait in the ring until the saved notes around the head are in, and at
+    // most noteIngestBudget are handled per frame so a burst is spread over several frames.
+    telemetry.begin(FrameTelemetry.STAGE_INGEST);
+    boolean settled = world.isSettled();
+    for (int i = 0; i < noteIngestBudget && settled && newNotes.poll(newNote); i++) {
+      if (!listener.onTrigger(gazedNote)) {
+        preparer.prepare("", newNote[0], newNote[1], newNote[2], true);
+      }
+      notesChanged = true;
+    }
+    commitPreparedNotes(NOTE_COMMIT_BUDGET_NANOS, nowNanos);
+    telemetry.end(FrameTelemetry.STAGE_INGEST);
+
+    telemetry.begin(FrameTelemetry.STAGE_RECORD);
+    recordScene();
+    telemetry.end(FrameTelemetry.STAGE_RECORD);
+  }
+
+  /**
+   * Draws the recorded scene for an eye.
+   *
+   * @param eyeType The eye's {@code Eye.Type}.
+   * @param eyeView The eye's view matrix.
+   * @param perspective The eye's projection for {@link #Z_NEAR} and {@link #Z_FAR}.
+   * @param fov The eye's field of view in degrees: left, right, bottom and top, from
+   *     {@code fovOffset}.
+   */
+  public void onDrawEye(int eyeType, float[] eyeView, float[] perspective, float[] fov,
+      int fovOffset, int viewportWidth, int viewportHeight) {
+    backend.beginEye();
+
+    // Apply the eye transformation to the camera.
+    MatrixMath.multiplyMM(view, 0, eyeView, 0, camera, 0);
+
+    // Set the position of the light
+    MatrixMath.multiplyMV(lightPosInEyeSpace, 0, view, 0, LIGHT_POS_IN_WORLD_SPACE, 0);
+
+    updateSceneFov(eyeView, fov, fovOffset);
+
+    // Set modelView for the floor, so we draw floor in the correct location
+    MatrixMath.multiplyMM(modelView, 0, view, 0, modelFloor, 0);
+    MatrixMath.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
+
+    drawScene(perspective);
+    backend.drawHud(eyeType, viewportWidth, viewportHeight);
+  }
+
+  /**
+   * Removes a note from the world and its saved workspace.
+   */
+  public void removeNote(int id) {
+    world.remove(id);
+    forgetNote(id);
+  }
+
+  /**
+   * Lets go of a note the world dropped from the store.
+   */
+  public void forgetNote(int id) {
+    if (id == gazedNote) {
+      gazedNote = -1;
+    }
+    if (id < highlighted.length) {
+      highlighted[id] = false;
+    }
+  }
+
+  /**
+   * Highlights notes, such as the results of a search, in place of those highlighted before.
+   *
+   * @param ids The ids of the notes; only the first {@code count} are read. A count of 0 clears
+   *     the highlight.
+   */
+  public void setHighlightedNotes(int[] ids, int count) {
+    for (int i = 0; i < highlightedCount; i++) {
+      highlighted[highlightedIds[i]] = false;
+    }
+    if (highlighted.length < notes.getIdBound()) {
+      highlighted = new boolean[Math.max(notes.getIdBound(), highlighted.length * 2)];
+    }
+    if (highlightedIds.length < count) {
+      highlightedIds = new int[Math.max(count, highlightedIds.length * 2)];
+    }
+    for (int i = 0; i < count; i++) {
+      highlighted[ids[i]] = true;
+      highlightedIds[i] = ids[i];
+    }
+    highlightedCount = count;
+  }
+
+  /**
+   * Draws, and lets the gaze pick, only notes up to {@code meters} from the head, at most
+   * {@link #Z_FAR}.
+   */
+  public void setDrawDistance(float meters) {
+    drawDistance = Math.max(Z_NEAR, Math.min(Z_FAR, meters));
+  }
+
+  /**
+   * Draws the text only of notes up to {@code meters} from the head; farther notes are blank.
+   */
+  public void setTextDistance(float meters) {
+    textDistance = meters;
+  }
+
+  /**
+   * @return The head's position this frame, xyz.
+   */
+  public float[] getHeadPosition() {
+    return headPosition;
+  }
+
+  /**
+   * @return The head's view matrix this frame.
+   */
+  public float[] getHeadView() {
+    return headView;
+  }
+
+  /**
+   * @return Whether this frame added or removed notes, or cluster badges, work expected to
+   *     allocate.
+   */
+  public boolean haveNotesChanged() {
+    return notesChanged;
+  }
+
+  /**
+   * @return The number of notes drawn on their own in the last frame.
+   */
+  public int getVisibleNoteCount() {
+    return visibleNoteCount;
+  }
+
+  /**
+   * @return The number of cluster badges drawn in the last frame.
+   */
+  public int getVisibleBadgeCount() {
+    return visibleBadgeCount;
+  }
+
+  /**
+   * @return The number of notes culled in the last frame.
+   */
+  public int getCulledNoteCount() {
+    return culledNoteCount;
+  }
+
+  /**
+   * @return The number of trigger pulls waiting to be handled.
+   */
+  public int getNoteIngestDepth() {
+    return newNotes.size();
+  }
+
+  /**
+   * @return The number of trigger pulls dropped because too many were waiting.
+   */
+  public long getNoteIngestDropCount() {
+    return newNotes.getDropCount();
+  }
+
+  /**
+   * Adds prepared notes to the world until {@code budgetNanos} has passed.
+   */
+  private void commitPreparedNotes(long budgetNanos, long nowNanos) {
+    long start = System.nanoTime();
+    NotePreparer.PreparedNote note;
+    while (System.nanoTime() - start < budgetNanos && (note = preparer.poll()) != null) {
+      int id = world.add(note);
+      notesChanged = true;
+      if (id < 0) {
+        // Its part of the world is still loading; the note goes in with it.
+        continue;
+      }
+      ensureVisibleCapacity();
+      listener.onNoteAdded(id, note, nowNanos);
+    }
+  }
+
+  /**
+   * Grows everything sized by the number of notes and badges, so that frames which add none
+   * allocate nothing however many of them come into view.
+   */
+  private void ensureVisibleCapacity() {
+    if (visibleNotes.length < notes.size()) {
+      visibleNotes = new int[Math.max(notes.size(), visibleNotes.length * 2)];
+    }
+    int badgeBound = clusters.getBadges().getIdBound();
+    if (visibleBadges.length < badgeBound) {
+      visibleBadges = new int[Math.max(badgeBound, visibleBadges.length * 2)];
+    }
+    picker.reserve(notes.getIdBound());
+    // Every note and badge, the floor and the text.
+    renderQueue.ensureCapacity(notes.size() + badgeBound + 2);
+  }
+
+  /**
+   * Culls, sorts and uploads the scene once for both eyes.
+   *
+   * <p>The scene is culled against one frustum from the head pose that contains both eyes'
+   * frusta: it spans the widest field of view of either eye, and its apex is pulled back behind
+   * the head until its side planes clear both eye positions.
+   *
+   * <p>Package-private so the benchmarks can time it on its own.
+   */
+  void recordScene() {
+    float left = (float) Math.tan(Math.toRadians(sceneFovLeft));
+    float right = (float) Math.tan(Math.toRadians(sceneFovRight));
+    float bottom = (float) Math.tan(Math.toRadians(sceneFovBottom));
+    float top = (float) Math.tan(Math.toRadians(sceneFovTop));
+    float apex = sceneEyeOffset / Math.min(left, right);
+
+    // Translating the head view back along its own z axis only touches the z translation.
+    MatrixMath.multiplyMM(sceneView, 0, headView, 0, camera, 0);
+    sceneView[14] -= apex;
+    MatrixMath.frustumM(sceneProjection, 0, -Z_NEAR * left, Z_NEAR * right, -Z_NEAR * bottom,
+        Z_NEAR * top, Z_NEAR, drawDistance + apex);
+    MatrixMath.multiplyMM(sceneViewProjection, 0, sceneProjection, 0, sceneView, 0);
+    sceneFrustum.set(sceneViewProjection);
+    int visible = grid.cull(sceneFrustum, visibleNotes);
+    culledNoteCount = grid.getLastCulledCount();
+    // Far crowds of notes give way to their clusters' badges. Search results stay notes.
+    visible = clusters.collapse(visibleNotes, visible, headPosition[0], headPosition[1],
+        headPosition[2], highlighted);
+    visibleNoteCount = visible;
+    if (clusters.haveBadgesChanged()) {
+      notesChanged = true;
+      ensureVisibleCapacity();
+    }
+
+    // Queue everything, then sort it into state-grouped, front-to-back order.
+    renderQueue.clear();
+    float[] positions = notes.getPositions();
+    for (int i = 0; i < visible; i++) {
+      int id = visibleNotes[i];
+      int p = id * NoteStore.POSITION_STRIDE;
+      float depth = -(sceneView[2] * positions[p] + sceneView[6] * positions[p + 1]
+          + sceneView[10] * positions[p + 2] + sceneView[14]);
+      renderQueue.submit(NOTE_PROGRAM, NOTE_MESH, depth, false, id);
+    }
+    NoteStore badges = clusters.getBadges();
+    float[] badgePositions = badges.getPositions();
+    int[] shownBadges = clusters.getShownBadges();
+    int badgeCount = clusters.getShownBadgeCount();
+    for (int i = 0; i < badgeCount; i++) {
+      int p = shownBadges[i] * NoteStore.POSITION_STRIDE;
+      float depth = -(sceneView[2] * badgePositions[p] + sceneView[6] * badgePositions[p + 1]
+          + sceneView[10] * badgePositions[p + 2] + sceneView[14]);
+      renderQueue.submit(NOTE_PROGRAM, CLUSTER_MESH, depth, false, shownBadges[i]);
+    }
+    // The floor surrounds the viewer, so its nearest point is right underneath.
+    renderQueue.submit(FLOOR_PROGRAM, FLOOR_MESH, 0f, false, 0);
+    if (visible > 0 || badgeCount > 0) {
+      // All note text is one blended batch, sorted back to front within itself.
+      renderQueue.submit(TEXT_PROGRAM, -1, 0f, true, 0);
+    }
+    renderQueue.sort();
+
+    // Every note shares one program, so the notes form a single run in the sorted queue. The ids
+    // were copied into the queue, so visibleNotes can be reused for the sorted run.
+    // The run is front to back, so the notes near enough to show text lead it. The badges follow
+    // as a run of their own, and always show their text.
+    int run = 0;
+    int textRun = 0;
+    int badgeRun = 0;
+    for (int position = 0; position < renderQueue.size(); position++) {
+      int command = renderQueue.getCommand(position);
+      int meshId = renderQueue.getMeshId(command);
+      if (meshId == CLUSTER_MESH) {
+        visibleBadges[badgeRun++] = renderQueue.getItem(command);
+      } else if (meshId == NOTE_MESH) {
+        int id = renderQueue.getItem(command);
+        visibleNotes[run++] = id;
+        int p = id * NoteStore.POSITION_STRIDE;
+        float depth = -(sceneView[2] * positions[p] + sceneView[6] * positions[p + 1]
+            + sceneView[10] * positions[p + 2] + sceneView[14]) - apex;
+        if (textRun == run - 1 && depth <= textDistance) {
+          textRun = run;
+        }
+      }
+    }
+    backend.prepareNotes(notes, visibleNotes, run, textRun, highlighted);
+    backend.prepareBadges(badges, visibleBadges, badgeRun);
+    visibleBadgeCount = badgeRun;
+  }
+
+  /**
+   * Replays the scene recorded by {@link #recordScene()} for the current eye. The notes, and the
+   * badges, are each drawn as one batch where their run starts.
+   */
+  private void drawScene(float[] perspective) {
+    boolean notesDrawn = false;
+    boolean badgesDrawn = false;
+    for (int position = 0; position < renderQueue.size(); position++) {
+      int command = renderQueue.getCommand(position);
+      int meshId = renderQueue.getMeshId(command);
+      if (renderQueue.getProgramId(command) == TEXT_PROGRAM) {
+        backend.drawText(view, perspective);
+      } else if (meshId == NOTE_MESH) {
+        if (!notesDrawn) {
+          backend.drawNotes(view, perspective, lightPosInEyeSpace);
+          notesDrawn = true;
+        }
+      } else if (meshId == CLUSTER_MESH) {
+        if (!badgesDrawn) {
+          backend.drawBadges(view, perspective, lightPosInEyeSpace);
+          badgesDrawn = true;
+        }
+      } else if (meshId == FLOOR_MESH) {
+        backend.drawFloor(lightPosInEyeSpace, modelFloor, modelView, modelViewProjection);
+      }
+    }
+  }
+
+  /**
+   * Widens the frustum {@link #recordScene()} culls against to cover an eye. Eyes keep their
+   * fields of view, so after the first frame this no longer changes anything.
+   */
+  private void updateSceneFov(float[] eyeView, float[] fov, int fovOffset) {
+    float fovLeft = fov[fovOffset];
+    float fovRight = fov[fovOffset + 1];
+    float fovBottom = fov[fovOffset + 2];
+    float fovTop = fov[fovOffset + 3];
+    // The eye view is the head view offset sideways by half the interpupillary distance.
+    float eyeOffset = Math.abs(eyeView[12] - headView[12]);
+    if (!sceneFovMeasured) {
+      // Replace the defaults the first frame was culled with.
+      sceneFovLeft = fovLeft;
+      sceneFovRight = fovRight;
+      sceneFovBottom = fovBottom;
+      sceneFovTop = fovTop;
+      sceneEyeOffset = eyeOffset;
+      sceneFovMeasured = true;
+      return;
+    }
+    sceneFovLeft = Math.max(sceneFovLeft, fovLeft);
+    sceneFovRight = Math.max(sceneFovRight, fovRight);
+    sceneFovBottom = Math.max(sceneFovBottom, fovBottom);
+    sceneFovTop = Math.max(sceneFovTop, fovTop);
+    sceneEyeOffset = Math.max(sceneEyeOffset, eyeOffset);
+  }
+}
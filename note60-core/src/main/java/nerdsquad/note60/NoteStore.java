@@ -0,0 +1,367 @@
+package nerdsquad.note60;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays storage for every note in the world.
+ *
+ * <p>Notes are addressed by id, which is their index into the packed arrays: the model matrix of
+ * note {@code id} starts at {@code getModels()[id * Note.MODEL_STRIDE]} and its position at
+ * {@code getPositions()[id * POSITION_STRIDE]}. Reading the arrays allocates nothing, so the
+ * render loop can walk every note without producing garbage.
+ *
+ * <p>Ids are stable: removing a note frees its slot for a later {@link #add} but never moves
+ * other notes. Valid ids are below {@link #getIdBound()}; use {@link #isAlive} to skip freed
+ * slots when walking the arrays directly.
+ *
+ * <p>Messages restored from disk stay as UTF-8 bytes in the journal's string heap until
+ * {@link #getMessage} first asks for them.
+ *
+ * <p>{@link Listener}s hear about every note added, removed or edited, so indexes over the notes,
+ * such as {@link NoteIndex} and {@link NoteClusters}, stay in step without polling.
+ *
+ * <p>Not thread safe; owned by the GL thread.
+ */
+public class NoteStore {
+  public static final int POSITION_STRIDE = 3;
+
+  /**
+   * Told about changes to the notes, right after they happen.
+   */
+  public interface Listener {
+    void onNoteAdded(int id);
+
+    /**
+     * Called once the note is gone; its id may already be handed out again by the next add.
+     */
+    void onNoteRemoved(int id);
+
+    void onMessageChanged(int id);
+  }
+
+  private static final int DEFAULT_CAPACITY = 64;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private float[] models;
+  private float[] positions;
+  private float[] yaws;
+  private String[] messages;
+  private boolean[] alive;
+
+  // Bumped whenever a note's message changes, so caches built from a message can spot stale
+  // entries. Never 0 for a live note.
+  private int[] messageVersions;
+  private int nextMessageVersion = 1;
+
+  // Undecoded messages: offset and length of each note's message in messageHeap.
+  private ByteBuffer messageHeap;
+  private int[] heapOffsets;
+  private int[] heapLengths;
+  private int idBound;
+  private int count;
+
+  private Listener[] listeners = new Listener[0];
+
+  // Stack of freed ids, reused before growing idBound.
+  private int[] freeIds;
+  private int freeCount;
+
+  public NoteStore() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public NoteStore(int initialCapacity) {
+    int capacity = Math.max(1, initialCapacity);
+    models = new float[capacity * Note.MODEL_STRIDE];
+    positions = new float[capacity * POSITION_STRIDE];
+    yaws = new float[capacity];
+    messages = new String[capacity];
+    alive = new boolean[capacity];
+    messageVersions = new int[capacity];
+    heapOffsets = new int[capacity];
+    heapLengths = new int[capacity];
+    freeIds = new int[16];
+  }
+
+  /**
+   * Adds a listener told about changes to the notes, after those added before it. Notes already
+   * in the store are not announced.
+   */
+  public void addListener(Listener listener) {
+    listeners = Arrays.copyOf(listeners, listeners.length + 1);
+    listeners[listeners.length - 1] = listener;
+  }
+
+  /**
+   * Replaces the contents of the store with notes restored from disk. The position, yaw and
+   * message arrays are adopted where they are large enough, so callers must not reuse them; only
+   * the model matrices are computed here. Listeners are not told; indexes over the store must be
+   * rebuilt.
+   *
+   * @param idBound One more than the largest id in use.
+   * @param liveNotes Which ids below {@code idBound} hold a note.
+   * @param notePositions Packed note positions, {@link #POSITION_STRIDE} floats per id.
+   * @param noteYaws Rotation of each note about the y axis, in degrees.
+   * @param heap The string heap holding the messages.
+   * @param offsets Offset of each note's message in {@code heap}.
+   * @param lengths Length in bytes of each note's message in {@code heap}.
+   */
+  public void restore(int idBound, boolean[] liveNotes, float[] notePositions, float[] noteYaws,
+      ByteBuffer heap, int[] offsets, int[] lengths) {
+    int capacity = Math.max(1, idBound);
+    models = new float[capacity * Note.MODEL_STRIDE];
+    positions = copyOf(notePositions, idBound * POSITION_STRIDE, capacity * POSITION_STRIDE);
+    yaws = copyOf(noteYaws, idBound, capacity);
+    messages = new String[capacity];
+    alive = new boolean[capacity];
+    System.arraycopy(liveNotes, 0, alive, 0, idBound);
+    messageVersions = new int[capacity];
+    nextMessageVersion = 1;
+    messageHeap = heap;
+    heapOffsets = copyOf(offsets, idBound, capacity);
+    heapLengths = copyOf(lengths, idBound, capacity);
+
+    this.idBound = idBound;
+    count = 0;
+    freeCount = 0;
+    for (int id = 0; id < idBound; id++) {
+      if (alive[id]) {
+        messageVersions[id] = nextMessageVersion++;
+        int p = id * POSITION_STRIDE;
+        Note.placeModel(models, id * Note.MODEL_STRIDE,
+            positions[p], positions[p + 1], positions[p + 2], yaws[id]);
+        count++;
+      } else {
+        pushFreeId(id);
+      }
+    }
+  }
+
+  /**
+   * Adds a note facing the origin at (x, y, z).
+   *
+   * @return The id of the new note.
+   */
+  public int add(String message, float x, float y, float z) {
+    return add(message, x, y, z, Note.faceOriginYaw(x, z));
+  }
+
+  /**
+   * Adds a note at (x, y, z) rotated by {@code yaw} degrees about the y axis.
+   *
+   * @return The id of the new note.
+   */
+  public int add(String message, float x, float y, float z, float yaw) {
+    int id = allocateId();
+    Note.placeModel(models, id * Note.MODEL_STRIDE, x, y, z, yaw);
+    fill(id, message, x, y, z, yaw);
+    return id;
+  }
+
+  /**
+   * Adds a note whose model matrix was already computed, such as a
+   * {@link NotePreparer.PreparedNote}. Only copies.
+   *
+   * @param model The note's model matrix, placed as {@link Note#placeModel} would.
+   * @return The id of the new note.
+   */
+  public int add(String message, float x, float y, float z, float yaw, float[] model,
+      int modelOffset) {
+    int id = allocateId();
+    System.arraycopy(model, modelOffset, models, id * Note.MODEL_STRIDE, Note.MODEL_STRIDE);
+    fill(id, message, x, y, z, yaw);
+    return id;
+  }
+
+  /**
+   * Moves a note, with its model matrix already computed as for {@link #add(String, float, float,
+   * float, float, float[], int)}. Listeners are not told, so only for notes nothing indexes by
+   * position, such as the badges of {@link NoteClusters}.
+   */
+  public void move(int id, float x, float y, float z, float yaw, float[] model, int modelOffset) {
+    checkId(id);
+    System.arraycopy(model, modelOffset, models, id * Note.MODEL_STRIDE, Note.MODEL_STRIDE);
+    int p = id * POSITION_STRIDE;
+    positions[p] = x;
+    positions[p + 1] = y;
+    positions[p + 2] = z;
+    yaws[id] = yaw;
+  }
+
+  private int allocateId() {
+    if (freeCount > 0) {
+      return freeIds[--freeCount];
+    }
+    ensureCapacity(idBound + 1);
+    return idBound++;
+  }
+
+  private void fill(int id, String message, float x, float y, float z, float yaw) {
+    int p = id * POSITION_STRIDE;
+    positions[p] = x;
+    positions[p + 1] = y;
+    positions[p + 2] = z;
+    yaws[id] = yaw;
+    messages[id] = message;
+    messageVersions[id] = nextMessageVersion++;
+    heapLengths[id] = 0;
+    alive[id] = true;
+    count++;
+    for (Listener listener : listeners) {
+      listener.onNoteAdded(id);
+    }
+  }
+
+  /**
+   * Removes a note. Its id may be handed out again by a later {@link #add}.
+   */
+  public void remove(int id) {
+    checkId(id);
+    alive[id] = false;
+    messages[id] = null;
+    heapLengths[id] = 0;
+    pushFreeId(id);
+    count--;
+    for (Listener listener : listeners) {
+      listener.onNoteRemoved(id);
+    }
+  }
+
+  private void pushFreeId(int id) {
+    if (freeCount == freeIds.length) {
+      int[] newFreeIds = new int[freeCount * 2];
+      System.arraycopy(freeIds, 0, newFreeIds, 0, freeCount);
+      freeIds = newFreeIds;
+    }
+    freeIds[freeCount++] = id;
+  }
+
+  /**
+   * @return The number of notes in the store.
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * @return One more than the largest id ever handed out.
+   */
+  public int getIdBound() {
+    return idBound;
+  }
+
+  public boolean isAlive(int id) {
+    return id >= 0 && id < idBound && alive[id];
+  }
+
+  /**
+   * @return The packed model matrices. Only the first {@code getIdBound() * Note.MODEL_STRIDE}
+   *     floats are meaningful, and the array is replaced when the store grows.
+   */
+  public float[] getModels() {
+    return models;
+  }
+
+  /**
+   * @return The packed note positions. Only the first {@code getIdBound() * POSITION_STRIDE}
+   *     floats are meaningful, and the array is replaced when the store grows.
+   */
+  public float[] getPositions() {
+    return positions;
+  }
+
+  /**
+   * @return The rotation of the note about the y axis, in degrees.
+   */
+  public float getYaw(int id) {
+    checkId(id);
+    return yaws[id];
+  }
+
+  public String getMessage(int id) {
+    checkId(id);
+    String message = messages[id];
+    if (message == null) {
+      message = decodeMessage(id);
+      messages[id] = message;
+    }
+    return message;
+  }
+
+  public void setMessage(int id, String message) {
+    checkId(id);
+    messages[id] = message;
+    messageVersions[id] = nextMessageVersion++;
+    heapLengths[id] = 0;
+    for (Listener listener : listeners) {
+      listener.onMessageChanged(id);
+    }
+  }
+
+  /**
+   * @return A number that changes whenever the note's message does. Never 0.
+   */
+  public int getMessageVersion(int id) {
+    return messageVersions[id];
+  }
+
+  private String decodeMessage(int id) {
+    int length = heapLengths[id];
+    if (length == 0) {
+      return "";
+    }
+    byte[] bytes = new byte[length];
+    ByteBuffer heap = messageHeap.duplicate();
+    heap.position(heapOffsets[id]);
+    heap.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private void checkId(int id) {
+    if (!isAlive(id)) {
+      throw new IndexOutOfBoundsException("No note with id " + id);
+    }
+  }
+
+  private void ensureCapacity(int needed) {
+    int capacity = messages.length;
+    if (needed <= capacity) {
+      return;
+    }
+    int newCapacity = Math.max(needed, capacity * 2);
+    float[] newModels = new float[newCapacity * Note.MODEL_STRIDE];
+    System.arraycopy(models, 0, newModels, 0, idBound * Note.MODEL_STRIDE);
+    models = newModels;
+    positions = copyOf(positions, idBound * POSITION_STRIDE, newCapacity * POSITION_STRIDE);
+    yaws = copyOf(yaws, idBound, newCapacity);
+    String[] newMessages = new String[newCapacity];
+    System.arraycopy(messages, 0, newMessages, 0, idBound);
+    messages = newMessages;
+    boolean[] newAlive = new boolean[newCapacity];
+    System.arraycopy(alive, 0, newAlive, 0, idBound);
+    alive = newAlive;
+    messageVersions = copyOf(messageVersions, idBound, newCapacity);
+    heapOffsets = copyOf(heapOffsets, idBound, newCapacity);
+    heapLengths = copyOf(heapLengths, idBound, newCapacity);
+  }
+
+  private static float[] copyOf(float[] src, int used, int newLength) {
+    if (src.length >= newLength) {
+      return src;
+    }
+    float[] dst = new float[newLength];
+    System.arraycopy(src, 0, dst, 0, used);
+    return dst;
+  }
+
+  private static int[] copyOf(int[] src, int used, int newLength) {
+    if (src.length >= newLength) {
+      return src;
+    }
+    int[] dst = new int[newLength];
+    System.arraycopy(src, 0, dst, 0, used);
+    return dst;
+  }
+}
@@ -0,0 +1,39 @@
+package nerdsquad.note60;
+
+/**
+ * Where the notes of a {@link NoteScene} live beyond its store: the part of the workspace around
+ * the head is kept in the store, and added and removed notes are saved.
+ */
+public interface NoteWorld {
+  /**
+   * Brings the notes around the head into the store. Call once per frame.
+   *
+   * @param forward The head's forward vector.
+   * @param budgetNanos The most time to spend adding notes to the store.
+   * @return Whether any notes were added or removed.
+   */
+  boolean update(float headX, float headZ, float[] forward, long budgetNanos);
+
+  /**
+   * @return Whether the notes around the head are all in the store.
+   */
+  boolean isSettled();
+
+  /**
+   * @return Whether the last {@link #update} started loading part of the workspace, work
+   *     expected to allocate.
+   */
+  boolean hasStartedLoads();
+
+  /**
+   * Adds a note and saves it.
+   *
+   * @return The note's id, or -1 if it will be added once the notes around it have loaded.
+   */
+  int add(NotePreparer.PreparedNote note);
+
+  /**
+   * Removes a note from the store and from the saved workspace.
+   */
+  void remove(int id);
+}
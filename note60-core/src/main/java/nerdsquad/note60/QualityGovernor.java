@@ -0,0 +1,178 @@
+package nerdsquad.note60;
+
+/**
+ * Trades image quality for frame time, so a phone that heats up and throttles keeps up with the
+ * display instead of dropping frames.
+ *
+ * <p>It is fed the time each frame took and judges them a window of {@link #WINDOW_FRAMES} at a
+ * time. A window with several frames over budget steps quality down one level at once. Stepping
+ * back up takes a run of windows with nine frames in ten well under budget, and the run needed
+ * doubles whenever a step up has to be taken back, so a phone on the edge of a level settles
+ * below it rather than flipping between the two.
+ *
+ * <p>Each level sets three levers, all cheapest to cut first: how far away note text is drawn,
+ * how far away notes are drawn at all, and the resolution eyes are rendered at.
+ *
+ * <p>Nothing here reads a clock: the same frame times always give the same levels, so it can be
+ * driven by recorded or synthetic frame times. Not thread safe.
+ */
+public class QualityGovernor {
+  /** Levels from best looking, 0, to cheapest. */
+  public static final int LEVEL_COUNT = 5;
+  /** Frames judged together. */
+  public static final int WINDOW_FRAMES = 30;
+
+  // The levers at each level.
+  private static final float[] TEXT_DISTANCES = {NoteScene.Z_FAR, 30.0f, 15.0f, 8.0f, 4.0f};
+  private static final float[] DRAW_DISTANCES = {NoteScene.Z_FAR, NoteScene.Z_FAR, 70.0f, 50.0f,
+      35.0f};
+  private static final float[] RENDER_SCALES = {1.0f, 1.0f, 0.85f, 0.7f, 0.5f};
+
+  // A window with more frames than this over budget steps quality down.
+  private static final int SLOW_FRAMES_TO_STEP_DOWN = 2;
+  // A window is comfortably fast if no more than a tenth of its frames took more than this share
+  // of the budget.
+  private static final float STEP_UP_HEADROOM = 0.7f;
+  private static final int BUSY_FRAMES_TO_STAY = WINDOW_FRAMES / 10;
+  // Comfortable windows in a row needed to step up, about five seconds at 60 Hz; doubled, up to
+  // the maximum, each time a step up is taken back.
+  private static final int FAST_WINDOWS_TO_STEP_UP = 10;
+  private static final int MAX_FAST_WINDOWS_TO_STEP_UP = 80;
+  // Windows after a step down before the next one, so the last one can take effect first.
+  private static final int SETTLE_WINDOWS = 2;
+
+  private final long budgetNanos;
+  private final long fastNanos;
+
+  private int level;
+  private boolean locked;
+  private boolean lastStepWasUp;
+  private int fastWindowsToStepUp = FAST_WINDOWS_TO_STEP_UP;
+
+  // The window being filled.
+  private int windowFrames;
+  private int slowFrames;
+  private int busyFrames;
+
+  private int fastWindows;
+  private int settleWindows;
+  private long stepDownCount;
+  private long stepUpCount;
+
+  /**
+   * @param budgetNanos The most time a frame may take, leaving room for what happens after it
+   *     within the display's refresh interval.
+   */
+  public QualityGovernor(long budgetNanos) {
+    this.budgetNanos = budgetNanos;
+    fastNanos = (long) (budgetNanos * STEP_UP_HEADROOM);
+  }
+
+  /**
+   * Records how long a frame took.
+   *
+   * @return Whether the level changed.
+   */
+  public boolean onFrame(long frameNanos) {
+    windowFrames++;
+    if (frameNanos > budgetNanos) {
+      slowFrames++;
+    }
+    if (frameNanos > fastNanos) {
+      busyFrames++;
+    }
+    if (windowFrames < WINDOW_FRAMES) {
+      return false;
+    }
+    boolean changed = !locked && judgeWindow();
+    windowFrames = 0;
+    slowFrames = 0;
+    busyFrames = 0;
+    return changed;
+  }
+
+  private boolean judgeWindow() {
+    if (settleWindows > 0) {
+      settleWindows--;
+      return false;
+    }
+    if (slowFrames > SLOW_FRAMES_TO_STEP_DOWN) {
+      fastWindows = 0;
+      if (level == LEVEL_COUNT - 1) {
+        return false;
+      }
+      if (lastStepWasUp) {
+        // The level above was already too slow once; wait longer before trying it again.
+        fastWindowsToStepUp = Math.min(fastWindowsToStepUp * 2, MAX_FAST_WINDOWS_TO_STEP_UP);
+      }
+      level++;
+      lastStepWasUp = false;
+      settleWindows = SETTLE_WINDOWS;
+      stepDownCount++;
+      return true;
+    }
+    if (busyFrames > BUSY_FRAMES_TO_STAY) {
+      fastWindows = 0;
+      return false;
+    }
+    fastWindows++;
+    if (level == 0 || fastWindows < fastWindowsToStepUp) {
+      return false;
+    }
+    level--;
+    lastStepWasUp = true;
+    fastWindows = 0;
+    stepUpCount++;
+    return true;
+  }
+
+  /**
+   * Holds quality at {@code level} from now on, whatever the frame times.
+   */
+  public void lock(int level) {
+    this.level = Math.max(0, Math.min(LEVEL_COUNT - 1, level));
+    locked = true;
+  }
+
+  /**
+   * @return The current level, from 0, best looking, to {@code LEVEL_COUNT - 1}.
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * @return How far from the head notes show their text, in meters.
+   */
+  public float getTextDistance() {
+    return TEXT_DISTANCES[level];
+  }
+
+  /**
+   * @return How far from the head notes are drawn, in meters.
+   */
+  public float getDrawDistance() {
+    return DRAW_DISTANCES[level];
+  }
+
+  /**
+   * @return The scale of the eyes' render target against the screen, up to 1.
+   */
+  public float getRenderScale() {
+    return RENDER_SCALES[level];
+  }
+
+  /**
+   * @return The number of times quality was stepped down.
+   */
+  public long getStepDownCount() {
+    return stepDownCount;
+  }
+
+  /**
+   * @return The number of times quality was stepped up.
+   */
+  public long getStepUpCount() {
+    return stepUpCount;
+  }
+}
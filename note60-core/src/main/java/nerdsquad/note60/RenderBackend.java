@@ -0,0 +1,65 @@
+package nerdsquad.note60;
+
+/**
+ * The draws {@link NoteScene} makes, one method per kind of object.
+ *
+ * <p>The app implements it with its GL renderers. A headless replay implements it by recording
+ * the calls, so the scene's CPU work can be measured without a GPU. All methods are called on
+ * the render thread.
+ */
+public interface RenderBackend {
+  /**
+   * Uploads the notes to draw this frame, in draw order. Called once per frame, before either
+   * eye is drawn.
+   *
+   * @param ids The ids of the notes; only the first {@code count} are valid.
+   * @param textCount How many of the notes, from the first, show their text.
+   * @param highlighted Which notes to highlight, by id. Ids past its end are not highlighted.
+   */
+  void prepareNotes(NoteStore notes, int[] ids, int count, int textCount,
+      boolean[] highlighted);
+
+  /**
+   * Uploads the {@link NoteClusters} badges to draw this frame, text and all, in draw order.
+   * Called once per frame, after {@link #prepareNotes}.
+   *
+   * @param ids The ids of the badges in {@code badges}; only the first {@code count} are valid.
+   */
+  void prepareBadges(NoteStore badges, int[] ids, int count);
+
+  /**
+   * Clears the target and sets up depth testing and culling for one eye.
+   */
+  void beginEye();
+
+  /**
+   * Draws the floor.
+   *
+   * @param model The floor's model matrix.
+   */
+  void drawFloor(float[] lightPosInEyeSpace, float[] model, float[] modelView,
+      float[] modelViewProjection);
+
+  /**
+   * Draws the notes passed to the last {@link #prepareNotes}.
+   */
+  void drawNotes(float[] view, float[] perspective, float[] lightPosInEyeSpace);
+
+  /**
+   * Draws the badges passed to the last {@link #prepareBadges}.
+   */
+  void drawBadges(float[] view, float[] perspective, float[] lightPosInEyeSpace);
+
+  /**
+   * Draws the text of the notes passed to the last {@link #prepareNotes} to show it, and of the
+   * badges passed to the last {@link #prepareBadges}.
+   */
+  void drawText(float[] view, float[] perspective);
+
+  /**
+   * Draws the head-up display over the eye.
+   *
+   * @param eyeType The eye's {@code Eye.Type}.
+   */
+  void drawHud(int eyeType, int viewportWidth, int viewportHeight);
+}
@@ -0,0 +1,183 @@
+package nerdsquad.note60;
+
+import java.util.Arrays;
+
+/**
+ * The draw commands of a frame, sorted to keep GL state changes down. Recorded once and replayed
+ * for each eye.
+ *
+ * <p>Each command is reduced to a 64-bit sort key. Opaque commands sort first, grouped by program,
+ * then by mesh, then front-to-back so early depth testing rejects as much as possible. Translucent
+ * commands sort after them strictly back-to-front, which blending needs, and only fall back to
+ * program and mesh for equal depths. Keys are sorted with an LSD radix sort, and the low bits of
+ * each key hold the command index so equal states and depths stay in submission order.
+ *
+ * <p>Owned by the GL thread. Nothing is allocated once the queue has grown to its working size.
+ */
+public class RenderQueue {
+  private static final int INDEX_BITS = 22;
+  private static final int DEPTH_BITS = 24;
+  private static final int MESH_BITS = 8;
+  private static final int PROGRAM_BITS = 8;
+
+  private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+  private static final long DEPTH_MAX = (1L << DEPTH_BITS) - 1;
+  private static final long MESH_MASK = (1L << MESH_BITS) - 1;
+  private static final long PROGRAM_MASK = (1L << PROGRAM_BITS) - 1;
+
+  // Opaque: program | mesh | depth | index.
+  private static final int OPAQUE_DEPTH_SHIFT = INDEX_BITS;
+  private static final int OPAQUE_MESH_SHIFT = OPAQUE_DEPTH_SHIFT + DEPTH_BITS;
+  private static final int OPAQUE_PROGRAM_SHIFT = OPAQUE_MESH_SHIFT + MESH_BITS;
+
+  // Translucent: inverted depth | program | mesh | index.
+  private static final int TRANSLUCENT_MESH_SHIFT = INDEX_BITS;
+  private static final int TRANSLUCENT_PROGRAM_SHIFT = TRANSLUCENT_MESH_SHIFT + MESH_BITS;
+  private static final int TRANSLUCENT_DEPTH_SHIFT = TRANSLUCENT_PROGRAM_SHIFT + PROGRAM_BITS;
+
+  private static final int KEY_BITS = INDEX_BITS + DEPTH_BITS + MESH_BITS + PROGRAM_BITS + 1;
+  private static final long TRANSLUCENT_BIT = 1L << (KEY_BITS - 1);
+
+  private static final int RADIX_BITS = 8;
+  private static final int RADIX = 1 << RADIX_BITS;
+
+  private final float maxDepth;
+  private final int[] histogram = new int[RADIX];
+
+  private long[] keys = new long[256];
+  private long[] scratch = new long[256];
+  private int[] programs = new int[256];
+  private int[] meshes = new int[256];
+  private int[] items = new int[256];
+  private int count;
+
+  /**
+   * @param maxDepth The view-space depth that maps to the far end of the depth range; anything
+   *     further away sorts as if it were at this depth.
+   */
+  public RenderQueue(float maxDepth) {
+    this.maxDepth = maxDepth;
+  }
+
+  public void clear() {
+    count = 0;
+  }
+
+  /**
+   * Queues a draw.
+   *
+   * @param programId The caller's key for the program the draw binds. Opaque draws are grouped by
+   *     it in ascending order.
+   * @param meshId The caller's key for the mesh the draw uses, or -1 for none.
+   * @param depth The view-space distance of the object from the eye.
+   * @param isTranslucent Whether the draw blends with what is behind it.
+   * @param item Caller data, such as a note id, handed back through {@link #getItem}.
+   */
+  public void submit(int programId, int meshId, float depth, boolean isTranslucent, int item) {
+    if (count > INDEX_MASK) {
+      throw new IllegalStateException("Too many render commands");
+    }
+    ensureCapacity(count + 1);
+    long quantized = quantizeDepth(depth);
+    long program = programId & PROGRAM_MASK;
+    long mesh = meshId & MESH_MASK;
+    long key;
+    if (isTranslucent) {
+      key = TRANSLUCENT_BIT
+          | ((DEPTH_MAX - quantized) << TRANSLUCENT_DEPTH_SHIFT)
+          | (program << TRANSLUCENT_PROGRAM_SHIFT)
+          | (mesh << TRANSLUCENT_MESH_SHIFT);
+    } else {
+      key = (program << OPAQUE_PROGRAM_SHIFT)
+          | (mesh << OPAQUE_MESH_SHIFT)
+          | (quantized << OPAQUE_DEPTH_SHIFT);
+    }
+    keys[count] = key | count;
+    programs[count] = programId;
+    meshes[count] = meshId;
+    items[count] = item;
+    count++;
+  }
+
+  /**
+   * Sorts the queued commands into draw order.
+   */
+  public void sort() {
+    long[] from = keys;
+    long[] to = scratch;
+    for (int shift = 0; shift < KEY_BITS; shift += RADIX_BITS) {
+      Arrays.fill(histogram, 0);
+      for (int i = 0; i < count; i++) {
+        histogram[(int) (from[i] >>> shift) & (RADIX - 1)]++;
+      }
+      // Skip the pass when every key has the same digit, which is common for the state bits.
+      if (count == 0 || histogram[(int) (from[0] >>> shift) & (RADIX - 1)] == count) {
+        continue;
+      }
+      int total = 0;
+      for (int b = 0; b < RADIX; b++) {
+        int c = histogram[b];
+        histogram[b] = total;
+        total += c;
+      }
+      for (int i = 0; i < count; i++) {
+        long key = from[i];
+        to[histogram[(int) (key >>> shift) & (RADIX - 1)]++] = key;
+      }
+      long[] swap = from;
+      from = to;
+      to = swap;
+    }
+    keys = from;
+    scratch = to;
+  }
+
+  public int size() {
+    return count;
+  }
+
+  /**
+   * @return The index, in submission order, of the {@code position}th command in draw order.
+   *     Only valid after {@link #sort()}.
+   */
+  public int getCommand(int position) {
+    return (int) (keys[position] & INDEX_MASK);
+  }
+
+  public int getProgramId(int command) {
+    return programs[command];
+  }
+
+  public int getMeshId(int command) {
+    return meshes[command];
+  }
+
+  public int getItem(int command) {
+    return items[command];
+  }
+
+  private long quantizeDepth(float depth) {
+    if (!(depth > 0f)) {
+      return 0;
+    }
+    if (depth >= maxDepth) {
+      return DEPTH_MAX;
+    }
+    return (long) (depth / maxDepth * DEPTH_MAX);
+  }
+
+  /**
+   * Makes room for {@code needed} commands, so submitting them allocates nothing.
+   */
+  public void ensureCapacity(int needed) {
+    if (needed <= keys.length) {
+      return;
+    }
+    int newCapacity = Math.max(needed, keys.length * 2);
+    keys = Arrays.copyOf(keys, newCapacity);
+    scratch = new long[newCapacity];
+    programs = Arrays.copyOf(programs, newCapacity);
+    meshes = Arrays.copyOf(meshes, newCapacity);
+    items = Arrays.copyOf(items, newCapacity);
+  }
+}
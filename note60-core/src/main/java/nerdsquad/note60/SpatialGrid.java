@@ -0,0 +1,271 @@
+package nerdsquad.note60;
+
+import java.util.Arrays;
+
+/**
+ * A sparse uniform grid over note positions, used to cull notes against the view frustum.
+ *
+ * <p>Only occupied cells exist; they are found through an open-addressing hash of their integer
+ * coordinates. Each cell keeps a compact list of note ids, and each note remembers its cell and
+ * slot, so {@link #insert} and {@link #remove} are constant time. Cells are kept once created,
+ * which bounds the table by the number of distinct cells ever used rather than churning it.
+ *
+ * <p>Culling visits each occupied cell once: cells entirely outside the frustum are skipped,
+ * cells entirely inside contribute all their notes, and only straddling cells test notes one by
+ * one. Queries allocate nothing. Not thread safe; owned by the GL thread.
+ */
+public class SpatialGrid {
+  /** Radius of a sphere bounding a note quad. */
+  public static final float NOTE_RADIUS = 1.42f;
+
+  private static final long EMPTY_KEY = Long.MIN_VALUE;
+  private static final int COORD_BITS = 21;
+  private static final int COORD_MASK = (1 << COORD_BITS) - 1;
+
+  private final float cellSize;
+
+  // Hash of cell key to cell index.
+  private long[] tableKeys;
+  private int[] tableCells;
+
+  // Cells, by index.
+  private int cellCount;
+  private int[] cellX = new int[16];
+  private int[] cellY = new int[16];
+  private int[] cellZ = new int[16];
+  private int[][] cellNotes = new int[16][];
+  private int[] cellSizes = new int[16];
+
+  // Notes, by id.
+  private float[] noteX = new float[64];
+  private float[] noteY = new float[64];
+  private float[] noteZ = new float[64];
+  private int[] noteCell = new int[64];
+  private int[] noteSlot = new int[64];
+  private int noteCount;
+
+  private int lastCulledCount;
+
+  /**
+   * @param cellSize Edge length of a grid cell, in world units.
+   */
+  public SpatialGrid(float cellSize) {
+    this.cellSize = cellSize;
+    tableKeys = new long[64];
+    tableCells = new int[64];
+    Arrays.fill(tableKeys, EMPTY_KEY);
+  }
+
+  /**
+   * Adds a note to the grid. Ids are expected to be small and dense, as handed out by
+   * {@link NoteStore}.
+   */
+  public void insert(int id, float x, float y, float z) {
+    ensureNoteCapacity(id + 1);
+    remove(id);
+    int cell = findOrCreateCell(cellCoord(x), cellCoord(y), cellCoord(z));
+    int size = cellSizes[cell];
+    int[] members = cellNotes[cell];
+    if (size == members.length) {
+      members = Arrays.copyOf(members, size * 2);
+      cellNotes[cell] = members;
+    }
+    members[size] = id;
+    cellSizes[cell] = size + 1;
+
+    noteX[id] = x;
+    noteY[id] = y;
+    noteZ[id] = z;
+    noteCell[id] = cell;
+    noteSlot[id] = size;
+    noteCount = Math.max(noteCount, id + 1);
+  }
+
+  /**
+   * Removes a note from the grid. Does nothing if the note isn't in it.
+   */
+  public void remove(int id) {
+    if (id >= noteCount || noteCell[id] < 0) {
+      return;
+    }
+    int cell = noteCell[id];
+    int slot = noteSlot[id];
+    int last = cellSizes[cell] - 1;
+    int[] members = cellNotes[cell];
+    int moved = members[last];
+    members[slot] = moved;
+    noteSlot[moved] = slot;
+    cellSizes[cell] = last;
+    noteCell[id] = -1;
+  }
+
+  /**
+   * Writes the ids of all notes that may be visible in {@code frustum} into {@code visible}.
+   *
+   * @param visible Destination; must have room for every note in the grid.
+   * @return The number of ids written.
+   */
+  public int cull(Frustum frustum, int[] visible) {
+    int count = 0;
+    int total = 0;
+    float pad = NOTE_RADIUS;
+    for (int cell = 0; cell < cellCount; cell++) {
+      int size = cellSizes[cell];
+      if (size == 0) {
+        continue;
+      }
+      total += size;
+      float minX = cellX[cell] * cellSize - pad;
+      float minY = cellY[cell] * cellSize - pad;
+      float minZ = cellZ[cell] * cellSize - pad;
+      float maxX = minX + cellSize + 2 * pad;
+      float maxY = minY + cellSize + 2 * pad;
+      float maxZ = minZ + cellSize + 2 * pad;
+      int[] members = cellNotes[cell];
+      switch (frustum.classifyBox(minX, minY, minZ, maxX, maxY, maxZ)) {
+        case Frustum.INSIDE:
+          System.arraycopy(members, 0, visible, count, size);
+          count += size;
+          break;
+        case Frustum.INTERSECTS:
+          for (int i = 0; i < size; i++) {
+            int id = members[i];
+            if (frustum.intersectsSphere(noteX[id], noteY[id], noteZ[id], NOTE_RADIUS)) {
+              visible[count++] = id;
+            }
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    lastCulledCount = total - count;
+    return count;
+  }
+
+  /**
+   * @return The number of notes culled by the last {@link #cull}.
+   */
+  public int getLastCulledCount() {
+    return lastCulledCount;
+  }
+
+  float getCellSize() {
+    return cellSize;
+  }
+
+  int cellCoord(float v) {
+    return (int) Math.floor(v / cellSize);
+  }
+
+  /**
+   * @return The index of the cell at the given cell coordinates, or -1 if it holds no notes.
+   */
+  int findCell(int x, int y, int z) {
+    int slot = probe(key(x, y, z));
+    if (tableKeys[slot] == EMPTY_KEY) {
+      return -1;
+    }
+    int cell = tableCells[slot];
+    return cellSizes[cell] > 0 ? cell : -1;
+  }
+
+  int[] getCellNotes(int cell) {
+    return cellNotes[cell];
+  }
+
+  int getCellNoteCount(int cell) {
+    return cellSizes[cell];
+  }
+
+  /**
+   * @return The table slot holding {@code key}, or the empty slot where it would go.
+   */
+  private int probe(long key) {
+    int mask = tableKeys.length - 1;
+    int slot = hash(key) & mask;
+    while (tableKeys[slot] != EMPTY_KEY && tableKeys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static long key(int x, int y, int z) {
+    return ((long) (x & COORD_MASK) << (2 * COORD_BITS))
+        | ((long) (y & COORD_MASK) << COORD_BITS)
+        | (z & COORD_MASK);
+  }
+
+  private int findOrCreateCell(int x, int y, int z) {
+    long key = key(x, y, z);
+    int slot = probe(key);
+    if (tableKeys[slot] == key) {
+      return tableCells[slot];
+    }
+
+    if (cellCount == cellX.length) {
+      int newLength = cellCount * 2;
+      cellX = Arrays.copyOf(cellX, newLength);
+      cellY = Arrays.copyOf(cellY, newLength);
+      cellZ = Arrays.copyOf(cellZ, newLength);
+      cellNotes = Arrays.copyOf(cellNotes, newLength);
+      cellSizes = Arrays.copyOf(cellSizes, newLength);
+    }
+    int cell = cellCount++;
+    cellX[cell] = x;
+    cellY[cell] = y;
+    cellZ[cell] = z;
+    cellNotes[cell] = new int[4];
+    cellSizes[cell] = 0;
+
+    tableKeys[slot] = key;
+    tableCells[slot] = cell;
+    // Keep the table at most half full.
+    if (cellCount * 2 > tableKeys.length) {
+      rehash(tableKeys.length * 2);
+    }
+    return cell;
+  }
+
+  private void rehash(int newLength) {
+    long[] oldKeys = tableKeys;
+    int[] oldCells = tableCells;
+    tableKeys = new long[newLength];
+    tableCells = new int[newLength];
+    Arrays.fill(tableKeys, EMPTY_KEY);
+    int mask = newLength - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] == EMPTY_KEY) {
+        continue;
+      }
+      int slot = hash(oldKeys[i]) & mask;
+      while (tableKeys[slot] != EMPTY_KEY) {
+        slot = (slot + 1) & mask;
+      }
+      tableKeys[slot] = oldKeys[i];
+      tableCells[slot] = oldCells[i];
+    }
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private void ensureNoteCapacity(int needed) {
+    int length = noteCell.length;
+    if (needed <= length) {
+      if (needed > noteCount) {
+        Arrays.fill(noteCell, noteCount, needed, -1);
+      }
+      return;
+    }
+    int newLength = Math.max(needed, length * 2);
+    noteX = Arrays.copyOf(noteX, newLength);
+    noteY = Arrays.copyOf(noteY, newLength);
+    noteZ = Arrays.copyOf(noteZ, newLength);
+    noteCell = Arrays.copyOf(noteCell, newLength);
+    noteSlot = Arrays.copyOf(noteSlot, newLength);
+    Arrays.fill(noteCell, noteCount, newLength, -1);
+  }
+}
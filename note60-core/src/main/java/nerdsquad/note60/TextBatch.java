@@ -0,0 +1,306 @@
+package nerdsquad.note60;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The per-frame text of the visible notes, packed into one vertex batch from layouts cached per
+ * note.
+ *
+ * <p>Layouts are made on the {@link NotePreparer} workers. A new note brings the layout made while
+ * it was prepared, handed over with {@link #setLayout}. A layout is current while the note's
+ * message version ({@link NoteStore#getMessageVersion}) and the atlas generation it was made
+ * against are those of the frame; {@link #pack} sends the messages of notes without a current
+ * layout to the workers, once per message version and atlas generation, and leaves their text
+ * out until the layout comes back. {@link #takeFinishedLayouts} caches at most
+ * {@code uploadBudget} finished layouts per call, so a new workspace or an atlas that starts over
+ * fills in over a few frames rather than growing one upload all at once.
+ *
+ * <p>Each glyph packs as two triangles of x, y, z, u, v vertices, in world space. Apart from the
+ * callbacks the workers queue, must be used on one thread, the GL thread in the app.
+ */
+public class TextBatch {
+  public static final int VERTICES_PER_GLYPH = 6;
+  /** Batch: x, y, z, u, v per vertex. */
+  public static final int FLOATS_PER_VERTEX = 5;
+
+  // Lifts the text off the note so it doesn't z-fight with it.
+  private static final float TEXT_Z = 0.01f;
+
+  private final NotePreparer preparer;
+  private final int uploadBudget;
+
+  // Layout cache, indexed by note id.
+  private NoteStore cachedStore;
+  private TextLayout[] layouts = new TextLayout[64];
+  private int[] layoutVersions = new int[64];
+  // The message version and atlas generation each note's last layout request was made for.
+  private int[] requestedVersions = new int[64];
+  private int[] requestedGenerations = new int[64];
+  private final ConcurrentLinkedQueue<LayoutRequest> finished =
+      new ConcurrentLinkedQueue<LayoutRequest>();
+
+  private FloatBuffer data;
+  private int capacity;
+  private boolean tookLayouts;
+  private boolean requestedLayouts;
+
+  /**
+   * @param preparer Lays out messages on its workers.
+   * @param uploadBudget The most finished layouts cached per {@link #takeFinishedLayouts} call.
+   */
+  public TextBatch(NotePreparer preparer, int uploadBudget) {
+    this.preparer = preparer;
+    this.uploadBudget = uploadBudget;
+  }
+
+  /**
+   * Caches a layout made off this thread, such as a {@link NotePreparer.PreparedNote}'s, for the
+   * note's current message.
+   *
+   * @param layout The layout, or null to leave the note to be laid out when it is drawn.
+   */
+  public void setLayout(NoteStore notes, int id, TextLayout layout) {
+    if (layout == null) {
+      return;
+    }
+    useStore(notes);
+    ensureCacheCapacity(id + 1);
+    layouts[id] = layout;
+    layoutVersions[id] = notes.getMessageVersion(id);
+  }
+
+  /**
+   * Drops a note's cached layout once the note has left the store.
+   */
+  public void forgetLayout(int id) {
+    if (id < layouts.length) {
+      layouts[id] = null;
+      layoutVersions[id] = 0;
+    }
+  }
+
+  /**
+   * @return Whether the last {@link #takeFinishedLayouts} cached a layout or the last
+   *     {@link #pack} sent messages to the workers: new text, which may grow the cache and the
+   *     batch, so work expected to allocate.
+   */
+  public boolean haveLayoutsChanged() {
+    return tookLayouts || requestedLayouts;
+  }
+
+  /**
+   * Caches finished layouts, up to the upload budget. Called before the glyphs the layouts use
+   * are uploaded, so none is adopted for glyphs not yet on the GPU.
+   */
+  public void takeFinishedLayouts(NoteStore notes) {
+    useStore(notes);
+    tookLayouts = false;
+    for (int i = 0; i < uploadBudget; i++) {
+      LayoutRequest request = finished.poll();
+      if (request == null) {
+        break;
+      }
+      tookLayouts |= adopt(request);
+    }
+  }
+
+  /**
+   * Sends the messages of notes without a current layout to the workers, and packs the text of
+   * the others, back to front, replacing what the last call packed.
+   *
+   * @param notes The note store.
+   * @param ids The ids of the notes to draw, front to back.
+   * @param count The number of ids in {@code ids}.
+   * @param atlasGeneration The atlas generation on the GPU.
+   * @return The number of glyphs packed.
+   */
+  public int pack(NoteStore notes, int[] ids, int count, int atlasGeneration) {
+    useStore(notes);
+    requestedLayouts = false;
+    int glyphs = 0;
+    for (int i = 0; i < count; i++) {
+      int id = ids[i];
+      if (isLayoutCurrent(notes, id, atlasGeneration)) {
+        glyphs += layouts[id].glyphCount;
+      } else {
+        requestLayout(notes, id, atlasGeneration);
+      }
+    }
+    ensureCapacity(glyphs);
+    data.clear();
+    float[] models = notes.getModels();
+    // Back to front, so overlapping text blends correctly.
+    for (int i = count - 1; i >= 0; i--) {
+      int id = ids[i];
+      if (isLayoutCurrent(notes, id, atlasGeneration)) {
+        transformLayout(layouts[id], models, id * Note.MODEL_STRIDE);
+      }
+    }
+    data.flip();
+    return glyphs;
+  }
+
+  /**
+   * @return The vertices packed by the last {@link #pack} call, from position 0 to its limit.
+   */
+  public FloatBuffer getData() {
+    return data;
+  }
+
+  /**
+   * @return Whether the note's cached layout matches its message and the given atlas generation.
+   */
+  private boolean isLayoutCurrent(NoteStore notes, int id, int generation) {
+    ensureCacheCapacity(id + 1);
+    return layoutVersions[id] == notes.getMessageVersion(id)
+        && layouts[id].atlasGeneration == generation;
+  }
+
+  /**
+   * Sends the note's message to the workers, unless it already went for this message and atlas
+   * generation.
+   */
+  private void requestLayout(NoteStore notes, int id, int generation) {
+    int version = notes.getMessageVersion(id);
+    if (requestedVersions[id] == version && requestedGenerations[id] == generation) {
+      return;
+    }
+    requestedVersions[id] = version;
+    requestedGenerations[id] = generation;
+    requestedLayouts = true;
+    preparer.layout(notes.getMessage(id), new LayoutRequest(notes, id, version));
+  }
+
+  /**
+   * Caches a finished layout if it is still for the note's message and no older than the cached
+   * one.
+   *
+   * @return Whether the layout was cached.
+   */
+  private boolean adopt(LayoutRequest request) {
+    NoteStore notes = request.notes;
+    int id = request.id;
+    if (notes != cachedStore || id >= notes.getIdBound() || !notes.isAlive(id)
+        || notes.getMessageVersion(id) != request.version) {
+      return false;
+    }
+    ensureCacheCapacity(id + 1);
+    if (layoutVersions[id] == request.version
+        && layouts[id].atlasGeneration > request.layout.atlasGeneration) {
+      return false;
+    }
+    layouts[id] = request.layout;
+    layoutVersions[id] = request.version;
+    return true;
+  }
+
+  private void useStore(NoteStore notes) {
+    if (notes != cachedStore) {
+      // Ids mean different notes in another store.
+      cachedStore = notes;
+      Arrays.fill(layouts, null);
+      Arrays.fill(layoutVersions, 0);
+      Arrays.fill(requestedVersions, 0);
+    }
+  }
+
+  /**
+   * Appends a cached layout to the batch, two triangles per glyph, transformed into world space
+   * by the matrix at {@code m}.
+   */
+  private void transformLayout(TextLayout layout, float[] model, int m) {
+    float[] rects = layout.rects;
+    int floats = layout.glyphCount * TextLayout.FLOATS_PER_GLYPH;
+    // The z column is constant for every vertex.
+    float zx = model[m + 8] * TEXT_Z + model[m + 12];
+    float zy = model[m + 9] * TEXT_Z + model[m + 13];
+    float zz = model[m + 10] * TEXT_Z + model[m + 14];
+    for (int r = 0; r < floats; r += TextLayout.FLOATS_PER_GLYPH) {
+      float left = rects[r];
+      float top = rects[r + 1];
+      float right = rects[r + 2];
+      float bottom = rects[r + 3];
+      float u0 = rects[r + 4];
+      float v0 = rects[r + 5];
+      float u1 = rects[r + 6];
+      float v1 = rects[r + 7];
+      // Corners a to d: top left, bottom left, bottom right, top right.
+      float ax = model[m] * left + model[m + 4] * top + zx;
+      float ay = model[m + 1] * left + model[m + 5] * top + zy;
+      float az = model[m + 2] * left + model[m + 6] * top + zz;
+      float bx = model[m] * left + model[m + 4] * bottom + zx;
+      float by = model[m + 1] * left + model[m + 5] * bottom + zy;
+      float bz = model[m + 2] * left + model[m + 6] * bottom + zz;
+      float cx = model[m] * right + model[m + 4] * bottom + zx;
+      float cy = model[m + 1] * right + model[m + 5] * bottom + zy;
+      float cz = model[m + 2] * right + model[m + 6] * bottom + zz;
+      float dx = model[m] * right + model[m + 4] * top + zx;
+      float dy = model[m + 1] * right + model[m + 5] * top + zy;
+      float dz = model[m + 2] * right + model[m + 6] * top + zz;
+      putVertex(ax, ay, az, u0, v0);
+      putVertex(bx, by, bz, u0, v1);
+      putVertex(cx, cy, cz, u1, v1);
+      putVertex(ax, ay, az, u0, v0);
+      putVertex(cx, cy, cz, u1, v1);
+      putVertex(dx, dy, dz, u1, v0);
+    }
+  }
+
+  private void putVertex(float x, float y, float z, float u, float v) {
+    data.put(x);
+    data.put(y);
+    data.put(z);
+    data.put(u);
+    data.put(v);
+  }
+
+  private void ensureCacheCapacity(int needed) {
+    if (needed <= layouts.length) {
+      return;
+    }
+    int newLength = Math.max(needed, layouts.length * 2);
+    layouts = Arrays.copyOf(layouts, newLength);
+    layoutVersions = Arrays.copyOf(layoutVersions, newLength);
+    requestedVersions = Arrays.copyOf(requestedVersions, newLength);
+    requestedGenerations = Arrays.copyOf(requestedGenerations, newLength);
+  }
+
+  /**
+   * Grows the batch so it can hold at least {@code glyphs} glyphs.
+   */
+  private void ensureCapacity(int glyphs) {
+    if (glyphs <= capacity && data != null) {
+      return;
+    }
+    int newCapacity = Math.max(glyphs, Math.max(256, capacity * 2));
+    data = ByteBuffer.allocateDirect(newCapacity * VERTICES_PER_GLYPH * FLOATS_PER_VERTEX * 4)
+        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    capacity = newCapacity;
+  }
+
+  /**
+   * A message out with the workers, queued back once laid out.
+   */
+  private final class LayoutRequest implements NotePreparer.LayoutCallback {
+    final NoteStore notes;
+    final int id;
+    final int version;
+    TextLayout layout;
+
+    LayoutRequest(NoteStore notes, int id, int version) {
+      this.notes = notes;
+      this.id = id;
+      this.version = version;
+    }
+
+    @Override
+    public void onLaidOut(TextLayout layout) {
+      this.layout = layout;
+      finished.add(this);
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package nerdsquad.note60;
+
+/**
+ * A message laid out into glyph rectangles in a note's own space, ready to be transformed and
+ * uploaded.
+ *
+ * <p>Each glyph is {@link #FLOATS_PER_GLYPH} floats in {@link #rects}: its left, top, right and
+ * bottom edges in note space, then its u0, v0, u1, v1 texture coordinates in the glyph atlas.
+ * The texture coordinates hold only for the atlas generation the layout was made against, in
+ * {@link #atlasGeneration}. Never modified once built, so it can be handed between threads.
+ */
+public final class TextLayout {
+  public static final int FLOATS_PER_GLYPH = 8;
+
+  public final float[] rects;
+  public final int glyphCount;
+  public final int atlasGeneration;
+
+  /**
+   * @param rects The glyph rectangles, {@link #FLOATS_PER_GLYPH} floats per glyph. Not copied.
+   */
+  public TextLayout(float[] rects, int glyphCount, int atlasGeneration) {
+    this.rects = rects;
+    this.glyphCount = glyphCount;
+    this.atlasGeneration = atlasGeneration;
+  }
+}
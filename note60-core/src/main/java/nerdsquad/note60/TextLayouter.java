@@ -0,0 +1,11 @@
+package nerdsquad.note60;
+
+/**
+ * Lays note messages out into {@link TextLayout}s.
+ *
+ * <p>Called on the {@link NotePreparer} workers, several at a time, so implementations must be
+ * thread-safe.
+ */
+public interface TextLayouter {
+  TextLayout layout(String message);
+}
@@ -0,0 +1,48 @@
+package nerdsquad.note60;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every task on the calling thread as it is submitted, so a replay does the same work in
+ * the same frame every time.
+ */
+class DirectExecutorService extends AbstractExecutorService {
+  private volatile boolean shutdown;
+
+  @Override
+  public void execute(Runnable command) {
+    if (shutdown) {
+      throw new IllegalStateException("Shut down");
+    }
+    command.run();
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown = true;
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    shutdown = true;
+    return Collections.emptyList();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return shutdown;
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) {
+    return shutdown;
+  }
+}
@@ -0,0 +1,60 @@
+package nerdsquad.note60;
+
+import java.util.Arrays;
+
+/**
+ * Lays messages out as the app's {@code NoteTextLayouter} does, but with every glyph the same
+ * size and an atlas that never changes, so a replay lays out the same glyphs without fonts or a
+ * GPU.
+ *
+ * <p>Every layout is for atlas generation 0. Thread-safe, as it keeps no state.
+ */
+class FixedPitchLayouter implements TextLayouter {
+  // Matching NoteTextLayouter's note-space layout.
+  private static final float TEXT_LEFT = -0.9f;
+  private static final float TEXT_RIGHT = 0.9f;
+  private static final float TEXT_TOP = 0.9f;
+  private static final float LINE_HEIGHT = 0.2f;
+  private static final int MAX_LINES = 9;
+  private static final float ADVANCE = 0.1f;
+  // A 16x16 grid of glyph cells in the stand-in atlas, one per code point modulo 256.
+  private static final int ATLAS_CELLS = 16;
+
+  @Override
+  public TextLayout layout(String message) {
+    float[] rects = new float[message.length() * TextLayout.FLOATS_PER_GLYPH];
+    float cell = 1.0f / ATLAS_CELLS;
+    float penX = TEXT_LEFT;
+    float top = TEXT_TOP;
+    int line = 0;
+    int glyphs = 0;
+    for (int i = 0; i < message.length() && line < MAX_LINES; ) {
+      int codePoint = message.codePointAt(i);
+      i += Character.charCount(codePoint);
+      if (codePoint == '\n' || penX + ADVANCE > TEXT_RIGHT) {
+        penX = TEXT_LEFT;
+        top -= LINE_HEIGHT;
+        if (++line == MAX_LINES || codePoint == '\n') {
+          continue;
+        }
+      }
+      if (!Character.isWhitespace(codePoint)) {
+        int r = glyphs * TextLayout.FLOATS_PER_GLYPH;
+        float u = (codePoint % ATLAS_CELLS) * cell;
+        float v = ((codePoint / ATLAS_CELLS) % ATLAS_CELLS) * cell;
+        rects[r] = penX;
+        rects[r + 1] = top;
+        rects[r + 2] = penX + ADVANCE;
+        rects[r + 3] = top - LINE_HEIGHT;
+        rects[r + 4] = u;
+        rects[r + 5] = v;
+        rects[r + 6] = u + cell;
+        rects[r + 7] = v + cell;
+        glyphs++;
+      }
+      penX += ADVANCE;
+    }
+    return new TextLayout(
+        Arrays.copyOf(rects, glyphs * TextLayout.FLOATS_PER_GLYPH), glyphs, 0);
+  }
+}
@@ -0,0 +1,64 @@
+package nerdsquad.note60;
+
+import java.util.Random;
+
+/**
+ * A {@link NoteWorld} held entirely in the store, with nothing saved. Stands in for the chunked
+ * workspace when replaying.
+ */
+class MemoryWorld implements NoteWorld {
+  private final NoteStore store;
+  private final SpatialGrid grid;
+
+  MemoryWorld(NoteStore store, SpatialGrid grid) {
+    this.store = store;
+    this.grid = grid;
+  }
+
+  /**
+   * Scatters {@code count} notes around the viewer, facing it. The same count always gives the
+   * same notes.
+   *
+   * @param radius How far from the viewer notes may be.
+   */
+  void scatter(int count, float radius) {
+    Random random = new Random(count);
+    for (int i = 0; i < count; i++) {
+      double angle = random.nextDouble() * 2 * Math.PI;
+      double distance = 2.0 + Math.sqrt(random.nextDouble()) * (radius - 2.0);
+      float x = (float) (Math.cos(angle) * distance);
+      float y = (float) (random.nextGaussian() * 1.5);
+      float z = (float) (Math.sin(angle) * distance);
+      int id = store.add("Note " + i, x, y, z, Note.faceOriginYaw(x, z));
+      grid.insert(id, x, y, z);
+    }
+  }
+
+  @Override
+  public boolean update(float headX, float headZ, float[] forward, long budgetNanos) {
+    return false;
+  }
+
+  @Override
+  public boolean isSettled() {
+    return true;
+  }
+
+  @Override
+  public boolean hasStartedLoads() {
+    return false;
+  }
+
+  @Override
+  public int add(NotePreparer.PreparedNote note) {
+    int id = store.add(note.message, note.x, note.y, note.z, note.yaw, note.model, 0);
+    grid.insert(id, note.x, note.y, note.z);
+    return id;
+  }
+
+  @Override
+  public void remove(int id) {
+    grid.remove(id);
+    store.remove(id);
+  }
+}
@@ -0,0 +1,50 @@
+package nerdsquad.note60;
+
+import java.util.Random;
+
+/**
+ * Runs a {@link QualityGovernor} through a simulated thermal throttle and prints every level
+ * change, to check how quickly it gives quality up and how calmly it takes it back.
+ *
+ * <p>Frames cost less at cheaper levels and more as the phone throttles: the throttle ramps up
+ * over the first minute, holds for a minute, and eases off over the next. Frame times are seeded,
+ * so every run prints the same.
+ *
+ * <p>Usage: {@code QualityReplay [seconds]}, three minutes by default.
+ */
+public final class QualityReplay {
+  private static final int FRAMES_PER_SECOND = 60;
+  private static final long BUDGET_NANOS = 12000000L;
+  // Frame time at each level before throttling.
+  private static final long[] LEVEL_NANOS = {9000000L, 7500000L, 6000000L, 5000000L, 4000000L};
+  // How much slower the throttled phone runs at the peak.
+  private static final double PEAK_THROTTLE = 1.8;
+  private static final double JITTER = 0.08;
+
+  private QualityReplay() {}
+
+  public static void main(String[] args) {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 180;
+    QualityGovernor governor = new QualityGovernor(BUDGET_NANOS);
+    Random random = new Random(seconds);
+    long slowFrames = 0;
+    int frames = seconds * FRAMES_PER_SECOND;
+    for (int frame = 0; frame < frames; frame++) {
+      double minute = frame / (60.0 * FRAMES_PER_SECOND);
+      double heat = Math.max(0.0, Math.min(Math.min(minute, 1.0), 3.0 - minute));
+      double throttle = 1.0 + (PEAK_THROTTLE - 1.0) * Math.min(heat, 1.0);
+      long frameNanos = (long) (LEVEL_NANOS[governor.getLevel()] * throttle
+          * (1.0 + random.nextGaussian() * JITTER));
+      if (frameNanos > BUDGET_NANOS) {
+        slowFrames++;
+      }
+      if (governor.onFrame(frameNanos)) {
+        System.out.println(String.format("%6.1f s  throttle %.2f  level %d",
+            (double) frame / FRAMES_PER_SECOND, throttle, governor.getLevel()));
+      }
+    }
+    System.out.println(String.format("%d frames, %d over budget (%.2f%%), %d steps down, %d up",
+        frames, slowFrames, 100.0 * slowFrames / frames, governor.getStepDownCount(),
+        governor.getStepUpCount()));
+  }
+}
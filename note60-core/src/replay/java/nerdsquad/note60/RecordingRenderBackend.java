@@ -0,0 +1,173 @@
+package nerdsquad.note60;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A {@link RenderBackend} that draws nothing and counts what it was asked to draw.
+ *
+ * <p>Uploads are packed as the app's renderers pack them, with the same {@link NoteBatch}es and
+ * {@link TextBatch}es, so a replay measures the CPU side of every upload; only the GL calls are
+ * left out. Notes are packed instanced, and text against an atlas that never changes, as a
+ * {@link FixedPitchLayouter} lays it out.
+ */
+class RecordingRenderBackend implements RenderBackend {
+  static final int PREPARE_NOTES = 0;
+  static final int PREPARE_BADGES = 1;
+  static final int BEGIN_EYE = 2;
+  static final int DRAW_FLOOR = 3;
+  static final int DRAW_NOTES = 4;
+  static final int DRAW_BADGES = 5;
+  static final int DRAW_TEXT = 6;
+  static final int DRAW_HUD = 7;
+  static final int CALL_COUNT = 8;
+
+  static final String[] CALL_NAMES = {
+      "prepareNotes", "prepareBadges", "beginEye", "drawFloor", "drawNotes", "drawBadges",
+      "drawText", "drawHud"
+  };
+
+  private static final boolean[] NO_HIGHLIGHTS = new boolean[0];
+  // The generation of FixedPitchLayouter's atlas.
+  private static final int ATLAS_GENERATION = 0;
+
+  private final long[] calls = new long[CALL_COUNT];
+  private final NoteBatch noteBatch = new NoteBatch(true);
+  private final TextBatch noteText;
+  private final NoteBatch badgeBatch = new NoteBatch(true);
+  private final TextBatch badgeText;
+  private long notesUploaded;
+  private long badgesUploaded;
+  private long glyphsUploaded;
+  // Reads every upload, so the packing can't be skipped as dead code.
+  private float checksum;
+
+  /**
+   * @param preparer Lays out messages for the text batches.
+   * @param uploadBudget The most newly laid out messages each text batch takes in per frame.
+   */
+  RecordingRenderBackend(NotePreparer preparer, int uploadBudget) {
+    noteText = new TextBatch(preparer, uploadBudget);
+    badgeText = new TextBatch(preparer, uploadBudget);
+  }
+
+  /**
+   * Caches the layout a new note was prepared with, as the app does when it adds the note.
+   */
+  void setLayout(NoteStore notes, int id, TextLayout layout) {
+    noteText.setLayout(notes, id, layout);
+  }
+
+  /**
+   * Drops a note's cached layout once the note has left the store.
+   */
+  void forgetLayout(int id) {
+    noteText.forgetLayout(id);
+  }
+
+  /**
+   * @return Whether the last frame took in finished layouts or sent messages to be laid out,
+   *     work expected to allocate.
+   */
+  boolean haveLayoutsChanged() {
+    return noteText.haveLayoutsChanged() || badgeText.haveLayoutsChanged();
+  }
+
+  @Override
+  public void prepareNotes(NoteStore notes, int[] ids, int count, int textCount,
+      boolean[] highlighted) {
+    calls[PREPARE_NOTES]++;
+    notesUploaded += count;
+    noteBatch.pack(notes, ids, count, highlighted);
+    checksum += sum(noteBatch.getData());
+    noteText.takeFinishedLayouts(notes);
+    glyphsUploaded += noteText.pack(notes, ids, textCount, ATLAS_GENERATION);
+    checksum += sum(noteText.getData());
+  }
+
+  @Override
+  public void prepareBadges(NoteStore badges, int[] ids, int count) {
+    calls[PREPARE_BADGES]++;
+    badgesUploaded += count;
+    badgeBatch.pack(badges, ids, count, NO_HIGHLIGHTS);
+    checksum += sum(badgeBatch.getData());
+    badgeText.takeFinishedLayouts(badges);
+    glyphsUploaded += badgeText.pack(badges, ids, count, ATLAS_GENERATION);
+    checksum += sum(badgeText.getData());
+  }
+
+  @Override
+  public void beginEye() {
+    calls[BEGIN_EYE]++;
+  }
+
+  @Override
+  public void drawFloor(float[] lightPosInEyeSpace, float[] model, float[] modelView,
+      float[] modelViewProjection) {
+    calls[DRAW_FLOOR]++;
+  }
+
+  @Override
+  public void drawNotes(float[] view, float[] perspective, float[] lightPosInEyeSpace) {
+    calls[DRAW_NOTES]++;
+  }
+
+  @Override
+  public void drawBadges(float[] view, float[] perspective, float[] lightPosInEyeSpace) {
+    calls[DRAW_BADGES]++;
+  }
+
+  @Override
+  public void drawText(float[] view, float[] perspective) {
+    calls[DRAW_TEXT]++;
+  }
+
+  @Override
+  public void drawHud(int eyeType, int viewportWidth, int viewportHeight) {
+    calls[DRAW_HUD]++;
+  }
+
+  long getCalls(int call) {
+    return calls[call];
+  }
+
+  long getTotalCalls() {
+    long total = 0;
+    for (long count : calls) {
+      total += count;
+    }
+    return total;
+  }
+
+  /**
+   * @return The number of notes passed to {@link #prepareNotes}, over all frames.
+   */
+  long getNotesUploaded() {
+    return notesUploaded;
+  }
+
+  /**
+   * @return The number of badges passed to {@link #prepareBadges}, over all frames.
+   */
+  long getBadgesUploaded() {
+    return badgesUploaded;
+  }
+
+  /**
+   * @return The number of glyphs packed for notes and badges, over all frames.
+   */
+  long getGlyphsUploaded() {
+    return glyphsUploaded;
+  }
+
+  float getChecksum() {
+    return checksum;
+  }
+
+  /**
+   * @return The first and last float packed, enough to keep the packing live.
+   */
+  private static float sum(FloatBuffer data) {
+    int limit = data.limit();
+    return limit == 0 ? 0.0f : data.get(0) + data.get(limit - 1);
+  }
+}
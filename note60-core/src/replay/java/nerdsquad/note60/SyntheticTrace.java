@@ -0,0 +1,79 @@
+package nerdsquad.note60;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes a made-up {@link FrameTrace}: a 60 Hz session of someone looking slowly left and right,
+ * up and down, pulling the trigger every one and a half seconds. Stands in for a recorded trace
+ * where none is at hand.
+ *
+ * <p>Usage: {@code SyntheticTrace <file> [frames]}.
+ */
+public final class SyntheticTrace {
+  private static final long FRAME_NANOS = 1000000000L / 60;
+  private static final int TRIGGER_INTERVAL_FRAMES = 90;
+  // A typical viewer: 40 degrees to each side, eyes 6 cm apart, 1920x1080 split between them.
+  private static final float FOV = 40.0f;
+  private static final float EYE_OFFSET = 0.03f;
+  private static final int VIEWPORT_WIDTH = 960;
+  private static final int VIEWPORT_HEIGHT = 1080;
+  // Eye.Type.LEFT and Eye.Type.RIGHT.
+  private static final int LEFT = 1;
+  private static final int RIGHT = 2;
+
+  private SyntheticTrace() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: SyntheticTrace <file> [frames]");
+      System.exit(2);
+    }
+    write(new File(args[0]), args.length > 1 ? Integer.parseInt(args[1]) : 3600);
+  }
+
+  static void write(File file, int frames) throws IOException {
+    FrameTrace.Frame frame = new FrameTrace.Frame();
+    float tan = (float) Math.tan(Math.toRadians(FOV));
+    for (int eye = 0; eye < FrameTrace.EYES; eye++) {
+      frame.eyeTypes[eye] = eye == 0 ? LEFT : RIGHT;
+      frame.viewports[eye * 2] = VIEWPORT_WIDTH;
+      frame.viewports[eye * 2 + 1] = VIEWPORT_HEIGHT;
+      for (int i = 0; i < 4; i++) {
+        frame.fovs[eye * 4 + i] = FOV;
+      }
+      MatrixMath.frustumM(frame.perspectives[eye], 0, -NoteScene.Z_NEAR * tan,
+          NoteScene.Z_NEAR * tan, -NoteScene.Z_NEAR * tan, NoteScene.Z_NEAR * tan,
+          NoteScene.Z_NEAR, NoteScene.Z_FAR);
+    }
+
+    float[] eyeShift = new float[16];
+    FrameTrace.Writer writer = new FrameTrace.Writer(file);
+    try {
+      for (int f = 0; f < frames; f++) {
+        double seconds = f / 60.0;
+        float yaw = (float) (90.0 * Math.sin(seconds * 2 * Math.PI / 20.0));
+        float pitch = (float) (20.0 * Math.sin(seconds * 2 * Math.PI / 7.0));
+        frame.timeNanos = f * FRAME_NANOS;
+        frame.triggers = f > 0 && f % TRIGGER_INTERVAL_FRAMES == 0 ? 1 : 0;
+
+        // The head view takes world coordinates into the head's; the head looks down its -z.
+        MatrixMath.setIdentityM(frame.headView, 0);
+        MatrixMath.rotateM(frame.headView, 0, -pitch, 1.0f, 0.0f, 0.0f);
+        MatrixMath.rotateM(frame.headView, 0, -yaw, 0.0f, 1.0f, 0.0f);
+        frame.forward[0] = -frame.headView[2];
+        frame.forward[1] = -frame.headView[6];
+        frame.forward[2] = -frame.headView[10];
+
+        for (int eye = 0; eye < FrameTrace.EYES; eye++) {
+          MatrixMath.setIdentityM(eyeShift, 0);
+          MatrixMath.translateM(eyeShift, 0, eye == 0 ? EYE_OFFSET : -EYE_OFFSET, 0.0f, 0.0f);
+          MatrixMath.multiplyMM(frame.eyeViews[eye], 0, eyeShift, 0, frame.headView, 0);
+        }
+        writer.write(frame);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+}
@@ -0,0 +1,374 @@
+package nerdsquad.note60;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Replays a {@link FrameTrace} through {@link NoteScene} without a GPU, and reports what the
+ * frames cost: CPU time, render backend calls and allocations.
+ *
+ * <p>The scene runs as it does in the app, with stand-ins that make a replay repeatable: a
+ * generated workspace of each requested size, held in a {@link MemoryWorld} or saved and streamed
+ * by a {@link ChunkedWorld} as in the app, a {@link RecordingRenderBackend} that packs every
+ * upload as the app's renderers do, text laid out by a {@link FixedPitchLayouter}, and note
+ * preparation, text layout and chunk I/O on the replaying thread. The scene's clock is the
+ * trace's. Each workspace size is replayed once to warm up, then once measured from a fresh
+ * start.
+ *
+ * <p>Usage: {@code TraceReplay [-chunked] <trace | synthetic> [note counts...]}. "synthetic"
+ * replays a {@link SyntheticTrace}; the default note counts are 10, 1000 and 100000. -chunked
+ * streams the workspace through a {@link ChunkedWorld}.
+ */
+public final class TraceReplay {
+  // Matching MainActivity.
+  private static final float GRID_CELL_SIZE = 4.0f;
+  private static final int NOTE_INGEST_BUDGET = 4;
+  private static final int TEXT_UPLOAD_BUDGET = 8;
+  // How far from the viewer generated notes are scattered, about as far as the view reaches.
+  private static final float FIELD_RADIUS = 80.0f;
+  private static final int SYNTHETIC_FRAMES = 3600;
+  private static final int[] DEFAULT_NOTE_COUNTS = {10, 1000, 100000};
+  private static final int MAX_RESIDENT_NOTES = 20000;
+
+  private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationBean();
+  private static final long ALLOCATION_OVERHEAD = measureAllocationOverhead();
+
+  private TraceReplay() {}
+
+  public static void main(String[] args) throws IOException {
+    boolean chunked = args.length > 0 && args[0].equals("-chunked");
+    if (chunked) {
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+    if (args.length < 1) {
+      System.err.println("Usage: TraceReplay [-chunked] <trace | synthetic> [note counts...]");
+      System.exit(2);
+    }
+    File trace;
+    if (args[0].equals("synthetic")) {
+      trace = File.createTempFile("note60-synthetic", ".trace");
+      trace.deleteOnExit();
+      SyntheticTrace.write(trace, SYNTHETIC_FRAMES);
+    } else {
+      trace = new File(args[0]);
+    }
+    int[] noteCounts = DEFAULT_NOTE_COUNTS;
+    if (args.length > 1) {
+      noteCounts = new int[args.length - 1];
+      for (int i = 1; i < args.length; i++) {
+        noteCounts[i - 1] = Integer.parseInt(args[i]);
+      }
+    }
+    if (ALLOCATIONS == null) {
+      System.out.println("This JVM does not count allocations; allocation figures are 0.");
+    }
+
+    for (int noteCount : noteCounts) {
+      replay(trace, noteCount, chunked, new Report());
+      Report report = new Report();
+      replay(trace, noteCount, chunked, report);
+      report.print(System.out, noteCount);
+    }
+  }
+
+  /**
+   * Replays {@code trace} once over a fresh workspace of {@code noteCount} notes.
+   *
+   * @param chunked Whether to save the workspace and stream it through a {@link ChunkedWorld},
+   *     rather than hold it all in a {@link MemoryWorld}.
+   */
+  static void replay(File trace, int noteCount, boolean chunked, Report report)
+      throws IOException {
+    NoteStore notes = new NoteStore(Math.max(1, noteCount));
+    SpatialGrid grid = new SpatialGrid(GRID_CELL_SIZE);
+    NoteClusters clusters = new NoteClusters(notes);
+    notes.addListener(clusters);
+    SelectThenDelete listener = new SelectThenDelete(notes);
+    File workspace = null;
+    NoteWorld world;
+    if (chunked) {
+      workspace = File.createTempFile("note60-workspace", "");
+      workspace.delete();
+      workspace.mkdirs();
+      saveLegacyWorkspace(workspace, noteCount);
+      ChunkedWorld chunkedWorld = new ChunkedWorld(workspace, notes, grid,
+          new DirectExecutorService(), listener, MAX_RESIDENT_NOTES);
+      chunkedWorld.migrateLegacyWorkspace();
+      world = chunkedWorld;
+    } else {
+      MemoryWorld memoryWorld = new MemoryWorld(notes, grid);
+      memoryWorld.scatter(noteCount, FIELD_RADIUS);
+      world = memoryWorld;
+    }
+    NotePreparer preparer =
+        new NotePreparer(new DirectExecutorService(), new FixedPitchLayouter());
+    RecordingRenderBackend backend = new RecordingRenderBackend(preparer, TEXT_UPLOAD_BUDGET);
+    FrameTelemetry telemetry = new FrameTelemetry();
+    NoteScene scene = new NoteScene(notes, grid, clusters, world, preparer, backend, telemetry,
+        listener, NOTE_INGEST_BUDGET);
+    listener.scene = scene;
+    listener.backend = backend;
+
+    FrameTrace.Frame frame = new FrameTrace.Frame();
+    FrameTrace.Reader reader = new FrameTrace.Reader(trace);
+    try {
+      while (reader.next(frame)) {
+        // Pulls reach the scene between frames, as they do from the UI thread.
+        for (int i = 0; i < frame.triggers; i++) {
+          scene.onTrigger();
+        }
+        long allocatedBefore = allocatedBytes();
+        long begin = System.nanoTime();
+        telemetry.beginFrame();
+        scene.onNewFrame(frame.headView, frame.forward, frame.timeNanos);
+        long drawBegin = System.nanoTime();
+        for (int eye = 0; eye < FrameTrace.EYES; eye++) {
+          scene.onDrawEye(frame.eyeTypes[eye], frame.eyeViews[eye], frame.perspectives[eye],
+              frame.fovs, eye * 4, frame.viewports[eye * 2], frame.viewports[eye * 2 + 1]);
+        }
+        telemetry.endFrame(scene.getVisibleNoteCount(), scene.getCulledNoteCount());
+        long end = System.nanoTime();
+        long allocated = Math.max(0, allocatedBytes() - allocatedBefore - ALLOCATION_OVERHEAD);
+        report.recordFrame(end - begin, drawBegin - begin, end - drawBegin, allocated,
+            !scene.haveNotesChanged() && !world.hasStartedLoads()
+                && !backend.haveLayoutsChanged(),
+            scene.getVisibleNoteCount());
+      }
+    } finally {
+      reader.close();
+      preparer.shutdown();
+      if (workspace != null) {
+        ((ChunkedWorld) world).close();
+        deleteTree(workspace);
+      }
+    }
+    report.recordBackend(backend, notes.size());
+  }
+
+  /**
+   * Saves the notes {@link MemoryWorld#scatter} makes as a workspace from before the world was
+   * chunked, for a {@link ChunkedWorld} to move into chunks.
+   */
+  private static void saveLegacyWorkspace(File directory, int noteCount) throws IOException {
+    NoteStore notes = new NoteStore(Math.max(1, noteCount));
+    new MemoryWorld(notes, new SpatialGrid(GRID_CELL_SIZE)).scatter(noteCount, FIELD_RADIUS);
+    NoteJournal journal = new NoteJournal(directory);
+    journal.open();
+    try {
+      float[] positions = notes.getPositions();
+      for (int id = 0; id < notes.getIdBound(); id++) {
+        int p = id * NoteStore.POSITION_STRIDE;
+        journal.appendAdd(id, positions[p], positions[p + 1], positions[p + 2], notes.getYaw(id),
+            notes.getMessage(id));
+      }
+    } finally {
+      journal.close();
+    }
+  }
+
+  private static void deleteTree(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteTree(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * @return Whether this JVM counts allocations; if not, every frame reports 0 bytes.
+   */
+  static boolean countsAllocations() {
+    return ALLOCATIONS != null;
+  }
+
+  private static long allocatedBytes() {
+    return ALLOCATIONS == null
+        ? 0 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static com.sun.management.ThreadMXBean allocationBean() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    if (!allocations.isThreadAllocatedMemorySupported()) {
+      return null;
+    }
+    allocations.setThreadAllocatedMemoryEnabled(true);
+    return allocations;
+  }
+
+  /**
+   * @return What reading the allocation counter itself allocates, subtracted from every frame.
+   */
+  private static long measureAllocationOverhead() {
+    long overhead = Long.MAX_VALUE;
+    for (int i = 0; i < 1000; i++) {
+      long before = allocatedBytes();
+      overhead = Math.min(overhead, allocatedBytes() - before);
+    }
+    return overhead;
+  }
+
+  /**
+   * Acts on pulls at a note as the app does: the first selects it, a second deletes it. Keeps
+   * the text layouts of new notes and lets go of notes evicted with their chunk, as the app does
+   * too.
+   */
+  private static final class SelectThenDelete
+      implements NoteScene.Listener, ChunkedWorld.Listener {
+    private final NoteStore notes;
+    NoteScene scene;
+    RecordingRenderBackend backend;
+    private int selectedNote = -1;
+
+    SelectThenDelete(NoteStore notes) {
+      this.notes = notes;
+    }
+
+    @Override
+    public void onNoteGazed(int id, long nowNanos) {}
+
+    @Override
+    public boolean onTrigger(int gazedNote) {
+      if (gazedNote < 0) {
+        return false;
+      }
+      if (gazedNote == selectedNote) {
+        backend.forgetLayout(gazedNote);
+        scene.removeNote(gazedNote);
+        selectedNote = -1;
+      } else {
+        selectedNote = gazedNote;
+      }
+      return true;
+    }
+
+    @Override
+    public void onNoteAdded(int id, NotePreparer.PreparedNote note, long nowNanos) {
+      backend.setLayout(notes, id, note.textLayout);
+    }
+
+    @Override
+    public void onNoteEvicted(int id) {
+      if (id == selectedNote) {
+        selectedNote = -1;
+      }
+      backend.forgetLayout(id);
+      scene.forgetNote(id);
+    }
+  }
+
+  /**
+   * What one measured replay cost.
+   */
+  static final class Report {
+    private final LatencyHistogram frameNanos = new LatencyHistogram();
+    private final LatencyHistogram newFrameNanos = new LatencyHistogram();
+    private final LatencyHistogram eyesNanos = new LatencyHistogram();
+    private long frames;
+    private long totalNanos;
+    private long visibleNotes;
+    private long allocatedBytes;
+    private long allocatingFrames;
+    private long steadyFrames;
+    private long allocatingSteadyFrames;
+    private final long[] backendCalls = new long[RecordingRenderBackend.CALL_COUNT];
+    private long backendTotalCalls;
+    private long notesUploaded;
+    private long badgesUploaded;
+    private long glyphsUploaded;
+    private int finalNoteCount;
+
+    void recordFrame(long nanos, long newFrameNanos, long eyesNanos, long allocated,
+        boolean steadyState, int visible) {
+      frameNanos.record(nanos);
+      this.newFrameNanos.record(newFrameNanos);
+      this.eyesNanos.record(eyesNanos);
+      frames++;
+      totalNanos += nanos;
+      visibleNotes += visible;
+      allocatedBytes += allocated;
+      if (allocated > 0) {
+        allocatingFrames++;
+      }
+      if (steadyState) {
+        steadyFrames++;
+        if (allocated > 0) {
+          allocatingSteadyFrames++;
+        }
+      }
+    }
+
+    void recordBackend(RecordingRenderBackend backend, int noteCount) {
+      for (int call = 0; call < RecordingRenderBackend.CALL_COUNT; call++) {
+        backendCalls[call] = backend.getCalls(call);
+      }
+      backendTotalCalls = backend.getTotalCalls();
+      notesUploaded = backend.getNotesUploaded();
+      badgesUploaded = backend.getBadgesUploaded();
+      glyphsUploaded = backend.getGlyphsUploaded();
+      finalNoteCount = noteCount;
+    }
+
+    long getSteadyFrames() {
+      return steadyFrames;
+    }
+
+    /**
+     * @return The number of frames that added no notes and still allocated.
+     */
+    long getAllocatingSteadyFrames() {
+      return allocatingSteadyFrames;
+    }
+
+    void print(PrintStream out, int noteCount) {
+      out.println("notes " + noteCount + " (" + finalNoteCount + " at the end), frames "
+          + frames);
+      if (frames == 0) {
+        return;
+      }
+      out.println("  stage p50_us p99_us max_us");
+      printStage(out, "frame", frameNanos);
+      printStage(out, "onNewFrame", newFrameNanos);
+      printStage(out, "onDrawEye x2", eyesNanos);
+      out.println("  frame mean_us " + micros(totalNanos / frames) + ", notes drawn avg "
+          + visibleNotes / frames);
+      StringBuilder calls = new StringBuilder("  backend calls per frame "
+          + perFrame(backendTotalCalls) + ":");
+      for (int call = 0; call < RecordingRenderBackend.CALL_COUNT; call++) {
+        calls.append(' ').append(RecordingRenderBackend.CALL_NAMES[call]).append(' ')
+            .append(perFrame(backendCalls[call]));
+      }
+      out.println(calls);
+      out.println("  notes uploaded per frame " + perFrame(notesUploaded) + ", badges "
+          + perFrame(badgesUploaded) + ", glyphs " + perFrame(glyphsUploaded));
+      out.println("  allocated bytes per frame " + perFrame(allocatedBytes) + ", frames allocating "
+          + allocatingFrames + ", steady-state frames allocating " + allocatingSteadyFrames
+          + " of " + steadyFrames);
+    }
+
+    private String perFrame(long total) {
+      return String.format("%.1f", (double) total / frames);
+    }
+
+    private static void printStage(PrintStream out, String name,
+        LatencyHistogram histogram) {
+      out.println("  " + name
+          + " " + micros(histogram.getValueAtPercentile(50))
+          + " " + micros(histogram.getValueAtPercentile(99))
+          + " " + micros(histogram.getMax()));
+    }
+
+    private static String micros(long nanos) {
+      return String.valueOf(nanos / 1000) + "." + (nanos / 100) % 10;
+    }
+  }
+}
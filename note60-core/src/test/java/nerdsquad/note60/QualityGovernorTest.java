@@ -0,0 +1,168 @@
+package nerdsquad.note60;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives {@link QualityGovernor} with synthetic frame times, a window at a time.
+ */
+public class QualityGovernorTest {
+  private static final long BUDGET_NANOS = 12000000L;
+  private static final long FAST_NANOS = 5000000L;
+  // Under budget, but too close to it to count as headroom.
+  private static final long BUSY_NANOS = 10000000L;
+  private static final long SLOW_NANOS = 20000000L;
+
+  // Windows that follow a step down without being judged.
+  private static final int SETTLE_WINDOWS = 2;
+  private static final int FAST_WINDOWS_TO_STEP_UP = 10;
+
+  private QualityGovernor governor;
+
+  @Before
+  public void setUp() {
+    governor = new QualityGovernor(BUDGET_NANOS);
+  }
+
+  @Test
+  public void fastFramesKeepTheBestLevel() {
+    feedWindows(100, FAST_NANOS);
+    assertEquals(0, governor.getLevel());
+    assertEquals(0, governor.getStepDownCount());
+  }
+
+  @Test
+  public void levelOnlyChangesAtTheEndOfAWindow() {
+    for (int frame = 0; frame < QualityGovernor.WINDOW_FRAMES - 1; frame++) {
+      assertFalse(governor.onFrame(SLOW_NANOS));
+    }
+    assertEquals(0, governor.getLevel());
+    assertTrue(governor.onFrame(SLOW_NANOS));
+    assertEquals(1, governor.getLevel());
+  }
+
+  @Test
+  public void sustainedSlowFramesStepDownOneLevelPerSettledWindow() {
+    int[] expected = {1, 1, 1, 2, 2, 2, 3, 3, 3, 4, 4, 4, 4, 4, 4};
+    for (int window = 0; window < expected.length; window++) {
+      feedWindows(1, SLOW_NANOS);
+      assertEquals("Level after window " + window, expected[window], governor.getLevel());
+    }
+    assertEquals(QualityGovernor.LEVEL_COUNT - 1, governor.getLevel());
+    assertEquals(QualityGovernor.LEVEL_COUNT - 1, governor.getStepDownCount());
+  }
+
+  @Test
+  public void aFewSlowFramesAWindowAreTolerated() {
+    for (int window = 0; window < 20; window++) {
+      feedWindow(2, SLOW_NANOS, FAST_NANOS);
+    }
+    assertEquals(0, governor.getLevel());
+
+    feedWindow(3, SLOW_NANOS, FAST_NANOS);
+    assertEquals(1, governor.getLevel());
+  }
+
+  @Test
+  public void stepsBackUpAfterARunOfFastWindows() {
+    feedWindows(1, SLOW_NANOS);
+    assertEquals(1, governor.getLevel());
+
+    feedWindows(SETTLE_WINDOWS + FAST_WINDOWS_TO_STEP_UP - 1, FAST_NANOS);
+    assertEquals(1, governor.getLevel());
+    feedWindows(1, FAST_NANOS);
+    assertEquals(0, governor.getLevel());
+    assertEquals(1, governor.getStepUpCount());
+  }
+
+  @Test
+  public void busyFramesHoldTheLevel() {
+    feedWindows(1, SLOW_NANOS);
+    feedWindows(200, BUSY_NANOS);
+    assertEquals(1, governor.getLevel());
+    assertEquals(0, governor.getStepUpCount());
+  }
+
+  @Test
+  public void aStepUpTakenBackDoublesTheRunNeededToTryAgain() {
+    feedWindows(1, SLOW_NANOS);
+    feedWindows(SETTLE_WINDOWS + FAST_WINDOWS_TO_STEP_UP, FAST_NANOS);
+    assertEquals(0, governor.getLevel());
+
+    // Level 0 is still too slow.
+    feedWindows(1, SLOW_NANOS);
+    assertEquals(1, governor.getLevel());
+
+    feedWindows(SETTLE_WINDOWS + 2 * FAST_WINDOWS_TO_STEP_UP - 1, FAST_NANOS);
+    assertEquals(1, governor.getLevel());
+    feedWindows(1, FAST_NANOS);
+    assertEquals(0, governor.getLevel());
+    assertEquals(2, governor.getStepDownCount());
+    assertEquals(2, governor.getStepUpCount());
+  }
+
+  @Test
+  public void aBusyWindowRestartsTheRunToStepUp() {
+    // Down a level, two windows to settle, and down another.
+    feedWindows(SETTLE_WINDOWS + 2, SLOW_NANOS);
+    assertEquals(2, governor.getLevel());
+
+    feedWindows(SETTLE_WINDOWS + FAST_WINDOWS_TO_STEP_UP - 1, FAST_NANOS);
+    feedWindows(1, BUSY_NANOS);
+    feedWindows(FAST_WINDOWS_TO_STEP_UP - 1, FAST_NANOS);
+    assertEquals(2, governor.getLevel());
+    feedWindows(1, FAST_NANOS);
+    assertEquals(1, governor.getLevel());
+  }
+
+  @Test
+  public void lockHoldsTheLevel() {
+    governor.lock(3);
+    feedWindows(50, FAST_NANOS);
+    assertEquals(3, governor.getLevel());
+    feedWindows(50, SLOW_NANOS);
+    assertEquals(3, governor.getLevel());
+    assertEquals(0, governor.getStepDownCount());
+    assertEquals(0, governor.getStepUpCount());
+  }
+
+  @Test
+  public void everyLeverIsNoBetterAtALowerLevel() {
+    governor.lock(0);
+    float text = governor.getTextDistance();
+    float draw = governor.getDrawDistance();
+    float scale = governor.getRenderScale();
+    assertEquals(NoteScene.Z_FAR, draw, 0f);
+    assertEquals(1f, scale, 0f);
+    for (int level = 1; level < QualityGovernor.LEVEL_COUNT; level++) {
+      governor.lock(level);
+      assertTrue(governor.getTextDistance() <= text);
+      assertTrue(governor.getDrawDistance() <= draw);
+      assertTrue(governor.getRenderScale() <= scale);
+      text = governor.getTextDistance();
+      draw = governor.getDrawDistance();
+      scale = governor.getRenderScale();
+    }
+    assertTrue(text < NoteScene.Z_FAR && draw < NoteScene.Z_FAR && scale < 1f);
+  }
+
+  private void feedWindows(int windows, long frameNanos) {
+    for (int window = 0; window < windows; window++) {
+      feedWindow(0, frameNanos, frameNanos);
+    }
+  }
+
+  /**
+   * Feeds one window: {@code slowFrames} frames of {@code slowNanos}, the rest of
+   * {@code otherNanos}.
+   */
+  private void feedWindow(int slowFrames, long slowNanos, long otherNanos) {
+    for (int frame = 0; frame < QualityGovernor.WINDOW_FRAMES; frame++) {
+      governor.onFrame(frame < slowFrames ? slowNanos : otherNanos);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package nerdsquad.note60;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Replays a synthetic session through the frame loop, packing note, badge and text uploads as
+ * the renderers do, and checks that no frame allocates unless it added or removed notes, the work
+ * {@link NoteScene#haveNotesChanged()} owns up to, started loading part of the workspace, or laid
+ * out text. Each workspace is replayed held in memory and streamed from disk by a
+ * {@link ChunkedWorld}.
+ *
+ * <p>Runs interpreted (see build.gradle), so a frame that allocates does so on every run.
+ */
+public class SteadyStateAllocationTest {
+  // Long enough to look all around the workspace and pull the trigger a dozen times.
+  private static final int FRAMES = 1200;
+
+  @Test
+  public void steadyStateFramesDoNotAllocate() throws IOException {
+    Assume.assumeTrue(TraceReplay.countsAllocations());
+    File trace = File.createTempFile("note60-synthetic", ".trace");
+    try {
+      SyntheticTrace.write(trace, FRAMES);
+      for (boolean chunked : new boolean[] {false, true}) {
+        for (int noteCount : new int[] {10, 1000, 20000}) {
+          // The first pass lets every buffer grow to its working size, as on a device after
+          // warm-up.
+          TraceReplay.replay(trace, noteCount, chunked, new TraceReplay.Report());
+          TraceReplay.Report report = new TraceReplay.Report();
+          TraceReplay.replay(trace, noteCount, chunked, report);
+          String workspace = noteCount + (chunked ? " chunked notes" : " notes");
+          assertTrue("Steady-state frames with " + workspace,
+              report.getSteadyFrames() > FRAMES / 2);
+          assertEquals("Steady-state frames allocating with " + workspace,
+              0, report.getAllocatingSteadyFrames());
+        }
+      }
+    } finally {
+      trace.delete();
+    }
+  }
+}